@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.benchmark;
+
+import com.google.gson.JsonPrimitive;
+import com.google.samples.apps.iosched.server.schedule.model.validator.Converter;
+import com.google.samples.apps.iosched.server.schedule.model.validator.Converters;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the converters that the extractor applies to every entity. Each invocation converts
+ * {@link #INPUTS} different values, and throughput is reported per converted value.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConverterBenchmark {
+
+  private static final int INPUTS = 256;
+
+  private JsonPrimitive[] dates;
+  private JsonPrimitive[] names;
+  private JsonPrimitive[] ids;
+  private JsonPrimitive[] youtubeUrls;
+  private JsonPrimitive[] plusIds;
+  private JsonPrimitive[] twitterHandles;
+  private JsonPrimitive[] booleans;
+
+  @Setup
+  public void setUp() {
+    dates = new JsonPrimitive[INPUTS];
+    names = new JsonPrimitive[INPUTS];
+    ids = new JsonPrimitive[INPUTS];
+    youtubeUrls = new JsonPrimitive[INPUTS];
+    plusIds = new JsonPrimitive[INPUTS];
+    twitterHandles = new JsonPrimitive[INPUTS];
+    booleans = new JsonPrimitive[INPUTS];
+    for (int i = 0; i < INPUTS; i++) {
+      dates[i] = new JsonPrimitive(String.format("2015-05-%02dT%02d:%02d:00Z",
+          1 + i % 28, i % 24, i % 60));
+      names[i] = new JsonPrimitive("Android / Developer's Tools " + i);
+      ids[i] = new JsonPrimitive("topic" + i);
+      youtubeUrls[i] = new JsonPrimitive(
+          "https://www.youtube.com/watch?v=" + String.format("video%06d", i));
+      plusIds[i] = new JsonPrimitive("+Speaker" + i);
+      twitterHandles[i] = new JsonPrimitive("@speaker" + i);
+      booleans[i] = new JsonPrimitive(i % 2 == 0 ? "true" : "FALSE");
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(INPUTS)
+  public void dateTime(Blackhole blackhole) {
+    convertAll(Converters.DATETIME, dates, blackhole);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(INPUTS)
+  public void tagName(Blackhole blackhole) {
+    convertAll(Converters.TAG_NAME, names, blackhole);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(INPUTS)
+  public void obfuscate(Blackhole blackhole) {
+    convertAll(Converters.OBFUSCATE, names, blackhole);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(INPUTS)
+  public void sessionUrl(Blackhole blackhole) {
+    convertAll(Converters.SESSION_URL, ids, blackhole);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(INPUTS)
+  public void sessionPhotoUrl(Blackhole blackhole) {
+    convertAll(Converters.SESSION_PHOTO_URL, ids, blackhole);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(INPUTS)
+  public void youtubeUrl(Blackhole blackhole) {
+    convertAll(Converters.YOUTUBE_URL, youtubeUrls, blackhole);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(INPUTS)
+  public void gplusUrl(Blackhole blackhole) {
+    convertAll(Converters.GPLUS_URL, plusIds, blackhole);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(INPUTS)
+  public void twitterUrl(Blackhole blackhole) {
+    convertAll(Converters.TWITTER_URL, twitterHandles, blackhole);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(INPUTS)
+  public void bool(Blackhole blackhole) {
+    convertAll(Converters.BOOLEAN, booleans, blackhole);
+  }
+
+  private static void convertAll(Converter converter, JsonPrimitive[] values,
+      Blackhole blackhole) {
+    for (JsonPrimitive value: values) {
+      blackhole.consume(converter.convert(value));
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.benchmark;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.samples.apps.iosched.server.schedule.model.DataCheck;
+import com.google.samples.apps.iosched.server.schedule.model.DataCheck.CheckResult;
+import com.google.samples.apps.iosched.server.schedule.model.DataExtractor;
+import com.google.samples.apps.iosched.server.schedule.server.ManifestData;
+import com.google.samples.apps.iosched.server.schedule.server.cloudstorage.CloudFileManager;
+import com.google.samples.apps.iosched.server.schedule.server.cloudstorage.LocalFileGcsService;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link DataCheck} over the extracted session data, with the blocks data file read
+ * from a local directory that stands in for Cloud Storage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataCheckBenchmark {
+
+  private static final int THREADS = 4;
+
+  @Param({"1", "10", "100"})
+  public int scale;
+
+  private File root;
+  private DataCheck checker;
+  private JsonObject sessionData;
+  private ManifestData manifest;
+  private ExecutorService executor;
+
+  @Setup
+  public void setUp() throws IOException {
+    SyntheticConference conference = SyntheticConference.scaled(scale);
+    sessionData = new DataExtractor(false).extractFromDataSources(
+        conference.createSources(conference.createVendorData()));
+
+    root = File.createTempFile("datacheck", "");
+    root.delete();
+    root.mkdirs();
+    CloudFileManager fileManager = new CloudFileManager(new LocalFileGcsService(root), "bucket");
+    fileManager.createOrUpdate("blocks.json", conference.createBlocks(), false);
+    manifest = new ManifestData();
+    manifest.dataFiles = new JsonArray();
+    manifest.dataFiles.add(new JsonPrimitive("blocks.json"));
+    manifest.dataFiles.add(new JsonPrimitive("session_data_v1.1.json"));
+    checker = new DataCheck(fileManager);
+    executor = Executors.newFixedThreadPool(THREADS);
+  }
+
+  @TearDown
+  public void tearDown() {
+    executor.shutdownNow();
+    delete(root);
+  }
+
+  @Benchmark
+  public CheckResult checkSequential() throws IOException {
+    return checker.check(null, sessionData, manifest);
+  }
+
+  @Benchmark
+  public CheckResult checkParallel() throws IOException {
+    return checker.check(null, sessionData, manifest, executor);
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child: children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.benchmark;
+
+import com.google.samples.apps.iosched.server.schedule.model.validator.IsoDateTime;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link IsoDateTime} with the SimpleDateFormat parsing and formatting that
+ * DateTimeConverter and DataCheck used before, on the same timestamps.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateTimeBenchmark {
+
+  private static final int INPUTS = 256;
+
+  private String[] timestamps;
+  private String[] timestampsWithoutZone;
+  private long[] millis;
+  private SimpleDateFormat[] inputFormats;
+  private SimpleDateFormat outputFormat;
+
+  @Setup
+  public void setUp() throws ParseException {
+    outputFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+    outputFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    SimpleDateFormat withoutZone = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+    withoutZone.setTimeZone(TimeZone.getTimeZone("UTC"));
+    inputFormats = new SimpleDateFormat[] {outputFormat, withoutZone};
+
+    timestamps = new String[INPUTS];
+    timestampsWithoutZone = new String[INPUTS];
+    millis = new long[INPUTS];
+    for (int i = 0; i < INPUTS; i++) {
+      timestamps[i] = String.format("2015-05-%02dT%02d:%02d:00Z", 1 + i % 28, i % 24, i % 60);
+      timestampsWithoutZone[i] = timestamps[i].substring(0, timestamps[i].length() - 1);
+      millis[i] = outputFormat.parse(timestamps[i]).getTime();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(INPUTS)
+  public void parseSimpleDateFormat(Blackhole blackhole) throws ParseException {
+    for (String timestamp: timestamps) {
+      blackhole.consume(outputFormat.parse(timestamp).getTime());
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(INPUTS)
+  public void parseIsoDateTime(Blackhole blackhole) throws ParseException {
+    for (String timestamp: timestamps) {
+      blackhole.consume(IsoDateTime.parse(timestamp));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(INPUTS)
+  public void formatSimpleDateFormat(Blackhole blackhole) {
+    for (long value: millis) {
+      blackhole.consume(outputFormat.format(new Date(value)));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(INPUTS)
+  public void formatIsoDateTime(Blackhole blackhole) {
+    for (long value: millis) {
+      blackhole.consume(IsoDateTime.format(value));
+    }
+  }
+
+  /**
+   * The old converter: try each input format in turn, then format again. Timestamps without a
+   * zone fail the first format, so they pay for a ParseException.
+   */
+  @Benchmark
+  @OperationsPerInvocation(INPUTS)
+  public void convertSimpleDateFormat(Blackhole blackhole) {
+    for (String timestamp: timestampsWithoutZone) {
+      Date date = null;
+      for (int i = 0; i < inputFormats.length && date == null; i++) {
+        try {
+          date = inputFormats[i].parse(timestamp);
+        } catch (ParseException e) {
+          // try the next one
+        }
+      }
+      blackhole.consume(outputFormat.format(date));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(INPUTS)
+  public void convertIsoDateTime(Blackhole blackhole) throws ParseException {
+    for (String timestamp: timestampsWithoutZone) {
+      blackhole.consume(IsoDateTime.format(IsoDateTime.parse(timestamp)));
+    }
+  }
+}
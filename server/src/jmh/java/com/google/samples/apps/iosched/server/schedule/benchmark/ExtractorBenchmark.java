@@ -0,0 +1,100 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.benchmark;
+
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import com.google.samples.apps.iosched.server.schedule.model.DataExtractor;
+import com.google.samples.apps.iosched.server.schedule.model.JsonDataSources;
+import com.google.samples.apps.iosched.server.schedule.model.JsonEntityStreams;
+import com.google.samples.apps.iosched.server.schedule.server.cloudstorage.SerializedJson;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the extraction of session data from the Vendor API entities, and its serialization
+ * to the bytes and hash that are compared with the published file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtractorBenchmark {
+
+  @Param({"1", "10", "100"})
+  public int scale;
+
+  private JsonDataSources sources;
+  private JsonDataSources extraSources;
+  private JsonEntityStreams streams;
+  private JsonObject sessionData;
+
+  @Setup
+  public void setUp() {
+    SyntheticConference conference = SyntheticConference.scaled(scale);
+    JsonObject vendorData = conference.createVendorData();
+    sources = conference.createSources(vendorData);
+    extraSources = conference.createExtraSources();
+    final String vendorDocument = vendorData.toString();
+    streams = new JsonEntityStreams() {
+      @Override
+      protected Reader openReader() {
+        return new StringReader(vendorDocument);
+      }
+    };
+    sessionData = new DataExtractor(false).extractFromDataSources(sources);
+  }
+
+  @Benchmark
+  public JsonObject extractFromDataSources() {
+    return new DataExtractor(false).extractFromDataSources(sources);
+  }
+
+  @Benchmark
+  public StringWriter extractFromStreams() throws IOException {
+    StringWriter out = new StringWriter();
+    new DataExtractor(false).extractFromStreams(extraSources, streams, new JsonWriter(out));
+    return out;
+  }
+
+  @Benchmark
+  public byte[] serializeAndHash() throws IOException {
+    return SerializedJson.of(sessionData, false).getHash();
+  }
+
+  @Benchmark
+  public byte[] serializeAndHashGzipped() throws IOException {
+    return SerializedJson.of(sessionData, true).getHash();
+  }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.benchmark;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.samples.apps.iosched.server.schedule.Config;
+import com.google.samples.apps.iosched.server.schedule.model.InputJsonKeys;
+import com.google.samples.apps.iosched.server.schedule.model.InputJsonKeys.VendorAPISource;
+import com.google.samples.apps.iosched.server.schedule.model.JsonDataSource;
+import com.google.samples.apps.iosched.server.schedule.model.JsonDataSources;
+
+import java.text.SimpleDateFormat;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Generates Vendor API data for a fake conference, with a fixed seed so that every run of a
+ * benchmark sees the same input.
+ *
+ * <p>{@link #scaled(int)} multiplies the size of a real event (about 250 sessions, 400 speakers,
+ * 60 categories and 20 rooms).
+ */
+public class SyntheticConference {
+
+  public static final int BASE_TOPICS = 250;
+  public static final int BASE_SPEAKERS = 400;
+  public static final int BASE_CATEGORIES = 60;
+  public static final int BASE_ROOMS = 20;
+
+  private static final long CONFERENCE_START = 1432803600000L; // 2015-05-28T09:00:00Z
+  private static final long HOUR = 60 * 60 * 1000L;
+  private static final int SLOTS_PER_DAY = 9;
+  private static final String THEME_ROOT = "themeRoot";
+
+  private final int topicCount;
+  private final int speakerCount;
+  private final int categoryCount;
+  private final int roomCount;
+  private final SimpleDateFormat dateFormat;
+
+  public SyntheticConference(int topicCount, int speakerCount, int categoryCount, int roomCount) {
+    this.topicCount = topicCount;
+    this.speakerCount = speakerCount;
+    this.categoryCount = categoryCount;
+    this.roomCount = roomCount;
+    dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+    dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+  }
+
+  public static SyntheticConference scaled(int factor) {
+    return new SyntheticConference(BASE_TOPICS * factor, BASE_SPEAKERS * factor,
+        BASE_CATEGORIES * factor, BASE_ROOMS * factor);
+  }
+
+  /**
+   * @return the Vendor API entities, keyed by the names of
+   * {@link InputJsonKeys.VendorAPISource.MainTypes}.
+   */
+  public JsonObject createVendorData() {
+    Random random = new Random(42);
+
+    JsonArray rooms = new JsonArray();
+    for (int i = 0; i < roomCount; i++) {
+      rooms.add(entity("room" + i, VendorAPISource.Rooms.name, "Room " + i));
+    }
+
+    JsonArray categories = new JsonArray();
+    categories.add(entity(THEME_ROOT, VendorAPISource.Categories.name, "Themes"));
+    for (int i = 0; i < categoryCount; i++) {
+      JsonObject category = entity("cat" + i, VendorAPISource.Categories.name, "Category " + i);
+      category.addProperty(VendorAPISource.Categories.parentid.name(), THEME_ROOT);
+      category.addProperty(VendorAPISource.Categories.description.name(),
+          "All about category " + i);
+      categories.add(category);
+    }
+
+    JsonArray speakers = new JsonArray();
+    for (int i = 0; i < speakerCount; i++) {
+      JsonObject speaker = entity("speaker" + i, VendorAPISource.Speakers.name, "Speaker " + i);
+      speaker.addProperty(VendorAPISource.Speakers.bio.name(), text(random, 60));
+      speaker.addProperty(VendorAPISource.Speakers.companyname.name(), "Company " + (i % 50));
+      speaker.addProperty(VendorAPISource.Speakers.photo.name(),
+          "http://example.com/photos/speaker" + i + ".jpg");
+      JsonArray info = new JsonArray();
+      info.add(info(VendorAPISource.Speakers.INFO_PUBLIC_PLUS_ID, "+Speaker" + i));
+      info.add(info(VendorAPISource.Speakers.INFO_PUBLIC_TWITTER, "@speaker" + i));
+      speaker.add(VendorAPISource.Speakers.info.name(), info);
+      speakers.add(speaker);
+    }
+
+    JsonArray topics = new JsonArray();
+    for (int i = 0; i < topicCount; i++) {
+      JsonObject topic = entity("topic" + i, VendorAPISource.Topics.title, "Session " + i);
+      topic.addProperty(VendorAPISource.Topics.description.name(), text(random, 120));
+      int slot = i / roomCount;
+      long start = CONFERENCE_START + (slot / SLOTS_PER_DAY) * 24 * HOUR
+          + (slot % SLOTS_PER_DAY) * HOUR;
+      topic.addProperty(VendorAPISource.Topics.start.name(), dateFormat.format(start));
+      topic.addProperty(VendorAPISource.Topics.finish.name(),
+          dateFormat.format(start + 45 * 60 * 1000L));
+
+      JsonArray categoryIds = new JsonArray();
+      categoryIds.add(new JsonPrimitive("cat" + random.nextInt(categoryCount)));
+      categoryIds.add(new JsonPrimitive("cat" + random.nextInt(categoryCount)));
+      JsonArray info = new JsonArray();
+      info.add(info(VendorAPISource.Topics.INFO_FEATURED_SESSION, String.valueOf(i % 10 == 0)));
+      info.add(info(VendorAPISource.Topics.INFO_IS_LIVE_STREAM, String.valueOf(i % 4 == 0)));
+      if (i % 5 == 0) {
+        categoryIds.add(new JsonPrimitive(Config.VIDEO_CATEGORY));
+        info.add(info(VendorAPISource.Topics.INFO_VIDEO_URL,
+            "https://www.youtube.com/watch?v=" + youtubeId(i)));
+      }
+      topic.add(VendorAPISource.Topics.categoryids.name(), categoryIds);
+      topic.add(VendorAPISource.Topics.info.name(), info);
+
+      JsonArray speakerIds = new JsonArray();
+      speakerIds.add(new JsonPrimitive("speaker" + random.nextInt(speakerCount)));
+      if (i % 3 == 0) {
+        speakerIds.add(new JsonPrimitive("speaker" + random.nextInt(speakerCount)));
+      }
+      topic.add(VendorAPISource.Topics.speakerids.name(), speakerIds);
+
+      JsonArray sessions = new JsonArray();
+      JsonObject session = new JsonObject();
+      session.addProperty(VendorAPISource.Sessions.roomid.name(), "room" + (i % roomCount));
+      sessions.add(session);
+      topic.add(VendorAPISource.Topics.sessions.name(), sessions);
+      topics.add(topic);
+    }
+
+    JsonObject vendorData = new JsonObject();
+    vendorData.add(VendorAPISource.MainTypes.rooms.name(), rooms);
+    vendorData.add(VendorAPISource.MainTypes.categories.name(), categories);
+    vendorData.add(VendorAPISource.MainTypes.speakers.name(), speakers);
+    vendorData.add(VendorAPISource.MainTypes.topics.name(), topics);
+    return vendorData;
+  }
+
+  /**
+   * @return the extra sources that map categories to tags.
+   */
+  public JsonDataSources createExtraSources() {
+    JsonArray mapping = new JsonArray();
+    JsonObject themes = new JsonObject();
+    themes.addProperty("category_id", THEME_ROOT);
+    themes.addProperty("tag_name", "THEME");
+    themes.addProperty("is_default", true);
+    mapping.add(themes);
+    JsonDataSources sources = new JsonDataSources();
+    sources.addSource(new JsonDataSource(
+        InputJsonKeys.ExtraSource.MainTypes.tag_category_mapping, mapping));
+    return sources;
+  }
+
+  /**
+   * @return the extra sources and the given Vendor API data, as the updater would pass them
+   * to the extractor.
+   */
+  public JsonDataSources createSources(JsonObject vendorData) {
+    JsonDataSources sources = createExtraSources();
+    for (VendorAPISource.MainTypes type: VendorAPISource.MainTypes.values()) {
+      sources.addSource(new JsonDataSource(type, vendorData.getAsJsonArray(type.name())));
+    }
+    return sources;
+  }
+
+  /**
+   * @return a blocks data file with a free block for each session slot.
+   */
+  public JsonObject createBlocks() {
+    SimpleDateFormat blockFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+    blockFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    JsonArray blocks = new JsonArray();
+    int slots = (topicCount + roomCount - 1) / roomCount;
+    for (int slot = 0; slot < slots; slot++) {
+      long start = CONFERENCE_START + (slot / SLOTS_PER_DAY) * 24 * HOUR
+          + (slot % SLOTS_PER_DAY) * HOUR;
+      JsonObject block = new JsonObject();
+      block.addProperty("title", "Sessions");
+      block.addProperty("type", "free");
+      block.addProperty("start", blockFormat.format(start));
+      block.addProperty("end", blockFormat.format(start + HOUR));
+      blocks.add(block);
+    }
+    JsonObject data = new JsonObject();
+    data.add("blocks", blocks);
+    return data;
+  }
+
+  private static JsonObject entity(String id, Enum<?> property, String value) {
+    JsonObject obj = new JsonObject();
+    obj.addProperty("id", id);
+    obj.addProperty(property.name(), value);
+    return obj;
+  }
+
+  private static JsonObject info(String name, String value) {
+    JsonObject obj = new JsonObject();
+    obj.addProperty("name", name);
+    obj.addProperty("value", value);
+    return obj;
+  }
+
+  private static String youtubeId(int i) {
+    String id = "video" + i + "abcdefghijk";
+    return id.substring(0, 11);
+  }
+
+  private static String text(Random random, int words) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < words; i++) {
+      if (i > 0) {
+        sb.append(' ');
+      }
+      int length = 2 + random.nextInt(8);
+      for (int j = 0; j < length; j++) {
+        sb.append((char) ('a' + random.nextInt(26)));
+      }
+    }
+    return sb.toString();
+  }
+}
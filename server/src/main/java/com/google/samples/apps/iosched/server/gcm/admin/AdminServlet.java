@@ -17,9 +17,12 @@ package com.google.samples.apps.iosched.server.gcm.admin;
 
 import com.google.samples.apps.iosched.server.gcm.BaseServlet;
 import com.google.samples.apps.iosched.server.gcm.db.DeviceStore;
+import com.google.samples.apps.iosched.server.gcm.device.GcmRateLimiter;
+import com.google.samples.apps.iosched.server.gcm.device.RegistrationUpdates;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -40,6 +43,17 @@ public class AdminServlet extends BaseServlet {
         }
         out.print("</body></html>");
         out.print("<h2>" + DeviceStore.getDeviceCount() + " device(s) registered!</h2>");
+        Map<String, Object> counters = RegistrationUpdates.getCounters();
+        // the counters are in memcache, and may have been evicted:
+        out.print("<p>Registration ids updated: "
+                + counterValue(counters, RegistrationUpdates.COUNTER_REWRITTEN)
+                + ", devices removed: "
+                + counterValue(counters, RegistrationUpdates.COUNTER_REMOVED) + "</p>");
+        out.print("<p>Rate limiter:");
+        for (Map.Entry<String, Object> counter : GcmRateLimiter.getCounters().entrySet()) {
+            out.print(" " + counter.getKey() + "=" + counter.getValue());
+        }
+        out.print("</p>");
         out.print("<form method='POST' action='/scheduleupdate'>");
         out.print("<table>");
         out.print("<tr>");
@@ -57,4 +71,9 @@ public class AdminServlet extends BaseServlet {
         resp.addHeader("X-FRAME-OPTIONS", "DENY");
         resp.setStatus(HttpServletResponse.SC_OK);
     }
+
+    private static String counterValue(Map<String, Object> counters, String name) {
+        Object value = counters.get(name);
+        return value == null ? "unknown" : value.toString();
+    }
 }
@@ -20,7 +20,11 @@ import com.google.samples.apps.iosched.server.gcm.AuthHelper.AuthInfo;
 import com.google.samples.apps.iosched.server.gcm.BaseServlet;
 import com.google.samples.apps.iosched.server.gcm.db.DeviceStore;
 import com.google.samples.apps.iosched.server.gcm.db.models.Device;
+import com.google.samples.apps.iosched.server.gcm.device.DeviceFanOut;
 import com.google.samples.apps.iosched.server.gcm.device.MessageSender;
+import com.google.samples.apps.iosched.server.gcm.device.PushCoalescer;
+import com.google.samples.apps.iosched.server.gcm.device.RolloutSchedule;
+import com.google.samples.apps.iosched.server.gcm.device.StagedRollout;
 
 import java.io.IOException;
 import java.util.Arrays;
@@ -99,14 +103,59 @@ public class SendMessageServlet extends BaseServlet {
               return;
             }
 
-            List<Device> allDevices = DeviceStore.getAllDevices();
-            if (allDevices == null || allDevices.isEmpty()) {
+            RolloutSchedule schedule;
+            try {
+                schedule = RolloutSchedule.parse(req);
+            } catch (IllegalArgumentException e) {
+                send(resp, 400, "Bad rollout schedule: " + e.getMessage());
+                return;
+            }
+
+            // Devices are read page by page by the fan-out tasks, just check there are some:
+            if (DeviceStore.getDeviceIds(null, 1).getGcmIds().isEmpty()) {
                 send(resp, 404, "No devices registered");
-            } else {
-                int resultCount = allDevices.size();
-                LOG.info("Selected " + resultCount + " devices");
-                sender.multicastSend(allDevices, action, payload);
-                send(resp, 200, "Message queued: " + resultCount + " devices");
+                return;
+            }
+
+            // Merge this request into an identical one that is still running, if any:
+            String jobId = schedule.isStaged()
+                    ? StagedRollout.newRolloutId() : DeviceFanOut.newJobId();
+            PushCoalescer coalescer = PushCoalescer.fromConfig(getServletConfig());
+            String coalesceKey = PushCoalescer.key(target, action, payload);
+            String existingJobId = coalescer.claim(coalesceKey, jobId, schedule);
+            if (existingJobId != null) {
+                send(resp, 200, "Message coalesced: same as job " + existingJobId);
+                return;
+            }
+
+            boolean started = false;
+            StagedRollout rollout = null;
+            DeviceFanOut fanOut = null;
+            try {
+                if (schedule.isStaged()) {
+                    LOG.info("Starting rollout " + jobId + " (" + schedule + ")");
+                    rollout = new StagedRollout(sender);
+                    int firstPage = rollout.sendWave(action, payload, schedule, jobId, 0,
+                            coalesceKey);
+                    started = true;
+                    send(resp, 200, "Rollout " + jobId + " started: " + schedule.getWaves()
+                            + " waves, " + firstPage + " devices queued so far");
+                } else {
+                    fanOut = new DeviceFanOut(sender, jobId, action,
+                            schedule.withJitter(payload), coalesceKey);
+                    int firstPage = fanOut.sendPage(null, 0);
+                    started = true;
+                    send(resp, 200, "Message queued: fan-out " + jobId + " started, "
+                            + firstPage + " devices queued so far");
+                }
+            } finally {
+                // Once a task is queued the job goes on without us, and a retry of this
+                // request must be coalesced into it:
+                boolean queued = (rollout != null && rollout.hasQueuedTasks())
+                        || (fanOut != null && fanOut.hasQueuedTasks());
+                if (!started && !queued) {
+                    coalescer.release(coalesceKey, jobId);
+                }
             }
         } else {
             // Send message to one device
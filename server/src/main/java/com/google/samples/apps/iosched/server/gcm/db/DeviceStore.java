@@ -18,9 +18,19 @@ package com.google.samples.apps.iosched.server.gcm.db;
 
 import static com.google.samples.apps.iosched.server.gcm.db.OfyService.ofy;
 
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
 import com.google.samples.apps.iosched.server.gcm.db.models.Device;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Result;
+import com.googlecode.objectify.cmd.Query;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 public class DeviceStore {
@@ -86,6 +96,62 @@ public class DeviceStore {
         ofy().delete().entity(oldDevice);
     }
 
+    /**
+     * Updates the registration ids of several devices, with one batch load, one batch save and
+     * one batch delete for all of them.
+     *
+     * @param newGcmIds new registration id of each device, by current registration id.
+     * @return number of devices updated.
+     */
+    public static int updateRegistrations(Map<String, String> newGcmIds) {
+        if (newGcmIds.isEmpty()) {
+            return 0;
+        }
+        Map<String, Device> oldDevices = ofy().load().type(Device.class).ids(newGcmIds.keySet());
+        List<Device> newDevices = new ArrayList<Device>(oldDevices.size());
+        List<Device> replaced = new ArrayList<Device>(oldDevices.size());
+        Set<String> newIds = new HashSet<String>(newGcmIds.values());
+        for (Map.Entry<String, String> entry : newGcmIds.entrySet()) {
+            Device oldDevice = oldDevices.get(entry.getKey());
+            if (oldDevice == null) {
+                LOG.warning("No device for registration id " + entry.getKey());
+                continue;
+            }
+            // Since we use the GCM key as the (immutable) primary key, we must create a new entity.
+            Device newDevice = new Device();
+            newDevice.setGcmId(entry.getValue());
+            newDevice.setGcmGroupId(oldDevice.getGcmGroupId());
+            newDevices.add(newDevice);
+            // unless it is the new id of another device in the batch:
+            if (!newIds.contains(oldDevice.getGcmId())) {
+                replaced.add(oldDevice);
+            }
+        }
+        if (newDevices.isEmpty()) {
+            return 0;
+        }
+        LOG.info("Updating the registration id of " + newDevices.size() + " devices");
+        Result<?> saved = ofy().save().entities(newDevices);
+        Result<?> deleted = ofy().delete().entities(replaced);
+        saved.now();
+        deleted.now();
+        return newDevices.size();
+    }
+
+    /**
+     * Unregisters several devices with one batch delete.
+     *
+     * @return number of devices unregistered, including any that were already unregistered.
+     */
+    public static int unregisterAll(Collection<String> gcmIds) {
+        if (gcmIds.isEmpty()) {
+            return 0;
+        }
+        LOG.info("Unregistering " + gcmIds.size() + " devices");
+        ofy().delete().type(Device.class).ids(gcmIds).now();
+        return gcmIds.size();
+    }
+
     /**
      * Gets registered device count.
      */
@@ -93,8 +159,53 @@ public class DeviceStore {
         return ofy().load().type(Device.class).count();
     }
 
-    public static List<Device> getAllDevices() {
-        return ofy().load().type(Device.class).list();
+    /**
+     * Registration ids of a page of devices, read with a keys-only query.
+     */
+    public static class DeviceIdPage {
+        private final List<String> gcmIds;
+        private final String nextCursor;
+
+        DeviceIdPage(List<String> gcmIds, String nextCursor) {
+            this.gcmIds = gcmIds;
+            this.nextCursor = nextCursor;
+        }
+
+        public List<String> getGcmIds() {
+            return gcmIds;
+        }
+
+        /**
+         * @return web safe cursor of the next page, or null if this is the last one.
+         */
+        public String getNextCursor() {
+            return nextCursor;
+        }
+    }
+
+    /**
+     * Gets the registration ids of a page of devices, without loading the entities. Memory
+     * used only depends on the page size, so all devices can be read page by page no matter
+     * how many there are.
+     *
+     * @param cursor web safe cursor returned with the previous page, or null for the first one.
+     * @param pageSize maximum number of ids in the page.
+     */
+    public static DeviceIdPage getDeviceIds(String cursor, int pageSize) {
+        Query<Device> query = ofy().load().type(Device.class).limit(pageSize);
+        if (cursor != null && !cursor.isEmpty()) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Key<Device>> keys = query.keys().iterator();
+        List<String> gcmIds = new ArrayList<String>(pageSize);
+        while (keys.hasNext()) {
+            gcmIds.add(keys.next().getName());
+        }
+        String nextCursor = null;
+        if (gcmIds.size() == pageSize) {
+            nextCursor = keys.getCursor().toWebSafeString();
+        }
+        return new DeviceIdPage(gcmIds, nextCursor);
     }
 
     public static Device findDeviceByGcmId(String regId) {
@@ -17,7 +17,12 @@ package com.google.samples.apps.iosched.server.gcm.db;
 
 import com.google.samples.apps.iosched.server.gcm.db.models.MulticastMessage;
 
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Result;
+
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import static com.google.samples.apps.iosched.server.gcm.db.OfyService.ofy;
@@ -36,26 +41,32 @@ public final class MessageStore {
     }
 
     /**
-     * Creates a persistent record with the devices to be notified using a
-     * multicast message.
+     * Creates the persistent records of several multicast messages, each one with the devices
+     * of one of the lists. The records are saved asynchronously in one batch: their ids are
+     * known only once the returned result is complete.
      *
-     * @param devices registration ids of the devices
+     * @param destinations registration ids of the devices of each message
      * @param type message type
      * @param extraData additional message payload
-     * @return ID for the persistent record
+     * @param rolloutId staged rollout the messages are part of, or null
+     * @param wave wave of the rollout the devices belong to
+     * @return the saved records, by key
      */
-    public static Long createMulticast(List<String> devices,
-                                         String type,
-                                         String extraData) {
-        LOG.info("Storing multicast for " + devices.size() + " devices. (type=" + type + ")");
-        MulticastMessage msg = new MulticastMessage();
-        msg.setDestinations(devices);
-        msg.setAction(type);
-        msg.setExtraData(extraData);
-        ofy().save().entity(msg).now();
-        Long id = msg.getId();
-        LOG.fine("Multicast ID: " + id);
-        return id;
+    public static Result<Map<Key<MulticastMessage>, MulticastMessage>> createMulticasts(
+            List<List<String>> destinations, String type, String extraData, String rolloutId,
+            int wave) {
+        LOG.info("Storing " + destinations.size() + " multicasts. (type=" + type + ")");
+        List<MulticastMessage> messages = new ArrayList<MulticastMessage>(destinations.size());
+        for (List<String> devices : destinations) {
+            MulticastMessage msg = new MulticastMessage();
+            msg.setDestinations(devices);
+            msg.setAction(type);
+            msg.setExtraData(extraData);
+            msg.setRolloutId(rolloutId);
+            msg.setWave(wave);
+            messages.add(msg);
+        }
+        return ofy().save().entities(messages);
     }
 
     /**
@@ -74,15 +85,35 @@ public final class MessageStore {
      *
      * @param id ID for the persistent record.
      * @param devices new list of registration ids of the devices.
+     * @param attempts number of times the message has been sent.
      */
-    public static void updateMulticast(Long id, List<String> devices) {
+    public static void updateMulticast(Long id, List<String> devices, int attempts) {
         MulticastMessage msg = ofy().load().type(MulticastMessage.class).id(id).now();
         if (msg == null) {
             LOG.severe("No entity for multicast ID: " + id);
             return;
         }
         msg.setDestinations(devices);
-        ofy().save().entity(msg);
+        msg.setAttempts(attempts);
+        ofy().save().entity(msg).now();
+    }
+
+    /**
+     * Marks a persistent record as failed: it won't be sent again, and is kept with the
+     * devices that could not be reached.
+     *
+     * @param id ID for the persistent record.
+     * @param devices registration ids of the devices that were not reached.
+     */
+    public static void markMulticastFailed(Long id, List<String> devices) {
+        MulticastMessage msg = ofy().load().type(MulticastMessage.class).id(id).now();
+        if (msg == null) {
+            LOG.severe("No entity for multicast ID: " + id);
+            return;
+        }
+        msg.setDestinations(devices);
+        msg.setFailed(true);
+        ofy().save().entity(msg).now();
     }
 
     /**
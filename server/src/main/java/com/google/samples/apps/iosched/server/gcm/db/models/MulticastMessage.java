@@ -28,6 +28,12 @@ public class MulticastMessage {
     private String action;
     private String extraData;
     private List<String> destinations;
+    private String rolloutId;
+    private int wave;
+    /** Number of times the message has been sent, not counting the current one. */
+    private int attempts;
+    /** Whether the message was given up, destinations are then the devices never reached. */
+    private boolean failed;
 
     public Key<MulticastMessage> getKey() {
         return Key.create(MulticastMessage.class, id);
@@ -61,4 +67,36 @@ public class MulticastMessage {
     public void setDestinations(List<String> destinations) {
         this.destinations = destinations;
     }
+
+    public String getRolloutId() {
+        return rolloutId;
+    }
+
+    public void setRolloutId(String rolloutId) {
+        this.rolloutId = rolloutId;
+    }
+
+    public int getWave() {
+        return wave;
+    }
+
+    public void setWave(int wave) {
+        this.wave = wave;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    public void setFailed(boolean failed) {
+        this.failed = failed;
+    }
 }
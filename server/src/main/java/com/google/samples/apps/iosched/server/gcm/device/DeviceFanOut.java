@@ -0,0 +1,203 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.server.gcm.device;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.samples.apps.iosched.server.gcm.db.DeviceStore;
+import com.google.samples.apps.iosched.server.gcm.db.DeviceStore.DeviceIdPage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Sends a message to all registered devices, one page of registration ids at a time.
+ *
+ * <p>Each page is read with a keys-only query and queued as multicast messages. Before that,
+ * a continuation task is queued on {@code /queue/fanout} to do the same with the next page,
+ * starting at the cursor where this one ended. Memory used doesn't depend on the number of
+ * devices, and each task only takes the time to read and queue one page.
+ *
+ * <p>When the message is one wave of a {@link StagedRollout}, only the devices of the cohort
+ * of that wave are sent the message.
+ */
+public class DeviceFanOut {
+    private static final Logger LOG = Logger.getLogger(DeviceFanOut.class.getName());
+
+    static final String QUEUE_NAME = "FanOutQueue";
+    static final String FANOUT_URL = "/queue/fanout";
+    /** Devices read per page and wave, so that multicasts are about as big as they can be. */
+    static final int PAGE_SIZE = 1000;
+    /**
+     * Maximum devices read per page. Each wave of a rollout reads all devices to find its
+     * cohort, so pages of many waves are capped and give smaller multicasts instead.
+     */
+    static final int MAX_PAGE_SIZE = 4000;
+
+    private final MessageSender sender;
+    private final String jobId;
+    private final String action;
+    private final String extraData;
+    private final RolloutSchedule schedule;
+    private final String rolloutId;
+    private final int wave;
+    private final String coalesceKey;
+    private boolean queuedTasks;
+
+    public static String newJobId() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Fan-out of a message to all devices.
+     *
+     * @param jobId id of the fan-out, see {@link #newJobId()}.
+     * @param coalesceKey key claimed for the job in the {@link PushCoalescer}, released once
+     *     the last page was sent, or null.
+     */
+    public DeviceFanOut(MessageSender sender, String jobId, String action, String extraData,
+            String coalesceKey) {
+        this(sender, jobId, action, extraData, RolloutSchedule.SINGLE_WAVE, null, 0,
+                coalesceKey);
+    }
+
+    /**
+     * Fan-out of a message to the devices of one wave of a rollout. The extra data is sent as
+     * is, it should already have the jitter of the schedule. The coalescer key, if any, is
+     * released after the last page of the last wave.
+     */
+    public DeviceFanOut(MessageSender sender, String action, String extraData,
+            RolloutSchedule schedule, String rolloutId, int wave, String coalesceKey) {
+        this(sender, rolloutId + "-" + wave, action, extraData, schedule, rolloutId, wave,
+                coalesceKey);
+    }
+
+    private DeviceFanOut(MessageSender sender, String jobId, String action, String extraData,
+            RolloutSchedule schedule, String rolloutId, int wave, String coalesceKey) {
+        this.sender = sender;
+        this.jobId = jobId;
+        this.action = action;
+        this.extraData = extraData;
+        this.schedule = schedule;
+        this.rolloutId = rolloutId;
+        this.wave = wave;
+        this.coalesceKey = coalesceKey;
+    }
+
+    /**
+     * Recreates the fan-out of a continuation task.
+     */
+    static DeviceFanOut fromTask(MessageSender sender, HttpServletRequest req) {
+        String rolloutId = req.getParameter("rolloutId");
+        String wave = req.getParameter("wave");
+        String coalesceKey = req.getParameter("coalesceKey");
+        return new DeviceFanOut(sender, req.getParameter("jobId"), req.getParameter("action"),
+                req.getParameter("extraData"), RolloutSchedule.parse(req),
+                rolloutId == null || rolloutId.isEmpty() ? null : rolloutId,
+                wave == null ? 0 : Integer.parseInt(wave),
+                coalesceKey == null || coalesceKey.isEmpty() ? null : coalesceKey);
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    /**
+     * @return whether {@link #sendPage} queued any task, even if it then failed. The fan-out
+     *     goes on with those tasks, so the same message must not be fanned out again.
+     */
+    public boolean hasQueuedTasks() {
+        return queuedTasks;
+    }
+
+    /**
+     * Sends the message to one page of devices, after queuing the task of the next page.
+     *
+     * @param cursor where the page starts, or null for the first page.
+     * @param page number of the page, used to name its task.
+     * @return number of devices sent the message.
+     */
+    public int sendPage(String cursor, int page) {
+        DeviceIdPage ids = DeviceStore.getDeviceIds(cursor, getPageSize(schedule));
+        if (ids.getNextCursor() != null) {
+            queuedTasks = true;
+            queuePage(ids.getNextCursor(), page + 1);
+        }
+        List<String> gcmIds = ids.getGcmIds();
+        if (schedule.isStaged()) {
+            List<String> cohort = new ArrayList<String>();
+            for (String gcmId : gcmIds) {
+                if (schedule.getCohort(gcmId) == wave) {
+                    cohort.add(gcmId);
+                }
+            }
+            gcmIds = cohort;
+        }
+        if (!gcmIds.isEmpty()) {
+            queuedTasks = true;
+            // Named after the page, so that a retried page doesn't send its devices twice:
+            sender.multicastSendToIds(gcmIds, action, extraData, rolloutId, wave,
+                    "fanout-" + jobId + "-" + page + "-send");
+        }
+        LOG.info("Fan-out " + jobId + ": page " + page + " sent to " + gcmIds.size()
+                + " devices" + (ids.getNextCursor() == null ? ", done" : ""));
+        if (ids.getNextCursor() == null && wave == schedule.getWaves() - 1
+                && coalesceKey != null) {
+            // The whole message was sent, identical ones start a new job from now on:
+            new PushCoalescer(PushCoalescer.DEFAULT_EXPIRY_SECONDS).release(coalesceKey,
+                    rolloutId != null ? rolloutId : jobId);
+        }
+        return gcmIds.size();
+    }
+
+    static int getPageSize(RolloutSchedule schedule) {
+        return Math.min(PAGE_SIZE * schedule.getWaves(), MAX_PAGE_SIZE);
+    }
+
+    private void queuePage(String cursor, int page) {
+        // Named, so that a retried page doesn't queue the next one twice:
+        TaskOptions taskOptions = TaskOptions.Builder
+                .withUrl(FANOUT_URL)
+                .taskName("fanout-" + jobId + "-" + page)
+                .param("jobId", jobId)
+                .param("cursor", cursor)
+                .param("page", Integer.toString(page))
+                .param("action", action)
+                .param("extraData", extraData == null ? "" : extraData)
+                .method(TaskOptions.Method.POST);
+        if (rolloutId != null) {
+            taskOptions.param("rolloutId", rolloutId)
+                    .param("wave", Integer.toString(wave));
+        }
+        if (coalesceKey != null) {
+            taskOptions.param("coalesceKey", coalesceKey);
+        }
+        schedule.addTo(taskOptions);
+        Queue queue = QueueFactory.getQueue(QUEUE_NAME);
+        try {
+            queue.add(taskOptions);
+        } catch (TaskAlreadyExistsException e) {
+            LOG.info("Fan-out " + jobId + ": page " + page + " was already queued");
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.server.gcm.device;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.IdentifiableValue;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+
+/**
+ * Limits how many devices all instances send messages to per second, with a token bucket
+ * shared through memcache.
+ *
+ * <p>There are two lanes, each with its own bucket and rate: one for the actions sent to a few
+ * devices that users are waiting for, like {@code sync_user}, and one for everything else, like
+ * global {@code sync_schedule} pings. A big broadcast then can't delay the priority messages.
+ *
+ * <p>The time spent waiting for tokens is counted in memcache for each lane, see
+ * {@link #getCounters()}. If memcache fails, messages are sent without limit.
+ */
+public class GcmRateLimiter {
+    private static final Logger LOG = Logger.getLogger(GcmRateLimiter.class.getName());
+
+    /** Context init parameters, see {@link #fromConfig(ServletConfig)}. */
+    public static final String PARAM_RATE = "rateLimitPerSecond";
+    public static final String PARAM_PRIORITY_RATE = "priorityRateLimitPerSecond";
+    public static final String PARAM_PRIORITY_ACTIONS = "priorityActions";
+
+    public static final String LANE_PRIORITY = "priority";
+    public static final String LANE_BULK = "bulk";
+
+    static final String DEFAULT_PRIORITY_ACTIONS = "sync_user";
+
+    /** Counters kept for each lane, see {@link #getCounters()}. */
+    public static final String COUNTER_SENT = "sent";
+    public static final String COUNTER_THROTTLED = "throttled";
+    public static final String COUNTER_WAIT_MILLIS = "waitMillis";
+
+    private static final String KEY_PREFIX = "gcm:rate:";
+    private static final int MAX_CAS_TRIES = 5;
+    /** Wait after too many concurrent updates of a bucket, before trying again. */
+    private static final long CONTENTION_WAIT_MILLIS = 50;
+
+    /** State of a bucket, stored in memcache. */
+    static class Bucket implements Serializable {
+        private static final long serialVersionUID = 1L;
+        double tokens;
+        long updatedMillis;
+
+        Bucket(double tokens, long updatedMillis) {
+            this.tokens = tokens;
+            this.updatedMillis = updatedMillis;
+        }
+    }
+
+    private final double rate;
+    private final double priorityRate;
+    private final Set<String> priorityActions;
+
+    /**
+     * @param rate devices per second of the bulk lane, or 0 for no limit.
+     * @param priorityRate devices per second of the priority lane, or 0 for no limit.
+     * @param priorityActions actions sent in the priority lane.
+     */
+    public GcmRateLimiter(double rate, double priorityRate, Set<String> priorityActions) {
+        this.rate = rate;
+        this.priorityRate = priorityRate;
+        this.priorityActions = priorityActions;
+    }
+
+    /**
+     * Creates a limiter from the init parameters of the servlet context. They are shared by
+     * all servlets, since the lane of a message also decides the queue it is sent from when it
+     * is created. Without them, there is no limit.
+     */
+    public static GcmRateLimiter fromConfig(ServletConfig config) {
+        ServletContext context = config.getServletContext();
+        String actions = context.getInitParameter(PARAM_PRIORITY_ACTIONS);
+        if (actions == null) {
+            actions = DEFAULT_PRIORITY_ACTIONS;
+        }
+        Set<String> priorityActions = new HashSet<String>();
+        for (String action : actions.split(",")) {
+            if (!action.trim().isEmpty()) {
+                priorityActions.add(action.trim());
+            }
+        }
+        return new GcmRateLimiter(getDouble(context, PARAM_RATE),
+                getDouble(context, PARAM_PRIORITY_RATE), priorityActions);
+    }
+
+    public String getLane(String action) {
+        return priorityActions.contains(action) ? LANE_PRIORITY : LANE_BULK;
+    }
+
+    /**
+     * Takes the tokens to send a message to some devices, waiting for them for at most
+     * maxSleepMillis.
+     *
+     * @return 0 if the message can be sent now, or else how long to wait before trying again.
+     */
+    public long acquire(String action, int devices, long maxSleepMillis) {
+        String lane = getLane(action);
+        double laneRate = LANE_PRIORITY.equals(lane) ? priorityRate : rate;
+        if (laneRate <= 0) {
+            return 0;
+        }
+        long slept = 0;
+        long wait;
+        try {
+            while ((wait = tryAcquire(lane, devices, laneRate)) > 0
+                    && slept + wait <= maxSleepMillis) {
+                Thread.sleep(wait);
+                slept += wait;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            wait = CONTENTION_WAIT_MILLIS;
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Rate limiter unavailable, sending without limit", e);
+            return 0;
+        }
+        recordWait(lane, devices, slept + wait, wait > 0);
+        if (slept + wait > 0) {
+            LOG.info("Throttled " + lane + " message to " + devices + " devices: slept " + slept
+                    + "ms" + (wait > 0 ? ", retrying in " + wait + "ms" : ""));
+        }
+        return wait;
+    }
+
+    /**
+     * Takes the tokens from the shared bucket of a lane, if it has enough.
+     *
+     * @return 0 if the tokens were taken, or how long until there will be enough.
+     */
+    private long tryAcquire(String lane, int devices, double laneRate) {
+        MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+        String key = KEY_PREFIX + lane;
+        for (int i = 0; i < MAX_CAS_TRIES; i++) {
+            long now = System.currentTimeMillis();
+            IdentifiableValue current = memcache.getIdentifiable(key);
+            if (current == null) {
+                // Evicted or never created: start with a full bucket.
+                Bucket bucket = new Bucket(capacity(laneRate), now);
+                long wait = take(bucket, devices, laneRate, now);
+                if (memcache.put(key, bucket, null,
+                        MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+                    return wait;
+                }
+                continue;
+            }
+            Bucket bucket = (Bucket) current.getValue();
+            long wait = take(bucket, devices, laneRate, now);
+            if (wait > 0) {
+                return wait;
+            }
+            if (memcache.putIfUntouched(key, current, bucket)) {
+                return 0;
+            }
+        }
+        return CONTENTION_WAIT_MILLIS;
+    }
+
+    /**
+     * Refills a bucket for the time since it was last updated, and takes the tokens for the
+     * devices from it if there are enough.
+     *
+     * <p>A message to more devices than the bucket can hold only needs a full bucket: the
+     * tokens then go negative, and the next messages wait for the debt to be paid back.
+     *
+     * @return 0 if the tokens were taken, or how long until there will be enough.
+     */
+    static long take(Bucket bucket, int devices, double rate, long nowMillis) {
+        double capacity = capacity(rate);
+        long elapsed = Math.max(0, nowMillis - bucket.updatedMillis);
+        bucket.tokens = Math.min(capacity, bucket.tokens + elapsed * rate / 1000);
+        bucket.updatedMillis = nowMillis;
+        double needed = Math.min(devices, capacity);
+        if (bucket.tokens >= needed) {
+            bucket.tokens -= devices;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((needed - bucket.tokens) * 1000 / rate));
+    }
+
+    /**
+     * @return the size of a bucket: one second worth of tokens.
+     */
+    static double capacity(double rate) {
+        return Math.max(1, rate);
+    }
+
+    private static void recordWait(String lane, int devices, long waitMillis,
+            boolean deferred) {
+        try {
+            MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+            if (!deferred) {
+                memcache.increment(counterKey(lane, COUNTER_SENT), devices, 0L);
+            }
+            if (waitMillis > 0) {
+                memcache.increment(counterKey(lane, COUNTER_THROTTLED), 1, 0L);
+                memcache.increment(counterKey(lane, COUNTER_WAIT_MILLIS), waitMillis, 0L);
+            }
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Could not count throttled messages", e);
+        }
+    }
+
+    /**
+     * @return for each lane and counter, as "lane.counter": devices sent, messages throttled
+     *     and milliseconds waited since the counters were created. Counters evicted from
+     *     memcache are missing.
+     */
+    public static Map<String, Object> getCounters() {
+        List<String> keys = new ArrayList<String>();
+        for (String lane : new String[] {LANE_PRIORITY, LANE_BULK}) {
+            for (String counter : new String[] {COUNTER_SENT, COUNTER_THROTTLED,
+                    COUNTER_WAIT_MILLIS}) {
+                keys.add(counterKey(lane, counter));
+            }
+        }
+        Map<String, Object> values = MemcacheServiceFactory.getMemcacheService().getAll(keys);
+        Map<String, Object> counters = new LinkedHashMap<String, Object>();
+        for (String key : keys) {
+            if (values.containsKey(key)) {
+                counters.put(key.substring(KEY_PREFIX.length()), values.get(key));
+            }
+        }
+        return counters;
+    }
+
+    private static String counterKey(String lane, String counter) {
+        return KEY_PREFIX + lane + "." + counter;
+    }
+
+    private static double getDouble(ServletContext context, String name) {
+        String value = context.getInitParameter(name);
+        return value == null || value.trim().isEmpty() ? 0 : Double.parseDouble(value.trim());
+    }
+}
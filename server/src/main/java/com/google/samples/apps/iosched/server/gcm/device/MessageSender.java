@@ -18,18 +18,22 @@ package com.google.samples.apps.iosched.server.gcm.device;
 
 import com.google.samples.apps.iosched.server.gcm.db.ApiKeyInitializer;
 import com.google.samples.apps.iosched.server.gcm.db.MessageStore;
-import com.google.samples.apps.iosched.server.gcm.db.DeviceStore;
 import com.google.samples.apps.iosched.server.gcm.db.models.Device;
 import com.google.samples.apps.iosched.server.gcm.db.models.MulticastMessage;
 import com.google.android.gcm.server.*;
 import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
 import com.google.appengine.api.taskqueue.TaskOptions;
+import com.googlecode.objectify.Key;
 
 import javax.servlet.ServletConfig;
 import java.io.IOException;
+import java.net.HttpURLConnection;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -43,51 +47,164 @@ import java.util.logging.Logger;
  */
 public class MessageSender {
     private String mApiKey;
-    private Sender mGcmService;
+    private boolean mDeferRegistrationUpdates;
+    private RetryPolicy mRetryPolicy;
+    private GcmRateLimiter mRateLimiter;
+
+    /**
+     * Servlet init parameter. If true, registration id changes found in the results of a
+     * message are applied later by a task, instead of before the message is done.
+     */
+    public static final String PARAM_DEFER_REGISTRATION_UPDATES = "deferRegistrationUpdates";
 
     private static final int TTL = (int) TimeUnit.MINUTES.toSeconds(300);
     protected final Logger mLogger = Logger.getLogger(getClass().getName());
     /** Maximum devices in a multicast message */
     private static final int MAX_DEVICES = 1000;
+    /**
+     * Maximum multicast records saved in one datastore call. With {@link #MAX_DEVICES} ids each,
+     * this keeps the call well under the datastore request size limit.
+     */
+    private static final int MAX_MULTICASTS_PER_SAVE = 20;
+    /**
+     * Maximum time a message waits for the rate limiter in the request. If it has to wait more,
+     * it is sent from a new task instead.
+     */
+    private static final long MAX_THROTTLE_SLEEP_MILLIS = 2000;
+    /** Maximum tasks added to a queue in one call, as limited by App Engine. */
+    private static final int MAX_TASKS_PER_ADD = 100;
 
     public MessageSender(ServletConfig config) {
         mApiKey = (String) config.getServletContext().getAttribute(
                 ApiKeyInitializer.ATTRIBUTE_ACCESS_KEY);
-        mGcmService = new Sender(mApiKey);
+        mRetryPolicy = RetryPolicy.fromConfig(config);
+        mRateLimiter = GcmRateLimiter.fromConfig(config);
+        mDeferRegistrationUpdates = Boolean.parseBoolean(
+                config.getInitParameter(PARAM_DEFER_REGISTRATION_UPDATES));
+    }
+
+    public int multicastSend(List<Device> devices, String action, String extraData) {
+        List<String> gcmIds = new ArrayList<String>(devices.size());
+        for (Device device : devices) {
+            gcmIds.add(device.getGcmId());
+        }
+        return multicastSendToIds(gcmIds, action, extraData, null, 0, null);
     }
 
-    public void multicastSend(List<Device> devices, String action, String extraData) {
-        Queue queue = QueueFactory.getQueue("MulticastMessagesQueue");
+    /**
+     * Same as {@link #multicastSend(List, String, String)}, given the registration ids of the
+     * devices. The message may be part of one wave of a {@link StagedRollout}, in which case
+     * its results are counted for the wave.
+     *
+     * <p>If a task name prefix is given, the task of each multicast is named after it and the
+     * index of the multicast. Sending the same devices again with the same prefix, as when the
+     * task calling this is retried, then doesn't send them the message twice.
+     *
+     * @param rolloutId id of the rollout, or null if the message is not part of one.
+     * @param taskNamePrefix prefix of the names of the tasks, or null to let App Engine name them.
+     * @return number of multicast messages queued.
+     */
+    public int multicastSendToIds(List<String> gcmIds, String action, String extraData,
+            String rolloutId, int wave, String taskNamePrefix) {
+        Queue queue = getQueue(action);
 
         // Split messages into batches for multicast
         // GCM limits maximum devices per multicast request. AppEngine also limits the size of
         // lists stored in the datastore.
-        int total = devices.size();
-        List<String> partialDevices = new ArrayList<String>(total);
-        int counter = 0;
-        for (Device device : devices) {
-            counter ++;
-            partialDevices.add(device.getGcmId());
-            int partialSize = partialDevices.size();
-            if (partialSize == MAX_DEVICES || counter == total) {
-                // Send multicast message
-                Long multicastKey = MessageStore.createMulticast(partialDevices,
-                        action,
-                        extraData);
-                mLogger.fine("Queuing " + partialSize + " devices on multicast " + multicastKey);
-                TaskOptions taskOptions = TaskOptions.Builder
+        int total = gcmIds.size();
+        List<List<String>> batches = new ArrayList<List<String>>();
+        for (int i = 0; i < total; i += MAX_DEVICES) {
+            batches.add(new ArrayList<String>(
+                    gcmIds.subList(i, Math.min(total, i + MAX_DEVICES))));
+        }
+
+        // Start saving all the multicast records, in as many batches as needed to keep each
+        // datastore call under its size limit, before waiting for any of them:
+        List<com.googlecode.objectify.Result<Map<Key<MulticastMessage>, MulticastMessage>>>
+                saves = new ArrayList<com.googlecode.objectify.Result<
+                        Map<Key<MulticastMessage>, MulticastMessage>>>();
+        for (int i = 0; i < batches.size(); i += MAX_MULTICASTS_PER_SAVE) {
+            saves.add(MessageStore.createMulticasts(
+                    batches.subList(i, Math.min(batches.size(), i + MAX_MULTICASTS_PER_SAVE)),
+                    action, extraData, rolloutId, wave));
+        }
+
+        // Queue the tasks of each save as soon as it completes, while the next ones go on:
+        int queued = 0;
+        int batch = 0;
+        Map<String, Long> multicastIds = new LinkedHashMap<String, Long>();
+        List<TaskOptions> taskOptions = new ArrayList<TaskOptions>(MAX_TASKS_PER_ADD);
+        for (com.googlecode.objectify.Result<Map<Key<MulticastMessage>, MulticastMessage>> save
+                : saves) {
+            for (Key<MulticastMessage> key : save.now().keySet()) {
+                TaskOptions task = TaskOptions.Builder
                         .withUrl("/queue/send")
-                        .param("multicastKey", Long.toString(multicastKey))
+                        .param("multicastKey", Long.toString(key.getId()))
                         .method(TaskOptions.Method.POST);
-                queue.add(taskOptions);
-                partialDevices.clear();
+                if (taskNamePrefix != null) {
+                    String taskName = taskNamePrefix + "-" + batch;
+                    task.taskName(taskName);
+                    multicastIds.put(taskName, key.getId());
+                }
+                batch++;
+                taskOptions.add(task);
+                if (taskOptions.size() == MAX_TASKS_PER_ADD) {
+                    queued += addTasks(queue, taskOptions, multicastIds);
+                    taskOptions.clear();
+                }
+            }
+            mLogger.fine("Queued " + queued + " of " + batches.size() + " multicasts");
+        }
+        if (!taskOptions.isEmpty()) {
+            queued += addTasks(queue, taskOptions, multicastIds);
+        }
+        mLogger.info("Queued message to " + total + " devices in " + queued + " multicasts");
+        return queued;
+    }
+
+    /**
+     * Adds tasks to a queue. Named tasks that already exist were queued by a previous attempt
+     * of the same send: their multicast records are duplicates and are deleted.
+     *
+     * @param multicastIds multicast id of each named task, by name.
+     * @return number of tasks actually added.
+     */
+    private int addTasks(Queue queue, List<TaskOptions> taskOptions,
+            Map<String, Long> multicastIds) {
+        try {
+            queue.add(taskOptions);
+            return taskOptions.size();
+        } catch (TaskAlreadyExistsException e) {
+            // The other tasks of the batch are still added
+            List<String> existing = e.getTaskNames();
+            mLogger.info("Skipped " + existing.size() + " multicasts already queued");
+            for (String taskName : existing) {
+                Long multicastId = multicastIds.get(taskName);
+                if (multicastId != null) {
+                    MessageStore.deleteMulticast(multicastId);
+                }
             }
+            return taskOptions.size() - existing.size();
         }
-        mLogger.fine("Queued message to " + total + " devices");
     }
 
+    /**
+     * Sends a multicast message. If some devices could not be reached for a reason that may
+     * go away, a task is queued to retry them later, following the {@link RetryPolicy}.
+     *
+     * @return true if the multicast record is no longer needed, false if it is kept for a retry
+     *     or because the message failed permanently.
+     */
     boolean sendMessage(Long multicastId) {
         MulticastMessage msg = MessageStore.getMulticast(multicastId);
+        if (msg == null) {
+            mLogger.warning("No entity for multicast ID: " + multicastId);
+            return true;
+        }
+        if (msg.isFailed()) {
+            mLogger.warning("Multicast " + multicastId + " was already given up");
+            return false;
+        }
         List<String> devices = msg.getDestinations();
         String action = msg.getAction();
         Message.Builder builder = new Message.Builder().delayWhileIdle(true);
@@ -100,22 +217,43 @@ public class MessageSender {
                     .timeToLive(TTL);
         Message message = builder.build();
         MulticastResult multicastResult = null;
+        RetryAfterSender gcmService = new RetryAfterSender(mApiKey);
         try {
             // We occasionally see null messages. (Maybe due to squelch?)
             // We should these from entering the send queue in the first place. In the meantime,
             // here's a hack to prevent this.
             if (devices != null) {
-                multicastResult = mGcmService.sendNoRetry(message, devices);
+                long throttleMillis = mRateLimiter.acquire(action, devices.size(),
+                        MAX_THROTTLE_SLEEP_MILLIS);
+                if (throttleMillis > 0) {
+                    // Over the rate limit for longer than we want to hold this request
+                    queueSend(multicastId, action, throttleMillis, null);
+                    return false;
+                }
+                multicastResult = gcmService.sendNoRetry(message, devices);
                 mLogger.info("Result: " + multicastResult);
             } else {
                 mLogger.info("Null device list detected. Aborting.");
                 return true;
             }
-        } catch (IOException e) {
+        } catch (InvalidRequestException e) {
+            recordRolloutResults(msg, devices.size(), devices.size());
+            if (e.getHttpStatusCode() >= 500) {
+                mLogger.log(Level.WARNING, "GCM unavailable posting " + message, e);
+                return scheduleRetry(msg, devices, gcmService.getRetryAfterMillis());
+            }
+            // The request itself is wrong, sending it again won't help
             mLogger.log(Level.SEVERE, "Exception posting " + message, e);
-            return true;
+            MessageStore.markMulticastFailed(multicastId, devices);
+            return false;
+        } catch (IOException e) {
+            mLogger.log(Level.WARNING, "Exception posting " + message, e);
+            recordRolloutResults(msg, devices.size(), devices.size());
+            return scheduleRetry(msg, devices, 0);
         }
+        recordRolloutResults(msg, devices.size(), countErrors(multicastResult));
         boolean allDone = true;
+        RegistrationUpdates registrationUpdates = new RegistrationUpdates();
         // check if any registration id must be updated
         if (multicastResult.getCanonicalIds() != 0) {
             List<Result> results = multicastResult.getResults();
@@ -123,14 +261,14 @@ public class MessageSender {
                 String canonicalRegId = results.get(i).getCanonicalRegistrationId();
                 if (canonicalRegId != null) {
                     String regId = devices.get(i);
-                    DeviceStore.updateRegistration(regId, canonicalRegId);
+                    registrationUpdates.addCanonicalId(regId, canonicalRegId);
                 }
             }
         }
+        List<String> retriableRegIds = new ArrayList<String>();
         if (multicastResult.getFailure() != 0) {
             // there were failures, check if any could be retried
             List<Result> results = multicastResult.getResults();
-            List<String> retriableRegIds = new ArrayList<String>();
             for (int i = 0; i < results.size(); i++) {
                 String error = results.get(i).getErrorCodeName();
                 if (error != null) {
@@ -138,25 +276,139 @@ public class MessageSender {
                     mLogger.warning("Got error (" + error + ") for regId " + regId);
                     if (error.equals(Constants.ERROR_NOT_REGISTERED)) {
                         // application has been removed from device - unregister it
-                        DeviceStore.unregister(regId);
+                        registrationUpdates.addNotRegistered(regId);
                     }
                     if (error.equals(Constants.ERROR_UNAVAILABLE)) {
                         retriableRegIds.add(regId);
                     }
                 }
             }
-            if (!retriableRegIds.isEmpty()) {
-                // update task
-                MessageStore.updateMulticast(multicastId, retriableRegIds);
-                allDone = false;
-                return false;
-            }
         }
-        if (allDone) {
-            return true;
+        if (mDeferRegistrationUpdates) {
+            registrationUpdates.defer();
         } else {
+            registrationUpdates.apply();
+        }
+        if (!retriableRegIds.isEmpty()) {
+            allDone = scheduleRetry(msg, retriableRegIds, gcmService.getRetryAfterMillis());
+        }
+        return allDone;
+    }
+
+    /**
+     * Queues a task to send the message again to some of its devices, unless it was already
+     * sent as many times as the retry policy allows. Then, the devices are recorded as
+     * permanently failed in the multicast record.
+     *
+     * @return false, as the multicast record is still needed.
+     */
+    private boolean scheduleRetry(MulticastMessage msg, List<String> devices,
+            long retryAfterMillis) {
+        int attempts = msg.getAttempts() + 1;
+        if (!mRetryPolicy.canRetry(attempts)) {
+            mLogger.severe("Giving up multicast " + msg.getId() + " after " + attempts
+                    + " attempts, " + devices.size() + " devices not reached");
+            MessageStore.markMulticastFailed(msg.getId(), devices);
             return false;
         }
+        long delay = mRetryPolicy.getDelayMillis(attempts, retryAfterMillis);
+        MessageStore.updateMulticast(msg.getId(), devices, attempts);
+        mLogger.info("Retrying " + devices.size() + " devices of multicast " + msg.getId()
+                + " in " + delay + "ms (attempt " + (attempts + 1) + ")");
+        // Named, so that if this task is retried the message isn't retried twice:
+        queueSend(msg.getId(), msg.getAction(), delay, "multicast-" + msg.getId() + "-" + attempts);
+        return false;
+    }
+
+    /**
+     * @return the queue of the tasks that send messages with the given action. Priority actions
+     *     have their own queue, so that they don't wait behind broadcasts.
+     */
+    private Queue getQueue(String action) {
+        if (GcmRateLimiter.LANE_PRIORITY.equals(mRateLimiter.getLane(action))) {
+            return QueueFactory.getQueue("PriorityMessagesQueue");
+        }
+        return QueueFactory.getQueue("MulticastMessagesQueue");
+    }
+
+    /**
+     * Queues a task to send a multicast message later.
+     *
+     * @param taskName name of the task, or null to let App Engine name it.
+     */
+    private void queueSend(Long multicastId, String action, long delayMillis, String taskName) {
+        TaskOptions taskOptions = TaskOptions.Builder
+                .withUrl("/queue/send")
+                .param("multicastKey", Long.toString(multicastId))
+                .countdownMillis(delayMillis)
+                .method(TaskOptions.Method.POST);
+        if (taskName != null) {
+            taskOptions.taskName(taskName);
+        }
+        try {
+            getQueue(action).add(taskOptions);
+        } catch (TaskAlreadyExistsException e) {
+            mLogger.info("Task " + taskName + " was already queued");
+        }
+    }
+
+    /**
+     * @return number of devices the message could not be delivered to, not counting the ones
+     *     where the application was uninstalled, which are expected in every message.
+     */
+    private static int countErrors(MulticastResult multicastResult) {
+        if (multicastResult.getFailure() == 0) {
+            return 0;
+        }
+        int errors = 0;
+        for (Result result : multicastResult.getResults()) {
+            String error = result.getErrorCodeName();
+            if (error != null && !error.equals(Constants.ERROR_NOT_REGISTERED)) {
+                errors++;
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Counts the results of the first attempt to send a message of a rollout. Retries only go
+     * to the devices that failed, counting them again would skew the error rate of the wave.
+     */
+    private void recordRolloutResults(MulticastMessage msg, int sent, int failed) {
+        if (msg.getRolloutId() == null || msg.getAttempts() > 0) {
+            return;
+        }
+        try {
+            StagedRollout.recordResults(msg.getRolloutId(), msg.getWave(), msg.getId(), sent,
+                    failed);
+        } catch (RuntimeException e) {
+            // Only used to decide if the rollout goes on, don't fail the message because of it.
+            mLogger.log(Level.WARNING, "Could not record results of rollout "
+                    + msg.getRolloutId(), e);
+        }
     }
 
+    /**
+     * Keeps the Retry-After header of the last response from GCM. Not thread safe, a new one
+     * is used for each message.
+     */
+    private static class RetryAfterSender extends Sender {
+        private String mRetryAfter;
+
+        RetryAfterSender(String key) {
+            super(key);
+        }
+
+        @Override
+        protected HttpURLConnection post(String url, String contentType, String body)
+                throws IOException {
+            HttpURLConnection conn = super.post(url, contentType, body);
+            mRetryAfter = conn.getHeaderField("Retry-After");
+            return conn;
+        }
+
+        long getRetryAfterMillis() {
+            return RetryPolicy.parseRetryAfter(mRetryAfter, System.currentTimeMillis());
+        }
+    }
 }
@@ -42,25 +42,22 @@ public class MulticastQueueWorker extends BaseServlet {
 
     /**
      * Processes the request to add a new message.
+     *
+     * <p>Devices that could not be reached are retried by a new task queued by
+     * {@link MessageSender}, with its own backoff, so this task always succeeds unless there is
+     * an unexpected error.
      */
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) {
         Long multicastId = new Long(req.getParameter("multicastKey"));
-        boolean success = mSender.sendMessage(multicastId);
-        if (success) {
+        boolean done = mSender.sendMessage(multicastId);
+        if (done) {
             taskDone(resp, multicastId);
         } else {
-            retryTask(resp);
+            resp.setStatus(200);
         }
     }
 
-    /**
-     * Indicates to App Engine that this task should be retried.
-     */
-    private void retryTask(HttpServletResponse resp) {
-        resp.setStatus(500);
-    }
-
     /**
      * Indicates to App Engine that this task is done.
      */
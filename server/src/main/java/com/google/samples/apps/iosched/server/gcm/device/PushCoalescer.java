@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.server.gcm.device;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletConfig;
+
+/**
+ * Merges identical push requests into the fan-out of the first one, while it is running.
+ *
+ * <p>Requests are identical if they have the same target, action and payload. The first one
+ * claims its key in memcache with its job id. Requests that find the key taken are answered
+ * with that job id instead of starting a fan-out of their own. The {@link DeviceFanOut} of the
+ * job releases the key once its last page (of the last wave, for a {@link StagedRollout}) was
+ * sent, or when the rollout stops. The key also expires on its own some time after the job
+ * should have finished, in case it never gets there.
+ */
+public class PushCoalescer {
+    private static final Logger LOG = Logger.getLogger(PushCoalescer.class.getName());
+
+    /**
+     * Context init parameter: how long a claim outlives the expected duration of its job,
+     * in seconds. 0 disables coalescing.
+     */
+    public static final String PARAM_EXPIRY = "coalesceExpirySeconds";
+    static final int DEFAULT_EXPIRY_SECONDS = 60 * 60;
+
+    private static final String KEY_PREFIX = "gcm:push:";
+
+    private final MemcacheService memcache;
+    private final int expirySeconds;
+
+    public PushCoalescer(int expirySeconds) {
+        this(MemcacheServiceFactory.getMemcacheService(), expirySeconds);
+    }
+
+    PushCoalescer(MemcacheService memcache, int expirySeconds) {
+        this.memcache = memcache;
+        this.expirySeconds = expirySeconds;
+    }
+
+    /**
+     * Creates a coalescer from the init parameters of the servlet context.
+     */
+    public static PushCoalescer fromConfig(ServletConfig config) {
+        String expiry = config.getServletContext().getInitParameter(PARAM_EXPIRY);
+        return new PushCoalescer(expiry == null || expiry.trim().isEmpty()
+                ? DEFAULT_EXPIRY_SECONDS : Integer.parseInt(expiry.trim()));
+    }
+
+    /**
+     * Claims a push for a new job, unless an identical one is still running.
+     *
+     * @param key key of the push, see {@link #key(String, String, String)}.
+     * @param schedule schedule of the job, which tells how long it is expected to run.
+     * @return null if the job can go on, or else the id of the job it is a duplicate of.
+     */
+    public String claim(String key, String jobId, RolloutSchedule schedule) {
+        if (expirySeconds <= 0) {
+            return null;
+        }
+        long expiry = expirySeconds + TimeUnit.MILLISECONDS.toSeconds(
+                schedule.getWaveDelayMillis(schedule.getWaves() - 1));
+        try {
+            if (memcache.put(key, jobId, Expiration.byDeltaSeconds((int) expiry),
+                    MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+                return null;
+            }
+            String existing = (String) memcache.get(key);
+            if (existing != null) {
+                LOG.info("Push " + key + " coalesced into job " + existing);
+            }
+            return existing;
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Could not check for duplicate pushes", e);
+            return null;
+        }
+    }
+
+    /**
+     * Releases the claim of a job that finished or could not be started, so that the next
+     * identical request starts a new job. Claims of other jobs are left alone.
+     */
+    public void release(String key, String jobId) {
+        try {
+            if (jobId.equals(memcache.get(key))) {
+                memcache.delete(key);
+                LOG.info("Push " + key + " of job " + jobId + " released");
+            }
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Could not release push of job " + jobId, e);
+        }
+    }
+
+    /**
+     * @return the memcache key of a push, with a hash of the payload.
+     */
+    public static String key(String target, String action, String payload) {
+        return KEY_PREFIX + target + ":" + action + ":" + sha1(payload == null ? "" : payload);
+    }
+
+    private static String sha1(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.server.gcm.device;
+
+import com.google.samples.apps.iosched.server.gcm.BaseServlet;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Applies the {@link RegistrationUpdates} deferred by {@link MessageSender}.
+ *
+ * <p>This class should not be called directly. Instead, it's used as a helper
+ * for the device maintenance task queue.
+ */
+@SuppressWarnings("serial")
+public class RegistrationQueueWorker extends BaseServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) {
+        RegistrationUpdates.fromTask(req).apply();
+        resp.setStatus(200);
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.server.gcm.device;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.samples.apps.iosched.server.gcm.db.DeviceStore;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Registration id changes found in the results of a multicast message: devices that have a new
+ * (canonical) registration id, and devices where the application was uninstalled.
+ *
+ * <p>They are collected while the results are processed and then applied to the
+ * {@link DeviceStore} in a few batch calls, either right away or from a task on
+ * {@code /queue/registrations}. The number of devices rewritten and removed is counted in
+ * memcache, see {@link #getCounters()}.
+ */
+public class RegistrationUpdates {
+    private static final Logger LOG = Logger.getLogger(RegistrationUpdates.class.getName());
+
+    static final String QUEUE_NAME = "DeviceMaintenanceQueue";
+    static final String UPDATES_URL = "/queue/registrations";
+    /** Maximum devices in a deferred task, to keep it well under the task size limit. */
+    static final int MAX_DEVICES_PER_TASK = 100;
+
+    public static final String COUNTER_REWRITTEN = "gcm:registrationsRewritten";
+    public static final String COUNTER_REMOVED = "gcm:registrationsRemoved";
+
+    private final Map<String, String> canonicalIds = new LinkedHashMap<String, String>();
+    private final Set<String> unregistered = new LinkedHashSet<String>();
+
+    /**
+     * The device with registration id oldGcmId is now known by GCM as newGcmId.
+     */
+    public void addCanonicalId(String oldGcmId, String newGcmId) {
+        canonicalIds.put(oldGcmId, newGcmId);
+    }
+
+    /**
+     * The application was uninstalled from the device.
+     */
+    public void addNotRegistered(String gcmId) {
+        unregistered.add(gcmId);
+    }
+
+    public boolean isEmpty() {
+        return canonicalIds.isEmpty() && unregistered.isEmpty();
+    }
+
+    /**
+     * Applies the changes to the device store.
+     */
+    public void apply() {
+        if (isEmpty()) {
+            return;
+        }
+        int rewritten = DeviceStore.updateRegistrations(canonicalIds);
+        int removed = DeviceStore.unregisterAll(unregistered);
+        LOG.info("Registration updates: " + rewritten + " devices rewritten, " + removed
+                + " removed");
+        try {
+            MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+            memcache.increment(COUNTER_REWRITTEN, rewritten, 0L);
+            memcache.increment(COUNTER_REMOVED, removed, 0L);
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Could not count registration updates", e);
+        }
+    }
+
+    /**
+     * Queues tasks that will apply the changes later, so that they don't delay sending the
+     * next multicast messages.
+     */
+    public void defer() {
+        if (isEmpty()) {
+            return;
+        }
+        List<TaskOptions> tasks = new ArrayList<TaskOptions>();
+        Iterator<Map.Entry<String, String>> canonical = canonicalIds.entrySet().iterator();
+        Iterator<String> removed = unregistered.iterator();
+        while (canonical.hasNext() || removed.hasNext()) {
+            TaskOptions taskOptions = TaskOptions.Builder
+                    .withUrl(UPDATES_URL)
+                    .method(TaskOptions.Method.POST);
+            int size = 0;
+            for (; size < MAX_DEVICES_PER_TASK && canonical.hasNext(); size++) {
+                Map.Entry<String, String> entry = canonical.next();
+                taskOptions.param("old", entry.getKey()).param("new", entry.getValue());
+            }
+            for (; size < MAX_DEVICES_PER_TASK && removed.hasNext(); size++) {
+                taskOptions.param("unregister", removed.next());
+            }
+            tasks.add(taskOptions);
+        }
+        QueueFactory.getQueue(QUEUE_NAME).add(tasks);
+        LOG.info("Deferred registration updates of " + (canonicalIds.size() + unregistered.size())
+                + " devices in " + tasks.size() + " tasks");
+    }
+
+    /**
+     * Recreates the changes deferred in a task.
+     */
+    static RegistrationUpdates fromTask(HttpServletRequest req) {
+        RegistrationUpdates updates = new RegistrationUpdates();
+        String[] oldIds = req.getParameterValues("old");
+        String[] newIds = req.getParameterValues("new");
+        if (oldIds != null && newIds != null) {
+            for (int i = 0; i < oldIds.length && i < newIds.length; i++) {
+                updates.addCanonicalId(oldIds[i], newIds[i]);
+            }
+        }
+        String[] removed = req.getParameterValues("unregister");
+        if (removed != null) {
+            for (String gcmId : removed) {
+                updates.addNotRegistered(gcmId);
+            }
+        }
+        return updates;
+    }
+
+    /**
+     * @return number of devices rewritten with a new registration id and removed since the
+     *     counters were created, by counter name. Counters evicted from memcache are missing.
+     */
+    public static Map<String, Object> getCounters() {
+        List<String> keys = new ArrayList<String>();
+        keys.add(COUNTER_REWRITTEN);
+        keys.add(COUNTER_REMOVED);
+        return MemcacheServiceFactory.getMemcacheService().getAll(keys);
+    }
+}
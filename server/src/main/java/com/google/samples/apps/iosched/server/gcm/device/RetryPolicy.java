@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.server.gcm.device;
+
+import com.google.appengine.api.taskqueue.QueueConstants;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletConfig;
+
+/**
+ * When to retry a multicast message whose devices could not all be reached.
+ *
+ * <p>Delays grow exponentially with the number of attempts, up to a maximum, and are randomized
+ * between half and all of that value, so that messages that failed together don't all retry at
+ * the same time. A Retry-After sent by GCM is used as the minimum delay, as far as the task queue
+ * allows.
+ */
+public class RetryPolicy {
+    /** Servlet init parameters, see {@link #fromConfig(ServletConfig)}. */
+    public static final String PARAM_MAX_ATTEMPTS = "retryMaxAttempts";
+    public static final String PARAM_INITIAL_DELAY = "retryInitialDelaySeconds";
+    public static final String PARAM_MAX_DELAY = "retryMaxDelaySeconds";
+
+    static final int DEFAULT_MAX_ATTEMPTS = 7;
+    static final long DEFAULT_INITIAL_DELAY_SECONDS = 10;
+    static final long DEFAULT_MAX_DELAY_SECONDS = 10 * 60;
+
+    private final int maxAttempts;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final Random random;
+
+    public RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis) {
+        this(maxAttempts, initialDelayMillis, maxDelayMillis, new Random());
+    }
+
+    RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis, Random random) {
+        if (maxAttempts < 1 || initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis) {
+            throw new IllegalArgumentException("Invalid retry policy: maxAttempts=" + maxAttempts
+                    + " initialDelay=" + initialDelayMillis + " maxDelay=" + maxDelayMillis);
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.random = random;
+    }
+
+    /**
+     * Creates a policy from the init parameters of a servlet. Missing parameters take the
+     * default values.
+     */
+    public static RetryPolicy fromConfig(ServletConfig config) {
+        return new RetryPolicy(
+                (int) getLong(config, PARAM_MAX_ATTEMPTS, DEFAULT_MAX_ATTEMPTS),
+                TimeUnit.SECONDS.toMillis(
+                        getLong(config, PARAM_INITIAL_DELAY, DEFAULT_INITIAL_DELAY_SECONDS)),
+                TimeUnit.SECONDS.toMillis(
+                        getLong(config, PARAM_MAX_DELAY, DEFAULT_MAX_DELAY_SECONDS)));
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param attempts number of times the message has been sent so far.
+     * @return whether the message can be sent once more.
+     */
+    public boolean canRetry(int attempts) {
+        return attempts < maxAttempts;
+    }
+
+    /**
+     * @param attempts number of times the message has been sent so far, at least 1.
+     * @param retryAfterMillis delay asked by GCM, or 0 if it didn't ask for any.
+     * @return how long to wait before sending the message again, never more than a task can be
+     *     delayed.
+     */
+    public long getDelayMillis(int attempts, long retryAfterMillis) {
+        int doublings = Math.min(Math.max(attempts - 1, 0), 30);
+        long delay = Math.min(maxDelayMillis, initialDelayMillis << doublings);
+        delay = delay / 2 + (long) (random.nextDouble() * (delay - delay / 2));
+        return Math.min(Math.max(delay, retryAfterMillis), QueueConstants.getMaxEtaDeltaMillis());
+    }
+
+    /**
+     * Parses the value of a Retry-After header, either a number of seconds or an HTTP date.
+     *
+     * @return the delay it asks for, or 0 if there is no valid header.
+     */
+    static long parseRetryAfter(String header, long nowMillis) {
+        if (header == null || header.trim().isEmpty()) {
+            return 0;
+        }
+        String value = header.trim();
+        try {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(value)));
+        } catch (NumberFormatException e) {
+            // not a number of seconds, try a date
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz",
+                Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return Math.max(0, format.parse(value).getTime() - nowMillis);
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
+    private static long getLong(ServletConfig config, String name, long defaultValue) {
+        String value = config.getInitParameter(name);
+        return value == null || value.trim().isEmpty() ? defaultValue : Long.parseLong(value.trim());
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.server.gcm.device;
+
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Schedule of a staged rollout: devices are split into a number of cohorts (waves), and each
+ * wave is sent a fixed delay after the previous one. Devices in a wave are asked to spread
+ * their sync over a jitter window, so the peak request rate against the data files is about
+ * (devices / waves) / jitter window, instead of all devices at once.
+ *
+ * <p>Before a wave is sent, the error rate of the previous one is checked, and the rollout
+ * stops if it is above {@link #getMaxErrorRate()}.
+ */
+public class RolloutSchedule {
+    /** Request parameters used to pass the schedule to {@code SendMessageServlet}. */
+    public static final String PARAM_WAVES = "waves";
+    public static final String PARAM_WAVE_DELAY = "waveDelay";
+    public static final String PARAM_JITTER = "jitter";
+    public static final String PARAM_MAX_ERROR_RATE = "maxErrorRate";
+
+    /** Property of extraData read by the client to randomize its sync time. */
+    static final String SYNC_JITTER = "sync_jitter";
+
+    static final int MAX_WAVES = 24;
+    /** Waves with fewer results than this are not used to stop the rollout. */
+    static final long MIN_SAMPLE = 100;
+
+    /** A single wave with no delay or jitter, which is how messages were always sent. */
+    public static final RolloutSchedule SINGLE_WAVE = new RolloutSchedule(1, 0, 0, 1);
+
+    private final int waves;
+    private final int waveDelaySeconds;
+    private final int jitterSeconds;
+    private final double maxErrorRate;
+
+    public RolloutSchedule(int waves, int waveDelaySeconds, int jitterSeconds,
+            double maxErrorRate) {
+        if (waves < 1 || waves > MAX_WAVES) {
+            throw new IllegalArgumentException("Waves must be between 1 and " + MAX_WAVES
+                    + ": " + waves);
+        }
+        if (waveDelaySeconds < 0 || jitterSeconds < 0) {
+            throw new IllegalArgumentException("Wave delay and jitter cannot be negative");
+        }
+        if (maxErrorRate < 0 || maxErrorRate > 1) {
+            throw new IllegalArgumentException("Max error rate must be between 0 and 1: "
+                    + maxErrorRate);
+        }
+        this.waves = waves;
+        this.waveDelaySeconds = waveDelaySeconds;
+        this.jitterSeconds = jitterSeconds;
+        this.maxErrorRate = maxErrorRate;
+    }
+
+    /**
+     * Creates a schedule from request parameters. Missing parameters take the values of
+     * {@link #SINGLE_WAVE}.
+     *
+     * @throws IllegalArgumentException if a parameter is not a valid number.
+     */
+    public static RolloutSchedule parse(String waves, String waveDelaySeconds,
+            String jitterSeconds, String maxErrorRate) {
+        if (isEmpty(waves) && isEmpty(waveDelaySeconds) && isEmpty(jitterSeconds)
+                && isEmpty(maxErrorRate)) {
+            return SINGLE_WAVE;
+        }
+        return new RolloutSchedule(
+                isEmpty(waves) ? 1 : Integer.parseInt(waves.trim()),
+                isEmpty(waveDelaySeconds) ? 0 : Integer.parseInt(waveDelaySeconds.trim()),
+                isEmpty(jitterSeconds) ? 0 : Integer.parseInt(jitterSeconds.trim()),
+                isEmpty(maxErrorRate) ? 1 : Double.parseDouble(maxErrorRate.trim()));
+    }
+
+    /**
+     * Creates a schedule from the parameters of a request.
+     *
+     * @see #parse(String, String, String, String)
+     */
+    public static RolloutSchedule parse(HttpServletRequest req) {
+        return parse(req.getParameter(PARAM_WAVES), req.getParameter(PARAM_WAVE_DELAY),
+                req.getParameter(PARAM_JITTER), req.getParameter(PARAM_MAX_ERROR_RATE));
+    }
+
+    /**
+     * Adds this schedule to the parameters of a task, to be read back with
+     * {@link #parse(HttpServletRequest)}.
+     */
+    public TaskOptions addTo(TaskOptions taskOptions) {
+        return taskOptions
+                .param(PARAM_WAVES, Integer.toString(waves))
+                .param(PARAM_WAVE_DELAY, Integer.toString(waveDelaySeconds))
+                .param(PARAM_JITTER, Integer.toString(jitterSeconds))
+                .param(PARAM_MAX_ERROR_RATE, Double.toString(maxErrorRate));
+    }
+
+    public int getWaves() {
+        return waves;
+    }
+
+    public int getWaveDelaySeconds() {
+        return waveDelaySeconds;
+    }
+
+    public int getJitterSeconds() {
+        return jitterSeconds;
+    }
+
+    public double getMaxErrorRate() {
+        return maxErrorRate;
+    }
+
+    public boolean isStaged() {
+        return waves > 1;
+    }
+
+    /**
+     * @return the wave of a device. It only depends on its registration id, so a device is
+     *     always in the same cohort and sees the same delay in every rollout.
+     */
+    public int getCohort(String gcmId) {
+        return (gcmId.hashCode() & Integer.MAX_VALUE) % waves;
+    }
+
+    /**
+     * @return time between the start of the rollout and the given wave.
+     */
+    public long getWaveDelayMillis(int wave) {
+        return TimeUnit.SECONDS.toMillis((long) wave * waveDelaySeconds);
+    }
+
+    /**
+     * @return whether the results of a wave are bad enough to stop the rollout.
+     */
+    public boolean isErrorRateExceeded(long sent, long failed) {
+        return sent >= MIN_SAMPLE && failed > sent * maxErrorRate;
+    }
+
+    /**
+     * Sets the jitter window of this schedule in the message payload, if it has one and the
+     * payload doesn't set its own. The payload must be empty or a JSON object, otherwise it is
+     * returned unchanged.
+     */
+    public String withJitter(String extraData) {
+        if (jitterSeconds == 0) {
+            return extraData;
+        }
+        JsonObject payload;
+        if (isEmpty(extraData)) {
+            payload = new JsonObject();
+        } else {
+            try {
+                JsonElement element = new JsonParser().parse(extraData);
+                if (!element.isJsonObject()) {
+                    return extraData;
+                }
+                payload = element.getAsJsonObject();
+            } catch (JsonSyntaxException e) {
+                return extraData;
+            }
+        }
+        if (payload.has(SYNC_JITTER)) {
+            return extraData;
+        }
+        payload.add(SYNC_JITTER, new JsonPrimitive(TimeUnit.SECONDS.toMillis(jitterSeconds)));
+        return payload.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "waves=" + waves + " waveDelay=" + waveDelaySeconds + "s jitter="
+                + jitterSeconds + "s maxErrorRate=" + maxErrorRate;
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.server.gcm.device;
+
+import com.google.samples.apps.iosched.server.gcm.BaseServlet;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Sends one wave of a {@link StagedRollout}, if the previous wave went well.
+ *
+ * <p>This class should not be called directly. Instead, it's used as a helper
+ * for the rollout task queue.
+ */
+@SuppressWarnings("serial")
+public class RolloutWaveWorker extends BaseServlet {
+
+    private MessageSender mSender;
+
+    @Override
+    public void init(ServletConfig config) throws ServletException {
+        super.init(config);
+        mSender = new MessageSender(config);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException {
+        String rolloutId = getParameter(req, "rolloutId");
+        int wave = Integer.parseInt(getParameter(req, "wave"));
+        String action = getParameter(req, "action");
+        String extraData = req.getParameter("extraData");
+        String coalesceKey = req.getParameter("coalesceKey");
+        if (coalesceKey != null && coalesceKey.isEmpty()) {
+            coalesceKey = null;
+        }
+        RolloutSchedule schedule = RolloutSchedule.parse(req);
+
+        if (StagedRollout.canSendWave(schedule, rolloutId, wave)) {
+            new StagedRollout(mSender).sendWave(action, extraData, schedule, rolloutId, wave,
+                    coalesceKey);
+        } else if (coalesceKey != null) {
+            // The rollout stopped, let the next identical message start a new one
+            PushCoalescer.fromConfig(getServletConfig()).release(coalesceKey, rolloutId);
+        }
+        resp.setStatus(200);
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.server.gcm.device;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Sends a message to all devices in waves, following a {@link RolloutSchedule}.
+ *
+ * <p>Each wave sends the message to one cohort of devices with a {@link DeviceFanOut}, and
+ * queues the next wave on {@code /queue/rollout_wave}, to run after the wave delay. The GCM
+ * results of each wave are counted in memcache by {@link MessageSender}, and the next wave is
+ * only sent if the error rate of the previous one is acceptable. If the counters were evicted,
+ * the rollout goes on.
+ */
+public class StagedRollout {
+    private static final Logger LOG = Logger.getLogger(StagedRollout.class.getName());
+
+    static final String QUEUE_NAME = "MulticastMessagesQueue";
+    static final String WAVE_URL = "/queue/rollout_wave";
+
+    private static final String KEY_PREFIX = "rollout:";
+    private static final int COUNTER_EXPIRATION_SECONDS = 24 * 60 * 60;
+
+    private final MessageSender sender;
+    private boolean queuedTasks;
+
+    public StagedRollout(MessageSender sender) {
+        this.sender = sender;
+    }
+
+    public static String newRolloutId() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Starts sending the message to the devices of a wave, then schedules the next wave.
+     *
+     * @param coalesceKey key claimed for the rollout in the {@link PushCoalescer}, or null.
+     * @return number of devices sent the message in the first page of the wave.
+     */
+    public int sendWave(String action, String extraData, RolloutSchedule schedule,
+            String rolloutId, int wave, String coalesceKey) {
+        LOG.info("Rollout " + rolloutId + ": sending wave " + (wave + 1) + "/"
+                + schedule.getWaves());
+        // Create the counters with an expiration, so that increments don't keep them forever:
+        MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+        Expiration expiration = Expiration.byDeltaSeconds(COUNTER_EXPIRATION_SECONDS);
+        memcache.put(counterKey(rolloutId, wave, "sent"), 0L, expiration,
+                MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+        memcache.put(counterKey(rolloutId, wave, "failed"), 0L, expiration,
+                MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+        DeviceFanOut fanOut = new DeviceFanOut(sender, action, schedule.withJitter(extraData),
+                schedule, rolloutId, wave, coalesceKey);
+        int sent;
+        try {
+            sent = fanOut.sendPage(null, 0);
+        } finally {
+            queuedTasks |= fanOut.hasQueuedTasks();
+        }
+        // Only once the first page was sent, so that the rollout doesn't go on without it:
+        if (wave + 1 < schedule.getWaves()) {
+            queuedTasks = true;
+            queueWave(action, extraData, schedule, rolloutId, wave + 1, coalesceKey);
+        }
+        return sent;
+    }
+
+    /**
+     * @return whether {@link #sendWave} queued any task, even if it then failed. The rollout
+     *     goes on with those tasks, so the same message must not be rolled out again.
+     */
+    public boolean hasQueuedTasks() {
+        return queuedTasks;
+    }
+
+    /**
+     * @return whether the error rate of the wave before the given one is low enough to go on.
+     */
+    public static boolean canSendWave(RolloutSchedule schedule, String rolloutId, int wave) {
+        if (wave == 0) {
+            return true;
+        }
+        MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+        Long sent = (Long) memcache.get(counterKey(rolloutId, wave - 1, "sent"));
+        Long failed = (Long) memcache.get(counterKey(rolloutId, wave - 1, "failed"));
+        if (sent == null) {
+            LOG.warning("Rollout " + rolloutId + ": no results for wave " + wave
+                    + ", sending the next one anyway");
+            return true;
+        }
+        long failures = failed == null ? 0 : failed;
+        LOG.info("Rollout " + rolloutId + ": wave " + wave + " had " + failures + " errors in "
+                + sent + " results");
+        if (schedule.isErrorRateExceeded(sent, failures)) {
+            LOG.severe("Rollout " + rolloutId + " stopped before wave " + (wave + 1)
+                    + ": error rate of the previous wave is above " + schedule.getMaxErrorRate());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Counts the GCM results of a multicast message sent as part of a rollout. Only the first
+     * results recorded for a multicast are counted, in case its task is run again.
+     */
+    static void recordResults(String rolloutId, int wave, long multicastId, long sent,
+            long failed) {
+        MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+        if (!memcache.put(KEY_PREFIX + rolloutId + ":multicast:" + multicastId, Boolean.TRUE,
+                Expiration.byDeltaSeconds(COUNTER_EXPIRATION_SECONDS),
+                MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+            return;
+        }
+        memcache.increment(counterKey(rolloutId, wave, "sent"), sent, 0L);
+        memcache.increment(counterKey(rolloutId, wave, "failed"), failed, 0L);
+    }
+
+    private static void queueWave(String action, String extraData, RolloutSchedule schedule,
+            String rolloutId, int wave, String coalesceKey) {
+        long countdown = schedule.getWaveDelayMillis(wave) - schedule.getWaveDelayMillis(wave - 1);
+        // Named, so that a retried wave doesn't schedule the next one twice:
+        TaskOptions taskOptions = TaskOptions.Builder
+                .withUrl(WAVE_URL)
+                .taskName("rollout-" + rolloutId + "-" + wave)
+                .param("rolloutId", rolloutId)
+                .param("wave", Integer.toString(wave))
+                .param("action", action)
+                .param("extraData", extraData == null ? "" : extraData)
+                .countdownMillis(countdown)
+                .method(TaskOptions.Method.POST);
+        if (coalesceKey != null) {
+            taskOptions.param("coalesceKey", coalesceKey);
+        }
+        schedule.addTo(taskOptions);
+        Queue queue = QueueFactory.getQueue(QUEUE_NAME);
+        try {
+            queue.add(taskOptions);
+        } catch (TaskAlreadyExistsException e) {
+            LOG.info("Rollout " + rolloutId + ": wave " + (wave + 1) + " was already queued");
+        }
+    }
+
+    private static String counterKey(String rolloutId, int wave, String counter) {
+        return KEY_PREFIX + rolloutId + ":" + wave + ":" + counter;
+    }
+}
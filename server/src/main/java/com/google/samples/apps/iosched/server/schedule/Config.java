@@ -15,8 +15,8 @@
  */
 package com.google.samples.apps.iosched.server.schedule;
 
-import java.util.Calendar;
-import java.util.Date;
+import com.google.samples.apps.iosched.server.schedule.model.validator.IsoDateTime;
+
 import java.util.HashMap;
 import java.util.regex.Pattern;
 
@@ -25,18 +25,19 @@ public interface Config {
   public final int CONFERENCE_YEAR = 2015;
   public final boolean STAGING = true;
 
-  @SuppressWarnings("deprecation")
+  // In UTC, like the session and block timestamps they are compared with:
   public static final long[][] CONFERENCE_DAYS =
       new long[][] {
           // start and end of day 1
-          { new Date(115, Calendar.MAY, 28, 14, 0, 0).getTime(),
-                  new Date(115, Calendar.MAY, 29, 5, 0, 0).getTime() },
+          { IsoDateTime.toEpochMillis(2015, 5, 28) + 14 * 60 * 60 * 1000L,
+                  IsoDateTime.toEpochMillis(2015, 5, 29) + 5 * 60 * 60 * 1000L },
           // start and end of day 2
-          { new Date(115, Calendar.MAY, 29, 14, 0, 0).getTime(),
-                  new Date(115, Calendar.MAY, 30, 0, 0, 0).getTime() }
+          { IsoDateTime.toEpochMillis(2015, 5, 29) + 14 * 60 * 60 * 1000L,
+                  IsoDateTime.toEpochMillis(2015, 5, 30) }
       };
 
-  public final Pattern SESSIONS_PATTERN = Pattern.compile("session_data_v(\\d+)\\.(\\d+)\\.json");
+  // Session files may have the hash of their content before the extension, see IMMUTABLE_FILES:
+  public final Pattern SESSIONS_PATTERN = Pattern.compile("session_data_v(\\d+)\\.(\\d+)(?:\\.[0-9a-f]+)?\\.json");
   public final String SESSIONS_FORMAT = "session_data_v{0,number,integer}.{1,number,integer}.json";
   public final String MANIFEST_FORMAT_VERSION = "iosched-json-v1";
 
@@ -46,6 +47,16 @@ public interface Config {
    */
   public final int MANIFEST_VERSION = 1;
 
+  /**
+   * Besides the full sessions file, each update publishes a delta file with the entities that
+   * changed since the previous version, listed in the manifest "delta_files". Every
+   * DELTA_SNAPSHOT_INTERVAL versions, the list of deltas is reset and clients need to download
+   * the full file again.
+   */
+  public final String DELTA_FORMAT = "session_delta_v{0,number,integer}.{1,number,integer}_{2,number,integer}.json";
+  public final int DELTA_SNAPSHOT_INTERVAL = 20;
+  public final String ENTITY_HASHES_FILE = "__entity_hashes.json";
+
   public final String MANIFEST_NAME = "manifest_v"+MANIFEST_VERSION+".json";
   public final String MANIFEST_NAME_STAGING = "manifest_v"+MANIFEST_VERSION+"__qa_.json";
 
@@ -55,8 +66,34 @@ public interface Config {
   public final long TIME_TRAVEL_SHIFT = 0; //Used for dogfooding: -29 * (24*60*60*1000L);
   public final String VIDEO_CATEGORY = "f04c9884-9dd8-e411-b87f-00155d5066d7";
 
+  // Maximum number of entity types fetched in parallel and how long to wait for all of them:
+  public final int FETCH_MAX_THREADS = 4;
+  public final long FETCH_TIMEOUT_MILLIS = 60 * 1000L;
+  // Maximum number of pages of a paged Vendor API result fetched in parallel:
+  public final int FETCH_MAX_PAGE_THREADS = 4;
+  // Whether fetched entities are stored by property in a CompactJsonDataSource, instead of as
+  // one Gson tree per entity. Off until it has been compared with the trees in production:
+  public final boolean COMPACT_DATA_SOURCES = false;
+  // Whether parsed data files cached in memory are also cached in memcache, for other instances:
+  public final boolean FILE_CACHE_USE_MEMCACHE = true;
+  // Number of most recent update runs whose metrics are aggregated by the metrics endpoint:
+  public final int METRICS_RUNS = 50;
+  // Maximum number of data check rules run in parallel:
+  public final int CHECK_MAX_THREADS = 4;
+  // Whether generated session data files are uploaded with gzip Content-Encoding. Off by
+  // default, since it changes how existing clients receive the files:
+  public final boolean GZIP_DATA_FILES = false;
+  // Whether generated session data files are named after the hash of their content. Since their
+  // content never changes, they can be cached for IMMUTABLE_FILES_MAX_AGE seconds. Off by
+  // default, since it changes the names and cache headers existing clients see:
+  public final boolean IMMUTABLE_FILES = false;
+  public final int IMMUTABLE_FILES_MAX_AGE = 365 * 24 * 60 * 60;
+
   public final String CLOUD_STORAGE_BUCKET = "io2015-staging.appspot.com";
   public final String CLOUD_STORAGE_BASE_URL = "https://storage.googleapis.com/"+CLOUD_STORAGE_BUCKET+"/";
+  // Where the command line tools keep the files fetched from CLOUD_STORAGE_BASE_URL, which are
+  // revalidated with conditional GETs instead of downloaded again on every run:
+  public final String HTTP_CACHE_DIR = System.getProperty("java.io.tmpdir") + "/iosched-http-cache";
 
   // Used when the CMS doesn't have a proper live stream Youtube URL but we still want to
   // have a non-empty URL so that the app will show the "LIVE" indicator.
@@ -68,6 +105,13 @@ public interface Config {
 
   public static final String GCM_URL= "https://io2015-data.googleplex.com"+GCM_SYNC_URL;
   public static final String GCM_API_KEY = "20e5477b-e4cd-48d4-a108-234ca800d94b";
+  // Staged rollout of the sync ping: devices are split in this many waves (1 pings all at once),
+  // sent this many seconds apart, and each device syncs at a random time within the jitter window:
+  public static final int GCM_ROLLOUT_WAVES = 4;
+  public static final int GCM_ROLLOUT_WAVE_DELAY_SECONDS = 10 * 60;
+  public static final int GCM_ROLLOUT_JITTER_SECONDS = 10 * 60;
+  // The rollout stops if more than this ratio of the pings of a wave fail:
+  public static final double GCM_ROLLOUT_MAX_ERROR_RATE = 0.2;
 
   // Email address used for sending emails. Normally this should be a service account.
   public static final String EMAIL_FROM = "io2015-data.google.com@appspot.gserviceaccount.com";
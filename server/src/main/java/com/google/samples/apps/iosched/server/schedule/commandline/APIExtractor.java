@@ -18,28 +18,38 @@ package com.google.samples.apps.iosched.server.schedule.commandline;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.google.gson.stream.JsonWriter;
+import com.google.samples.apps.iosched.server.schedule.Config;
 import com.google.samples.apps.iosched.server.schedule.input.fetcher.EntityFetcher;
 import com.google.samples.apps.iosched.server.schedule.input.fetcher.HTTPRemoteFilesEntityFetcher;
+import com.google.samples.apps.iosched.server.schedule.input.fetcher.HttpFileCache;
 import com.google.samples.apps.iosched.server.schedule.input.fetcher.RemoteFilesEntityFetcherFactory;
+import com.google.samples.apps.iosched.server.schedule.input.fetcher.RemoteJsonHelper;
 import com.google.samples.apps.iosched.server.schedule.model.DataExtractor;
 import com.google.samples.apps.iosched.server.schedule.model.JsonDataSources;
 import com.google.samples.apps.iosched.server.schedule.server.input.ExtraInput;
 import com.google.samples.apps.iosched.server.schedule.server.input.VendorDynamicInput;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
 import java.nio.channels.Channels;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
 
 /**
  * A class usable on command line that extracts the session data from the CMS.
  */
 public class APIExtractor {
 
+  private static final Logger LOGGER = Logger.getLogger(APIExtractor.class.getName());
+
   /**
    *
    */
   public APIExtractor() {
+    RemoteJsonHelper.setCache(new HttpFileCache(new File(Config.HTTP_CACHE_DIR)));
     RemoteFilesEntityFetcherFactory.setBuilder(new RemoteFilesEntityFetcherFactory.FetcherBuilder() {
         String[] filenames;
 
@@ -58,12 +68,25 @@ public class APIExtractor {
 
 
   public void run(OutputStream optionalOutput, boolean extractUnpublished) throws IOException {
-    // fill sources with extra input:
-    JsonDataSources sources = new ExtraInput().fetchAllDataSources();
-    // fill sources with vendor API input:
-    VendorDynamicInput vendorInput = new VendorDynamicInput();
-    vendorInput.setExtractUnpublished(extractUnpublished);
-    sources.putAll(vendorInput.fetchAllDataSources());
+    JsonDataSources sources;
+    ExecutorService fetchExecutor = Executors.newFixedThreadPool(Config.FETCH_MAX_THREADS);
+    ExecutorService pageExecutor = Executors.newFixedThreadPool(Config.FETCH_MAX_PAGE_THREADS);
+    try {
+      // fill sources with extra input:
+      sources = new ExtraInput().fetchAllDataSources(fetchExecutor, Config.FETCH_TIMEOUT_MILLIS);
+      // fill sources with vendor API input:
+      VendorDynamicInput vendorInput = new VendorDynamicInput();
+      vendorInput.setExtractUnpublished(extractUnpublished);
+      vendorInput.setPageExecutor(pageExecutor);
+      sources.putAll(vendorInput.fetchAllDataSources(fetchExecutor, Config.FETCH_TIMEOUT_MILLIS));
+    } finally {
+      fetchExecutor.shutdownNow();
+      pageExecutor.shutdownNow();
+    }
+    HttpFileCache cache = RemoteJsonHelper.getCache();
+    LOGGER.info("Remote files: " + cache.getDownloads() + " downloaded, "
+        + cache.getNotModified() + " not modified");
+
     // extract session data from inputs:
     JsonObject newData = new DataExtractor(false).extractFromDataSources(sources);
 
@@ -76,10 +99,61 @@ public class APIExtractor {
   }
 
   /**
+   * Extracts the session data of all the Vendor API snapshots in a directory, see
+   * {@link BatchExtractor}. The extra input is fetched once and used for all snapshots.
+   */
+  public void runBatch(File snapshotDir, File outputDir, boolean gzip, boolean ndjson,
+      int threads) throws IOException, InterruptedException {
+    JsonDataSources extraSources;
+    ExecutorService fetchExecutor = Executors.newFixedThreadPool(Config.FETCH_MAX_THREADS);
+    try {
+      extraSources = new ExtraInput().fetchAllDataSources(fetchExecutor,
+          Config.FETCH_TIMEOUT_MILLIS);
+    } finally {
+      fetchExecutor.shutdownNow();
+    }
+    BatchExtractor batch = new BatchExtractor(new DataExtractor(false), extraSources, threads);
+    batch.setGzip(gzip);
+    batch.setNdjson(ndjson);
+    batch.run(snapshotDir, outputDir);
+  }
+
+  /**
+   * Usage:
+   * <pre>
+   *   APIExtractor [-u]
+   *   APIExtractor -b snapshotDir outputDir [-gzip] [-ndjson] [-threads n]
+   * </pre>
+   * The first form extracts the current CMS data to stdout, including unpublished sessions
+   * with -u. The second one extracts archived snapshots in batch.
+   *
    * @param args
    * @throws IOException
    */
-  public static void main(String[] args) throws IOException {
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length > 0 && args[0].equals("-b")) {
+      if (args.length < 3) {
+        System.err.println("Usage: APIExtractor -b snapshotDir outputDir [-gzip] [-ndjson] [-threads n]");
+        System.exit(1);
+      }
+      boolean gzip = false;
+      boolean ndjson = false;
+      int threads = Runtime.getRuntime().availableProcessors();
+      for (int i = 3; i < args.length; i++) {
+        if (args[i].equals("-gzip")) {
+          gzip = true;
+        } else if (args[i].equals("-ndjson")) {
+          ndjson = true;
+        } else if (args[i].equals("-threads") && i + 1 < args.length) {
+          threads = Integer.parseInt(args[++i]);
+        } else {
+          System.err.println("Unknown option: " + args[i]);
+          System.exit(1);
+        }
+      }
+      new APIExtractor().runBatch(new File(args[1]), new File(args[2]), gzip, ndjson, threads);
+      return;
+    }
     boolean extractUnpublished = args.length>0 && args[0].equals("-u");
     new APIExtractor().run(System.out, extractUnpublished);
   }
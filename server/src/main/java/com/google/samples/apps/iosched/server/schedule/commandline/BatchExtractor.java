@@ -0,0 +1,288 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.commandline;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import com.google.samples.apps.iosched.server.schedule.input.fetcher.FileEntityStreams;
+import com.google.samples.apps.iosched.server.schedule.model.DataExtractor;
+import com.google.samples.apps.iosched.server.schedule.model.JsonDataSources;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Extracts the session data of many archived Vendor API snapshots, to regression test data
+ * or code changes against past events.
+ *
+ * <p>Each snapshot is a file shaped like __raw_session_data.json, optionally gzip'd, in a
+ * snapshot directory. Snapshots are extracted in parallel, streaming their topics from disk, with
+ * copies of a single {@link DataExtractor} and the same extra sources. The output is compact
+ * JSON, either one file per snapshot or a single NDJSON file with one line per snapshot, and is
+ * optionally gzip'd. Timing and size stats of each snapshot are written to {@link #STATS_FILE}.
+ */
+public class BatchExtractor {
+
+  private static final Logger LOGGER = Logger.getLogger(BatchExtractor.class.getName());
+
+  public static final String STATS_FILE = "batch_stats.json";
+  public static final String NDJSON_FILE = "snapshots.ndjson";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final DataExtractor extractor;
+  private final JsonDataSources extraSources;
+  private final int threads;
+  private boolean gzip;
+  private boolean ndjson;
+
+  /**
+   * Timing and size of the extraction of one snapshot.
+   */
+  public static class SnapshotStats {
+    public final String name;
+    public final long inputBytes;
+    // In NDJSON mode, the size of the line before the NDJSON file is gzip'd:
+    public final long outputBytes;
+    public final long millis;
+
+    SnapshotStats(String name, long inputBytes, long outputBytes, long millis) {
+      this.name = name;
+      this.inputBytes = inputBytes;
+      this.outputBytes = outputBytes;
+      this.millis = millis;
+    }
+
+    JsonObject toJson() {
+      JsonObject obj = new JsonObject();
+      obj.addProperty("snapshot", name);
+      obj.addProperty("inputBytes", inputBytes);
+      obj.addProperty("outputBytes", outputBytes);
+      obj.addProperty("millis", millis);
+      return obj;
+    }
+  }
+
+  /**
+   * Result of a snapshot extraction. The output is only kept in memory in NDJSON mode, until it
+   * is appended to the NDJSON file.
+   */
+  private static class SnapshotResult {
+    final SnapshotStats stats;
+    final byte[] line;
+
+    SnapshotResult(SnapshotStats stats, byte[] line) {
+      this.stats = stats;
+      this.line = line;
+    }
+  }
+
+  /**
+   * @param extractor Extractor whose configuration is used for all snapshots.
+   * @param extraSources Extra input, like the tags configuration, shared by all snapshots.
+   * @param threads Number of snapshots extracted in parallel.
+   */
+  public BatchExtractor(DataExtractor extractor, JsonDataSources extraSources, int threads) {
+    this.extractor = extractor;
+    this.extraSources = extraSources;
+    this.threads = threads;
+  }
+
+  /**
+   * Whether output files are gzip'd.
+   */
+  public void setGzip(boolean gzip) {
+    this.gzip = gzip;
+  }
+
+  /**
+   * Whether all snapshots are written to a single NDJSON file, as lines like
+   * <code>{"snapshot": "name", "data": {...}}</code> in the order of snapshot names.
+   */
+  public void setNdjson(boolean ndjson) {
+    this.ndjson = ndjson;
+  }
+
+  /**
+   * Extracts all the snapshots (*.json and *.json.gz files) of a directory.
+   *
+   * @return the stats of each snapshot, in the order of snapshot names.
+   */
+  public List<SnapshotStats> run(File snapshotDir, File outputDir)
+      throws IOException, InterruptedException {
+    File[] snapshots = snapshotDir.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(".json") || name.endsWith(".json.gz");
+      }
+    });
+    if (snapshots == null) {
+      throw new IOException("Not a directory: " + snapshotDir);
+    }
+    Arrays.sort(snapshots);
+    if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+      throw new IOException("Could not create output directory " + outputDir);
+    }
+
+    List<SnapshotStats> allStats = new ArrayList<SnapshotStats>();
+    OutputStream ndjsonOut = null;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    long start = System.currentTimeMillis();
+    try {
+      if (ndjson) {
+        ndjsonOut = openOutput(new File(outputDir, NDJSON_FILE + (gzip ? ".gz" : "")));
+      }
+      // Results are consumed in order, keeping only a few of them ahead in memory:
+      Deque<Future<SnapshotResult>> pending = new ArrayDeque<Future<SnapshotResult>>();
+      for (File snapshot: snapshots) {
+        if (pending.size() >= threads * 2) {
+          consume(pending.removeFirst(), ndjsonOut, allStats);
+        }
+        pending.addLast(executor.submit(createTask(snapshot, outputDir)));
+      }
+      while (!pending.isEmpty()) {
+        consume(pending.removeFirst(), ndjsonOut, allStats);
+      }
+    } finally {
+      executor.shutdownNow();
+      if (ndjsonOut != null) {
+        ndjsonOut.close();
+      }
+    }
+    LOGGER.info("Extracted " + allStats.size() + " snapshots with " + threads + " threads in "
+        + (System.currentTimeMillis() - start) + "ms");
+
+    writeStats(allStats, new File(outputDir, STATS_FILE));
+    return allStats;
+  }
+
+  private Callable<SnapshotResult> createTask(final File snapshot, final File outputDir) {
+    return new Callable<SnapshotResult>() {
+      @Override
+      public SnapshotResult call() throws IOException {
+        try {
+          return extract(snapshot, outputDir);
+        } catch (RuntimeException ex) {
+          throw new IOException("Could not extract snapshot " + snapshot, ex);
+        }
+      }
+    };
+  }
+
+  private SnapshotResult extract(File snapshot, File outputDir) throws IOException {
+    String name = getSnapshotName(snapshot);
+    long start = System.nanoTime();
+    DataExtractor runExtractor = new DataExtractor(extractor);
+    FileEntityStreams streams = new FileEntityStreams(snapshot);
+    if (ndjson) {
+      ByteArrayOutputStream line = new ByteArrayOutputStream();
+      JsonWriter writer = new JsonWriter(new OutputStreamWriter(line, "UTF-8"));
+      writer.beginObject();
+      writer.name("snapshot").value(name);
+      writer.name("data");
+      runExtractor.extractFromStreams(extraSources, streams, writer);
+      writer.endObject();
+      writer.flush();
+      // Compact JSON has no line breaks, so each snapshot is a single line:
+      line.write('\n');
+      long millis = (System.nanoTime() - start) / 1000000;
+      return new SnapshotResult(
+          new SnapshotStats(name, snapshot.length(), line.size(), millis), line.toByteArray());
+    }
+    File output = new File(outputDir, name + ".json" + (gzip ? ".gz" : ""));
+    Writer out = new OutputStreamWriter(openOutput(output), "UTF-8");
+    try {
+      JsonWriter writer = new JsonWriter(out);
+      runExtractor.extractFromStreams(extraSources, streams, writer);
+      writer.flush();
+    } finally {
+      out.close();
+    }
+    long millis = (System.nanoTime() - start) / 1000000;
+    return new SnapshotResult(
+        new SnapshotStats(name, snapshot.length(), output.length(), millis), null);
+  }
+
+  private void consume(Future<SnapshotResult> future, OutputStream ndjsonOut,
+      List<SnapshotStats> allStats) throws IOException, InterruptedException {
+    SnapshotResult result;
+    try {
+      result = future.get();
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof IOException) {
+        throw (IOException) ex.getCause();
+      }
+      throw new IllegalStateException(ex.getCause());
+    }
+    if (ndjsonOut != null) {
+      ndjsonOut.write(result.line);
+    }
+    SnapshotStats stats = result.stats;
+    LOGGER.info(stats.name + ": " + stats.inputBytes + " bytes in, " + stats.outputBytes
+        + " bytes out, " + stats.millis + "ms");
+    allStats.add(stats);
+  }
+
+  private OutputStream openOutput(File file) throws IOException {
+    OutputStream out = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+    return gzip ? new GZIPOutputStream(out, BUFFER_SIZE) : out;
+  }
+
+  private static void writeStats(List<SnapshotStats> allStats, File file) throws IOException {
+    JsonArray array = new JsonArray();
+    for (SnapshotStats stats: allStats) {
+      array.add(stats.toJson());
+    }
+    Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      JsonWriter writer = new JsonWriter(out);
+      writer.setIndent("  ");
+      new Gson().toJson(array, writer);
+      writer.flush();
+    } finally {
+      out.close();
+    }
+  }
+
+  static String getSnapshotName(File snapshot) {
+    String name = snapshot.getName();
+    if (name.endsWith(".gz")) {
+      name = name.substring(0, name.length() - ".gz".length());
+    }
+    return name.substring(0, name.length() - ".json".length());
+  }
+}
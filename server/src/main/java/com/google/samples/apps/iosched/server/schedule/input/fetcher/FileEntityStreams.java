@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.input.fetcher;
+
+import com.google.samples.apps.iosched.server.schedule.model.JsonEntityStreams;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * JsonEntityStreams that reads entities from a local file, uncompressing it if its name ends
+ * with ".gz".
+ */
+public class FileEntityStreams extends JsonEntityStreams {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final File file;
+
+  public FileEntityStreams(File file) {
+    this.file = file;
+  }
+
+  @Override
+  protected Reader openReader() throws IOException {
+    if (!file.isFile()) {
+      return null;
+    }
+    InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+    if (file.getName().endsWith(".gz")) {
+      in = new GZIPInputStream(in, BUFFER_SIZE);
+    }
+    return new InputStreamReader(in, Charset.forName("UTF-8"));
+  }
+
+  @Override
+  public String toString() {
+    return "FileEntityStreams(file="+file+")";
+  }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.input.fetcher;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache of files fetched over HTTP, used by {@link RemoteJsonHelper}.
+ *
+ * <p>Each fetch revalidates the cached copy of a URL with a conditional GET (If-None-Match and
+ * If-Modified-Since). When the server answers 304 Not Modified, nothing is downloaded, and the
+ * tree parsed for that ETag is returned again without parsing. Bodies are requested with gzip
+ * Accept-Encoding and stored uncompressed, either in memory or, if a directory is given, on disk
+ * so that they also survive across runs of the command line tools.
+ *
+ * <p>Returned trees are shared and must not be modified.
+ */
+public class HttpFileCache {
+
+  private static final Logger LOGGER = Logger.getLogger(HttpFileCache.class.getName());
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final int MAX_ENTRIES = 32;
+
+  private static class CacheEntry {
+    final String etag;
+    final String lastModified;
+    // null when the body is stored on disk:
+    final byte[] body;
+    JsonObject tree;
+
+    CacheEntry(String etag, String lastModified, byte[] body) {
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.body = body;
+    }
+  }
+
+  private final File directory;
+  private final Map<String, CacheEntry> entries = Collections.synchronizedMap(
+      new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+          return size() > MAX_ENTRIES;
+        }
+      });
+  private final AtomicLong downloads = new AtomicLong();
+  private final AtomicLong notModified = new AtomicLong();
+  private final AtomicLong parses = new AtomicLong();
+
+  /**
+   * @param directory where bodies are stored, or null to keep them in memory only. It is
+   * created if needed.
+   */
+  public HttpFileCache(File directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Fetches a JSON object, parsing it only if it changed since the last fetch.
+   */
+  public JsonObject fetchJson(String url) throws IOException {
+    CacheEntry entry = revalidate(url);
+    synchronized (entry) {
+      if (entry.tree == null) {
+        Reader reader = openBody(url, entry);
+        try {
+          entry.tree = new JsonParser().parse(reader).getAsJsonObject();
+          parses.incrementAndGet();
+        } finally {
+          reader.close();
+        }
+      }
+      return entry.tree;
+    }
+  }
+
+  /**
+   * Opens a reader over the UTF-8 contents of a URL, downloading them only if they changed
+   * since the last fetch. Callers must close it.
+   */
+  public Reader openReader(String url) throws IOException {
+    return openBody(url, revalidate(url));
+  }
+
+  public long getDownloads() {
+    return downloads.get();
+  }
+
+  public long getNotModified() {
+    return notModified.get();
+  }
+
+  public long getParses() {
+    return parses.get();
+  }
+
+  private CacheEntry revalidate(String url) throws IOException {
+    CacheEntry cached = entries.get(url);
+    if (cached == null && directory != null) {
+      cached = loadEntry(url);
+    }
+    HttpURLConnection connection = RemoteJsonHelper.connect(url,
+        cached == null ? null : cached.etag, cached == null ? null : cached.lastModified);
+    try {
+      int response = connection.getResponseCode();
+      if (cached != null && response == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        notModified.incrementAndGet();
+        entries.put(url, cached);
+        return cached;
+      }
+      RemoteJsonHelper.checkResponse(url, response);
+      byte[] body = readFully(RemoteJsonHelper.getBody(connection));
+      CacheEntry entry = new CacheEntry(connection.getHeaderField("ETag"),
+          connection.getHeaderField("Last-Modified"), directory == null ? body : null);
+      downloads.incrementAndGet();
+      if (directory != null) {
+        storeEntry(url, entry, body);
+      }
+      entries.put(url, entry);
+      return entry;
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  private Reader openBody(String url, CacheEntry entry) throws IOException {
+    InputStream stream = entry.body != null ? new ByteArrayInputStream(entry.body)
+        : new FileInputStream(getFile(url, ".body"));
+    return new InputStreamReader(stream, UTF8);
+  }
+
+  private CacheEntry loadEntry(String url) {
+    File metadataFile = getFile(url, ".properties");
+    if (!metadataFile.isFile() || !getFile(url, ".body").isFile()) {
+      return null;
+    }
+    Properties metadata = new Properties();
+    try {
+      InputStream in = new FileInputStream(metadataFile);
+      try {
+        metadata.load(in);
+      } finally {
+        in.close();
+      }
+    } catch (IOException ex) {
+      LOGGER.log(Level.WARNING, "Ignoring unreadable cache entry for " + url, ex);
+      return null;
+    }
+    if (!url.equals(metadata.getProperty("url"))) {
+      return null;
+    }
+    return new CacheEntry(metadata.getProperty("etag"), metadata.getProperty("lastModified"),
+        null);
+  }
+
+  private void storeEntry(String url, CacheEntry entry, byte[] body) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create cache directory " + directory);
+    }
+    // The body is written first, so that metadata never describes a body that is not there:
+    File metadataFile = getFile(url, ".properties");
+    metadataFile.delete();
+    writeAtomically(getFile(url, ".body"), body);
+
+    Properties metadata = new Properties();
+    metadata.setProperty("url", url);
+    if (entry.etag != null) {
+      metadata.setProperty("etag", entry.etag);
+    }
+    if (entry.lastModified != null) {
+      metadata.setProperty("lastModified", entry.lastModified);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    metadata.store(out, null);
+    writeAtomically(metadataFile, out.toByteArray());
+  }
+
+  private File getFile(String url, String extension) {
+    return new File(directory, hashOf(url) + extension);
+  }
+
+  private static void writeAtomically(File file, byte[] contents) throws IOException {
+    File temp = new File(file.getPath() + ".tmp");
+    OutputStream out = new FileOutputStream(temp);
+    try {
+      out.write(contents);
+    } finally {
+      out.close();
+    }
+    if (!temp.renameTo(file)) {
+      file.delete();
+      if (!temp.renameTo(file)) {
+        throw new IOException("Could not write " + file);
+      }
+    }
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) >= 0) {
+        out.write(buffer, 0, read);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  private static String hashOf(String url) {
+    try {
+      byte[] hash = MessageDigest.getInstance("SHA-1").digest(url.getBytes(UTF8));
+      StringBuilder sb = new StringBuilder(hash.length * 2);
+      for (byte b: hash) {
+        sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      return sb.toString();
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+}
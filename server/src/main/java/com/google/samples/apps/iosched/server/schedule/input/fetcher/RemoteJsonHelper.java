@@ -26,15 +26,19 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.Map.Entry;
+import java.util.zip.GZIPInputStream;
 
 /**
  */
 public class RemoteJsonHelper {
 
+  private static volatile HttpFileCache cache = new HttpFileCache(null);
+
   public static JsonObject mergeJsonFiles(JsonObject target, String... filenames) throws IOException {
     if (target == null) {
       target = new JsonObject();
@@ -63,19 +67,83 @@ public class RemoteJsonHelper {
     return target;
   }
 
+  /**
+   * Sets the cache used to fetch public URLs, or null to always download them. By default, a
+   * cache that keeps files in memory is shared by the whole JVM.
+   */
+  public static void setCache(HttpFileCache cache) {
+    RemoteJsonHelper.cache = cache;
+  }
+
+  public static HttpFileCache getCache() {
+    return cache;
+  }
+
+  /**
+   * Fetches a JSON object from a public URL. If a cache is set, the returned tree may be shared
+   * and must not be modified.
+   */
   public static JsonObject fetchJsonFromPublicURL(String urlStr) throws IOException {
+    HttpFileCache currentCache = cache;
+    if (currentCache != null) {
+      return currentCache.fetchJson(urlStr);
+    }
+    JsonReader reader = new JsonReader(openPublicURL(urlStr));
+    try {
+      return (JsonObject) new JsonParser().parse(reader);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Opens a reader over the UTF-8 contents of a public URL. Callers must close it.
+   */
+  public static Reader openPublicURL(String urlStr) throws IOException {
+    HttpFileCache currentCache = cache;
+    if (currentCache != null) {
+      return currentCache.openReader(urlStr);
+    }
+    HttpURLConnection connection = connect(urlStr, null, null);
+    checkResponse(urlStr, connection.getResponseCode());
+    return new InputStreamReader(getBody(connection), Charset.forName("UTF-8"));
+  }
+
+  /**
+   * Opens a connection that accepts gzip'd responses, conditional if etag or lastModified are
+   * not null.
+   */
+  static HttpURLConnection connect(String urlStr, String etag, String lastModified)
+      throws IOException {
     URL url = new URL(urlStr);
 
     HttpURLConnection connection = (HttpURLConnection) url.openConnection();
     connection.setReadTimeout(1000 * 30); // 30 seconds
-    int response = connection.getResponseCode();
+    connection.setRequestProperty("Accept-Encoding", "gzip");
+    if (etag != null) {
+      connection.setRequestProperty("If-None-Match", etag);
+    }
+    if (lastModified != null) {
+      connection.setRequestProperty("If-Modified-Since", lastModified);
+    }
+    return connection;
+  }
+
+  static void checkResponse(String urlStr, int response) {
     if (response < 200 || response >= 300) {
       throw new IllegalArgumentException("Unexpected HTTP response ["+response+"] at URL: "+urlStr);
     }
+  }
 
+  /**
+   * @return the body of a response, uncompressed if it was sent with gzip Content-Encoding.
+   */
+  static InputStream getBody(HttpURLConnection connection) throws IOException {
     InputStream stream = connection.getInputStream();
-    JsonReader reader = new JsonReader(new InputStreamReader(stream, Charset.forName("UTF-8")));
-    return (JsonObject) new JsonParser().parse(reader);
+    if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+      return new GZIPInputStream(stream);
+    }
+    return stream;
   }
 
 }
@@ -42,10 +42,23 @@ public class VendorAPIEntityFetcher implements EntityFetcher {
   // TODO: Hook up to your backend data source
   public static final String BASE_URL = "https://example.com/api/";
 
+  private final String baseUrl;
+
+  public VendorAPIEntityFetcher() {
+    this(BASE_URL);
+  }
+
+  /**
+   * @param baseUrl URL that entity names are appended to, like {@link #BASE_URL}.
+   */
+  public VendorAPIEntityFetcher(String baseUrl) {
+    this.baseUrl = baseUrl;
+  }
+
   @Override
   public JsonElement fetch(Enum<?> entityType, Map<String, String> params)
       throws IOException {
-    StringBuilder urlStr = new StringBuilder(BASE_URL);
+    StringBuilder urlStr = new StringBuilder(baseUrl);
     urlStr.append(entityType.name());
     if (params != null && !params.isEmpty()) {
       urlStr.append("?");
@@ -77,6 +90,6 @@ public class VendorAPIEntityFetcher implements EntityFetcher {
    */
   @Override
   public String toString() {
-    return "HttpEntityFetcher(baseURL="+BASE_URL+")";
+    return "HttpEntityFetcher(baseURL="+baseUrl+")";
   }
 }
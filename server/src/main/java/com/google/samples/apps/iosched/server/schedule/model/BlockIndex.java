@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.model;
+
+import static com.google.samples.apps.iosched.server.schedule.model.DataModelHelper.get;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.samples.apps.iosched.server.schedule.Config;
+import com.google.samples.apps.iosched.server.schedule.model.validator.IsoDateTime;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Agenda blocks, parsed only once and indexed by time.
+ *
+ * <p>Free blocks are merged into a sorted list of disjoint intervals, so checking whether a
+ * time lies on a free block is a binary search instead of a scan over all blocks.
+ */
+public class BlockIndex {
+
+  private final long conferenceStart;
+  private final long conferenceEnd;
+
+  private final List<Block> blocks = new ArrayList<Block>();
+  private final long[] freeStarts;
+  private final long[] freeEnds;
+
+  /**
+   * A block with its parsed start and end, or its parse error.
+   */
+  public static class Block {
+    public final JsonObject json;
+    public final long start;
+    public final long end;
+    public final String parseError;
+
+    Block(JsonObject json, long start, long end, String parseError) {
+      this.json = json;
+      this.start = start;
+      this.end = end;
+      this.parseError = parseError;
+    }
+  }
+
+  public BlockIndex(JsonArray blocksArray) {
+    conferenceStart = Config.CONFERENCE_DAYS[0][0];
+    conferenceEnd = Config.CONFERENCE_DAYS[Config.CONFERENCE_DAYS.length-1][1];
+
+    List<long[]> free = new ArrayList<long[]>();
+    for (JsonElement el: blocksArray) {
+      JsonObject block = el.getAsJsonObject();
+      try {
+        long start = IsoDateTime.parse(get(block, OutputJsonKeys.Blocks.start).getAsString());
+        long end = IsoDateTime.parse(get(block, OutputJsonKeys.Blocks.end).getAsString());
+        blocks.add(new Block(block, start, end, null));
+        JsonElement type = get(block, OutputJsonKeys.Blocks.type);
+        if (type != null && "free".equals(type.getAsString()) && start < end) {
+          free.add(new long[] {start, end});
+        }
+      } catch (ParseException ex) {
+        blocks.add(new Block(block, 0, 0, ex.getMessage()));
+      }
+    }
+
+    // Sort free blocks by start and merge the ones that overlap or touch:
+    long[][] sorted = free.toArray(new long[free.size()][]);
+    Arrays.sort(sorted, new Comparator<long[]>() {
+      @Override
+      public int compare(long[] a, long[] b) {
+        return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+      }
+    });
+    long[] starts = new long[sorted.length];
+    long[] ends = new long[sorted.length];
+    int count = 0;
+    for (long[] interval: sorted) {
+      if (count > 0 && interval[0] <= ends[count-1]) {
+        ends[count-1] = Math.max(ends[count-1], interval[1]);
+      } else {
+        starts[count] = interval[0];
+        ends[count] = interval[1];
+        count++;
+      }
+    }
+    freeStarts = Arrays.copyOf(starts, count);
+    freeEnds = Arrays.copyOf(ends, count);
+  }
+
+  /**
+   * All blocks, in their original order.
+   */
+  public List<Block> getBlocks() {
+    return blocks;
+  }
+
+  /**
+   * Whether the given time lies on a free block, that is, free block start &lt;= time &lt; free
+   * block end.
+   */
+  public boolean isInFreeBlock(long time) {
+    // index of the last interval that starts at or before time:
+    int pos = Arrays.binarySearch(freeStarts, time);
+    if (pos < 0) {
+      pos = -pos - 2;
+    }
+    return pos >= 0 && time < freeEnds[pos];
+  }
+
+  /**
+   * Whether the given range starts and ends within the days of the conference.
+   */
+  public boolean isWithinConference(long start, long end) {
+    return start >= conferenceStart && end <= conferenceEnd;
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.model;
+
+import static com.google.samples.apps.iosched.server.schedule.model.DataModelHelper.getAsArray;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.Map;
+
+/**
+ * Data shared by all {@link CheckRule}s of a check run: the old and new data and the indexes
+ * built from them. It is built before any rule runs and must be treated as read-only.
+ */
+public class CheckContext {
+
+  public final JsonObject oldData;
+  public final JsonObject newData;
+  private final BlockIndex blockIndex;
+
+  public CheckContext(JsonObject oldData, JsonObject newData) {
+    this.oldData = oldData;
+    this.newData = newData;
+    JsonArray newBlocks = getAsArray(newData, OutputJsonKeys.MainTypes.blocks);
+    if (newBlocks == null ) {
+      StringBuilder sb= new StringBuilder();
+      for (Map.Entry<String, JsonElement> entry: newData.entrySet()) {
+        sb.append(entry.getKey()).append(", ");
+      }
+      throw new IllegalArgumentException("Could not find the blocks entities. Entities in newData are: "+sb);
+    }
+    // Blocks are parsed only once, and the index is used for all block related checks:
+    this.blockIndex = new BlockIndex(newBlocks);
+  }
+
+  public BlockIndex getBlockIndex() {
+    return blockIndex;
+  }
+}
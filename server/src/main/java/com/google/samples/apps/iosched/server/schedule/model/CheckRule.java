@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.model;
+
+import com.google.samples.apps.iosched.server.schedule.model.DataCheck.CheckResult;
+
+/**
+ * A named data check rule, registered in {@link DataCheck}. Rules may run concurrently, so they
+ * must only read the shared {@link CheckContext} and report failures to their own
+ * {@link CheckResult}.
+ */
+public abstract class CheckRule {
+
+  private final String name;
+  private final Enum<?> entityType;
+
+  /**
+   * @param name Name of the rule, used to group failures in reports.
+   * @param entityType Entity type the rule inspects, or null if it inspects all of them.
+   */
+  protected CheckRule(String name, Enum<?> entityType) {
+    this.name = name;
+    this.entityType = entityType;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public Enum<?> getEntityType() {
+    return entityType;
+  }
+
+  public abstract void check(CheckContext context, CheckResult result);
+
+  @Override
+  public String toString() {
+    return name + (entityType == null ? "" : "(" + entityType.name() + ")");
+  }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.model;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link JsonDataSource} that stores its entities by property (column) instead of as one Gson
+ * tree per entity, to use less memory with large data sets:
+ * <ul>
+ *   <li>Property names and short string values (ids, names, URLs) are interned, so that values
+ *   repeated across entities, like room or category ids, are stored only once.</li>
+ *   <li>Properties whose values are all integers are stored in a long[].</li>
+ *   <li>Arrays of strings, like category or speaker ids, are stored as String[].</li>
+ * </ul>
+ *
+ * <p>Entities are rebuilt as new JsonObjects by {@link #getElementById(String)} and
+ * {@link #iterator()}, with their properties in the same order as they were added. Nested
+ * objects are interned too but are not rebuilt, so they are shared between calls and must not
+ * be modified.
+ */
+public class CompactJsonDataSource extends JsonDataSource {
+
+  /** Strings up to this length are interned. Longer ones are usually unique. */
+  static final int MAX_INTERNED_LENGTH = 64;
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final HashMap<String, String> strings = new HashMap<String, String>();
+  private final HashMap<String, Integer> rowsById = new HashMap<String, Integer>();
+  private final List<Column> columns = new ArrayList<Column>();
+  private final HashMap<String, Integer> columnsByName = new HashMap<String, Integer>();
+  // Each distinct order of properties, as indexes in columns:
+  private final List<int[]> shapes = new ArrayList<int[]>();
+  private final HashMap<String, Integer> shapesByKey = new HashMap<String, Integer>();
+
+  private String[] ids = new String[INITIAL_CAPACITY];
+  private int[] rowShapes = new int[INITIAL_CAPACITY];
+  private int size;
+
+  /**
+   * Values of one property for all entities. Only the entries of entities that have the
+   * property, according to their shape, are meaningful.
+   */
+  private static class Column {
+    final String name;
+    // Used while all values are integers, and then replaced by values:
+    long[] longs;
+    // An interned String, Boolean, String[] or (for anything else) a JsonElement:
+    Object[] values;
+
+    Column(String name, int capacity) {
+      this.name = name;
+      this.longs = new long[capacity];
+    }
+
+    void grow(int capacity) {
+      if (longs != null) {
+        longs = Arrays.copyOf(longs, capacity);
+      } else {
+        values = Arrays.copyOf(values, capacity);
+      }
+    }
+  }
+
+  public CompactJsonDataSource(Enum<?> sourceType) {
+    super(sourceType, (HashMap<String, JsonObject>) null);
+  }
+
+  public CompactJsonDataSource(Enum<?> sourceType, JsonArray arr) {
+    super(sourceType, (HashMap<String, JsonObject>) null);
+    if (arr != null) {
+      addAll(arr);
+    }
+  }
+
+  @Override
+  public JsonObject getElementById(String id) {
+    Integer row = rowsById.get(id);
+    return row == null ? null : toJsonObject(row);
+  }
+
+  /**
+   * Iterates in the same order as a {@link JsonDataSource} with the same entities.
+   */
+  @Override
+  public Iterator<JsonObject> iterator() {
+    final Iterator<Integer> rows = rowsById.values().iterator();
+    return new Iterator<JsonObject>() {
+      @Override
+      public boolean hasNext() {
+        return rows.hasNext();
+      }
+
+      @Override
+      public JsonObject next() {
+        return toJsonObject(rows.next());
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void addElement(String id, JsonObject obj) {
+    Integer existing = rowsById.get(id);
+    int row;
+    if (existing != null) {
+      // Same as a map: the new entity replaces the old one, keeping its position.
+      row = existing;
+    } else {
+      row = size++;
+      if (row == ids.length) {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        rowShapes = Arrays.copyOf(rowShapes, capacity);
+        for (Column column: columns) {
+          column.grow(capacity);
+        }
+      }
+      String internedId = intern(id);
+      ids[row] = internedId;
+      rowsById.put(internedId, row);
+    }
+
+    int[] shape = new int[obj.entrySet().size()];
+    StringBuilder shapeKey = new StringBuilder();
+    int i = 0;
+    for (Map.Entry<String, JsonElement> entry: obj.entrySet()) {
+      int columnIndex = getColumn(entry.getKey());
+      shape[i++] = columnIndex;
+      shapeKey.append(columnIndex).append(',');
+      setValue(columnIndex, row, entry.getValue());
+    }
+    Integer shapeIndex = shapesByKey.get(shapeKey.toString());
+    if (shapeIndex == null) {
+      shapeIndex = shapes.size();
+      shapes.add(shape);
+      shapesByKey.put(shapeKey.toString(), shapeIndex);
+    }
+    rowShapes[row] = shapeIndex;
+  }
+
+  @Override
+  public long getEstimatedSize() {
+    Set<Object> counted = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    long size = 128;
+    // the interned strings and their map:
+    size += 56 + 4 * Integer.highestOneBit(Math.max(1, strings.size()) * 2) + 32 * strings.size();
+    for (String value: strings.keySet()) {
+      size += estimateSize(value, counted);
+    }
+    // the index by id, with a boxed row number for each entity:
+    size += 56 + 4 * Integer.highestOneBit(Math.max(1, rowsById.size()) * 2)
+        + 48 * rowsById.size();
+    size += 16 + 4 * ids.length + 16 + 4 * rowShapes.length;
+    for (int[] shape: shapes) {
+      size += 16 + 4 * shape.length + 64;
+    }
+    for (Column column: columns) {
+      size += 32;
+      if (column.longs != null) {
+        size += 16 + 8 * column.longs.length;
+        continue;
+      }
+      size += 16 + 4 * column.values.length;
+      for (Object value: column.values) {
+        if (value instanceof String) {
+          size += estimateSize((String) value, counted);
+        } else if (value instanceof String[]) {
+          String[] array = (String[]) value;
+          size += 16 + 4 * array.length;
+          for (String item: array) {
+            size += estimateSize(item, counted);
+          }
+        } else if (value instanceof JsonElement) {
+          size += estimateSize((JsonElement) value, counted);
+        }
+      }
+    }
+    return size;
+  }
+
+  private int getColumn(String name) {
+    Integer index = columnsByName.get(name);
+    if (index == null) {
+      index = columns.size();
+      String internedName = intern(name);
+      columns.add(new Column(internedName, ids.length));
+      columnsByName.put(internedName, index);
+    }
+    return index;
+  }
+
+  private void setValue(int columnIndex, int row, JsonElement value) {
+    Column column = columns.get(columnIndex);
+    if (column.longs != null) {
+      if (isLong(value)) {
+        column.longs[row] = value.getAsLong();
+        return;
+      }
+      // Not all values are integers anymore, move them to the generic column:
+      column.values = new Object[column.longs.length];
+      for (int i = 0; i < size; i++) {
+        if (i != row && hasColumn(i, columnIndex)) {
+          column.values[i] = new JsonPrimitive(column.longs[i]);
+        }
+      }
+      column.longs = null;
+    }
+    column.values[row] = compact(value);
+  }
+
+  private Object compact(JsonElement value) {
+    if (value.isJsonPrimitive()) {
+      JsonPrimitive primitive = value.getAsJsonPrimitive();
+      if (primitive.isString()) {
+        return intern(primitive.getAsString());
+      }
+      if (primitive.isBoolean()) {
+        return primitive.getAsBoolean() ? Boolean.TRUE : Boolean.FALSE;
+      }
+      return primitive;
+    }
+    if (value.isJsonArray()) {
+      JsonArray array = value.getAsJsonArray();
+      String[] items = new String[array.size()];
+      for (int i = 0; i < items.length; i++) {
+        JsonElement item = array.get(i);
+        if (!item.isJsonPrimitive() || !item.getAsJsonPrimitive().isString()) {
+          return internTree(value);
+        }
+        items[i] = intern(item.getAsString());
+      }
+      return items;
+    }
+    return internTree(value);
+  }
+
+  private boolean hasColumn(int row, int columnIndex) {
+    for (int index: shapes.get(rowShapes[row])) {
+      if (index == columnIndex) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static JsonElement expand(Object value) {
+    if (value instanceof String) {
+      return new JsonPrimitive((String) value);
+    }
+    if (value instanceof Boolean) {
+      return new JsonPrimitive((Boolean) value);
+    }
+    if (value instanceof String[]) {
+      JsonArray array = new JsonArray();
+      for (String item: (String[]) value) {
+        array.add(new JsonPrimitive(item));
+      }
+      return array;
+    }
+    return (JsonElement) value;
+  }
+
+  private JsonObject toJsonObject(int row) {
+    JsonObject obj = new JsonObject();
+    for (int columnIndex: shapes.get(rowShapes[row])) {
+      Column column = columns.get(columnIndex);
+      JsonElement value;
+      if (column.longs != null) {
+        value = new JsonPrimitive(column.longs[row]);
+      } else {
+        value = expand(column.values[row]);
+      }
+      obj.add(column.name, value);
+    }
+    return obj;
+  }
+
+  /**
+   * @return a copy of a nested tree, with its property names and short strings interned.
+   */
+  private JsonElement internTree(JsonElement value) {
+    if (value.isJsonObject()) {
+      JsonObject copy = new JsonObject();
+      for (Map.Entry<String, JsonElement> entry: value.getAsJsonObject().entrySet()) {
+        copy.add(intern(entry.getKey()), internTree(entry.getValue()));
+      }
+      return copy;
+    }
+    if (value.isJsonArray()) {
+      JsonArray copy = new JsonArray();
+      for (JsonElement item: value.getAsJsonArray()) {
+        copy.add(internTree(item));
+      }
+      return copy;
+    }
+    if (value.isJsonPrimitive() && value.getAsJsonPrimitive().isString()) {
+      String string = value.getAsString();
+      String interned = intern(string);
+      return interned == string ? value : new JsonPrimitive(interned);
+    }
+    return value.isJsonNull() ? JsonNull.INSTANCE : value;
+  }
+
+  private String intern(String value) {
+    if (value.length() > MAX_INTERNED_LENGTH) {
+      return value;
+    }
+    String interned = strings.get(value);
+    if (interned == null) {
+      strings.put(value, value);
+      interned = value;
+    }
+    return interned;
+  }
+
+  /**
+   * @return whether the value is an integer number that is written back exactly as it was read.
+   */
+  private static boolean isLong(JsonElement value) {
+    if (!value.isJsonPrimitive() || !value.getAsJsonPrimitive().isNumber()) {
+      return false;
+    }
+    String text = value.getAsString();
+    int start = text.startsWith("-") ? 1 : 0;
+    if (text.length() == start || text.length() - start > 18
+        || (text.charAt(start) == '0' && text.length() > start + 1)) {
+      return false;
+    }
+    for (int i = start; i < text.length(); i++) {
+      char ch = text.charAt(i);
+      if (ch < '0' || ch > '9') {
+        return false;
+      }
+    }
+    return !"-0".equals(text);
+  }
+}
@@ -23,16 +23,24 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import com.google.samples.apps.iosched.server.schedule.Config;
+import com.google.samples.apps.iosched.server.schedule.model.validator.IsoDateTime;
 import com.google.samples.apps.iosched.server.schedule.server.ManifestData;
 import com.google.samples.apps.iosched.server.schedule.server.cloudstorage.CloudFileManager;
 
 import java.io.IOException;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 
 
@@ -43,140 +51,246 @@ import java.util.regex.Matcher;
 public class DataCheck {
 
   private CloudFileManager fileManager;
-
-  private SimpleDateFormat sessionDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-  private SimpleDateFormat blockDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+  private final List<CheckRule> rules = new ArrayList<CheckRule>(getDefaultRules());
 
   public DataCheck(CloudFileManager fileManager) {
     this.fileManager = fileManager;
   }
 
   /**
+   * Registers an additional rule, which will run with the default ones.
+   */
+  public void addRule(CheckRule rule) {
+    rules.add(rule);
+  }
+
+  public List<CheckRule> getRules() {
+    return Collections.unmodifiableList(rules);
+  }
+
+  /**
+   * Runs all rules sequentially.
+   *
    * @param sources
    */
   public CheckResult check(JsonDataSources sources, JsonObject newSessionData, ManifestData manifest) throws IOException {
-    newSessionData = clone(newSessionData);
+    return check(sources, newSessionData, manifest, null);
+  }
+
+  /**
+   * Runs all rules, in parallel if an executor is given. Failures are returned in the order
+   * rules were registered, each one with the name of its rule and how long the rule took.
+   *
+   * @param sources
+   * @param executor Executor to run the rules, or null to run them in the calling thread.
+   */
+  public CheckResult check(JsonDataSources sources, JsonObject newSessionData, ManifestData manifest,
+      ExecutorService executor) throws IOException {
+    // The arrays of newSessionData and of the data files (which may be cached) are shared
+    // with oldData and newData instead of cloned. merge() copies them before appending, so
+    // that they are never modified.
     JsonObject newData = new JsonObject();
-    merge(newSessionData, newData);
+    Set<JsonArray> newDataCopies = Collections.newSetFromMap(new IdentityHashMap<JsonArray, Boolean>());
+    merge(newSessionData, newData, newDataCopies);
     JsonObject oldData = new JsonObject();
+    Set<JsonArray> oldDataCopies = Collections.newSetFromMap(new IdentityHashMap<JsonArray, Boolean>());
     for (JsonElement dataFile: manifest.dataFiles) {
       String filename = dataFile.getAsString();
       // except for session data, merge all other files:
       Matcher matcher = Config.SESSIONS_PATTERN.matcher(filename);
       if (!matcher.matches()) {
         JsonObject data = fileManager.readFileAsJsonObject(filename);
-        merge(data, oldData);
-        merge(data, newData);
+        merge(data, oldData, oldDataCopies);
+        merge(data, newData, newDataCopies);
       }
     }
 
+    final CheckContext context = new CheckContext(oldData, newData);
+    List<Callable<CheckResult>> tasks = new ArrayList<Callable<CheckResult>>();
+    for (final CheckRule rule: rules) {
+      tasks.add(new Callable<CheckResult>() {
+        @Override
+        public CheckResult call() {
+          return runRule(rule, context);
+        }
+      });
+    }
+
     CheckResult result = new CheckResult();
+    if (executor == null) {
+      for (Callable<CheckResult> task: tasks) {
+        try {
+          result.addAll(task.call());
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+      }
+      return result;
+    }
+
+    try {
+      for (Future<CheckResult> future: executor.invokeAll(tasks)) {
+        result.addAll(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while checking data", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException("Error while checking data", e.getCause());
+    }
+    return result;
+  }
+
+  private static CheckResult runRule(CheckRule rule, CheckContext context) {
+    CheckResult ruleResult = new CheckResult();
+    long start = System.nanoTime();
+    rule.check(context, ruleResult);
+    long elapsedMillis = (System.nanoTime() - start) / 1000000L;
+    for (CheckFailure failure: ruleResult.failures) {
+      failure.rule = rule.getName();
+      failure.ruleElapsedMillis = elapsedMillis;
+    }
+    ruleResult.ruleTimes.put(rule.getName(), elapsedMillis);
+    return ruleResult;
+  }
+
+  /**
+   * The rules that every check runs.
+   */
+  public static List<CheckRule> getDefaultRules() {
+    List<CheckRule> rules = new ArrayList<CheckRule>();
 
     // check if array of entities is more than 80% the size of the old data:
-    checkUsingPredicator(result, oldData, newData, new ArraySizeValidator());
+    rules.add(new CheckRule("entityCount", null) {
+      @Override
+      public void check(CheckContext context, CheckResult result) {
+        checkUsingPredicator(result, context.oldData, context.newData, new ArraySizeValidator());
+      }
+    });
 
     // Check that no existing tag was removed or had its name changed in a significant way
-    checkUsingPredicator(result, oldData, newData,
-        OutputJsonKeys.MainTypes.tags, OutputJsonKeys.Tags.tag,
-        new EntityValidator() {
-          @Override
-          public void evaluate(CheckResult result, String entity, JsonObject oldData,
-              JsonObject newData) {
-            if (newData == null) {
-              String tagName = get(oldData, OutputJsonKeys.Tags.tag).getAsString();
-              String originalId = get(oldData, OutputJsonKeys.Tags.original_id).getAsString();
-              result.failures.add(
-                  new CheckFailure(entity, tagName,
-                      "Tag could not be found or changed name. Original category ID = " + originalId)
-                  );
-            }
-          }
-        });
+    rules.add(new CheckRule("tagsKept", OutputJsonKeys.MainTypes.tags) {
+      @Override
+      public void check(CheckContext context, CheckResult result) {
+        checkUsingPredicator(result, context.oldData, context.newData,
+            OutputJsonKeys.MainTypes.tags, OutputJsonKeys.Tags.tag,
+            new EntityValidator() {
+              @Override
+              public void evaluate(CheckResult result, String entity, JsonObject oldData,
+                  JsonObject newData) {
+                if (newData == null) {
+                  String tagName = get(oldData, OutputJsonKeys.Tags.tag).getAsString();
+                  String originalId = get(oldData, OutputJsonKeys.Tags.original_id).getAsString();
+                  result.failures.add(
+                      new CheckFailure(entity, tagName,
+                          "Tag could not be found or changed name. Original category ID = " + originalId)
+                      );
+                }
+              }
+            });
+      }
+    });
 
     // Check that no room was removed
-    checkUsingPredicator(result, oldData, newData,
-        OutputJsonKeys.MainTypes.rooms, OutputJsonKeys.Rooms.id,
-        new EntityValidator() {
-          @Override
-          public void evaluate(CheckResult result, String entity, JsonObject oldData,
-              JsonObject newData) {
-            if (newData == null) {
-              String id = get(oldData, OutputJsonKeys.Rooms.id).getAsString();
-              result.failures.add(
-                  new CheckFailure(entity, id,
-                      "Room could not be found. Original room: " + oldData)
-                  );
-            }
-          }
-        });
+    rules.add(new CheckRule("roomsKept", OutputJsonKeys.MainTypes.rooms) {
+      @Override
+      public void check(CheckContext context, CheckResult result) {
+        checkUsingPredicator(result, context.oldData, context.newData,
+            OutputJsonKeys.MainTypes.rooms, OutputJsonKeys.Rooms.id,
+            new EntityValidator() {
+              @Override
+              public void evaluate(CheckResult result, String entity, JsonObject oldData,
+                  JsonObject newData) {
+                if (newData == null) {
+                  String id = get(oldData, OutputJsonKeys.Rooms.id).getAsString();
+                  result.failures.add(
+                      new CheckFailure(entity, id,
+                          "Room could not be found. Original room: " + oldData)
+                      );
+                }
+              }
+            });
+      }
+    });
 
     // Check if blocks start and end timestamps are valid
-    JsonArray newBlocks = getAsArray(newData, OutputJsonKeys.MainTypes.blocks);
-    if (newBlocks == null ) {
-      StringBuilder sb= new StringBuilder();
-      for (Map.Entry<String, JsonElement> entry: newData.entrySet()) {
-        sb.append(entry.getKey()).append(", ");
+    rules.add(new CheckRule("blockDates", OutputJsonKeys.MainTypes.blocks) {
+      @Override
+      public void check(CheckContext context, CheckResult result) {
+        BlockIndex blockIndex = context.getBlockIndex();
+        for (BlockIndex.Block block: blockIndex.getBlocks()) {
+          if (block.parseError != null) {
+            result.failures.add(
+                new CheckFailure(OutputJsonKeys.MainTypes.blocks.name(), null,
+                    "Could not parse block start or end date. Exception="+block.parseError
+                    +". Block=" + block.json));
+          } else if ( block.start >= block.end ||  // check for invalid start/end combinations
+              !blockIndex.isWithinConference(block.start, block.end)) {  // check for block outside of the conference
+            result.failures.add(
+                new CheckFailure(OutputJsonKeys.MainTypes.blocks.name(), null,
+                    "Invalid block start or end date. Block=" + block.json));
+          }
+        }
       }
-      throw new IllegalArgumentException("Could not find the blocks entities. Entities in newData are: "+sb);
-    }
-    for (JsonElement el: newBlocks) {
-      JsonObject block = el.getAsJsonObject();
-      try {
-        Date start = blockDateFormat.parse(get(block, OutputJsonKeys.Blocks.start).getAsString());
-        Date end = blockDateFormat.parse(get(block, OutputJsonKeys.Blocks.end).getAsString());
-        if ( start.getTime() >= end.getTime() ||  // check for invalid start/end combinations
-            start.getTime() < Config.CONFERENCE_DAYS[0][0] || // check for block starting before the conference
-            end.getTime() > Config.CONFERENCE_DAYS[1][1]) {  // check for block ending after the conference
-          result.failures.add(
-              new CheckFailure(OutputJsonKeys.MainTypes.blocks.name(), null,
-                  "Invalid block start or end date. Block=" + block));
+    });
+
+    // Check if sessions start and end timestamps are valid
+    rules.add(new CheckRule("sessionDates", OutputJsonKeys.MainTypes.sessions) {
+      @Override
+      public void check(CheckContext context, CheckResult result) {
+        checkSessionDates(context, result);
+      }
+    });
+
+    // Check if video sessions (video library) have valid video URLs
+    rules.add(new CheckRule("videoLibraryVid", OutputJsonKeys.MainTypes.video_library) {
+      @Override
+      public void check(CheckContext context, CheckResult result) {
+        JsonArray newVideoLibrary = getAsArray(context.newData, OutputJsonKeys.MainTypes.video_library);
+        for (JsonElement el: newVideoLibrary) {
+          JsonObject session = el.getAsJsonObject();
+          JsonPrimitive videoUrl = (JsonPrimitive) get(session, OutputJsonKeys.VideoLibrary.vid);
+          if (videoUrl == null || !videoUrl.isString() || videoUrl.getAsString() == null ||
+              videoUrl.getAsString().isEmpty()) {
+            result.failures.add(
+              new CheckFailure(InputJsonKeys.VendorAPISource.MainTypes.topics.name(),
+                  ""+get(session, OutputJsonKeys.VideoLibrary.id),
+                  "Video Session has empty vid info. Session: " + session));
+          }
         }
-      } catch (ParseException ex) {
-        result.failures.add(
-            new CheckFailure(OutputJsonKeys.MainTypes.blocks.name(), null,
-                "Could not parse block start or end date. Exception="+ex.getMessage()
-                +". Block=" + block));
       }
-    }
+    });
 
+    return rules;
+  }
 
-    // Check if sessions start and end timestamps are valid
-    JsonArray newSessions = getAsArray(newData, OutputJsonKeys.MainTypes.sessions);
+  private static void checkSessionDates(CheckContext context, CheckResult result) {
+    BlockIndex blockIndex = context.getBlockIndex();
+    JsonArray newSessions = getAsArray(context.newData, OutputJsonKeys.MainTypes.sessions);
     for (JsonElement el: newSessions) {
       JsonObject session = el.getAsJsonObject();
       try {
-        Date start = sessionDateFormat.parse(get(session, OutputJsonKeys.Sessions.startTimestamp).getAsString());
-        Date end = sessionDateFormat.parse(get(session, OutputJsonKeys.Sessions.endTimestamp).getAsString());
-        if ( start.getTime() >= end.getTime() ) {  // check for invalid start/end combinations
+        long start = IsoDateTime.parse(get(session, OutputJsonKeys.Sessions.startTimestamp).getAsString());
+        long end = IsoDateTime.parse(get(session, OutputJsonKeys.Sessions.endTimestamp).getAsString());
+        if ( start >= end ) {  // check for invalid start/end combinations
           result.failures.add(
               new CheckFailure(OutputJsonKeys.MainTypes.sessions.name(), get(session, OutputJsonKeys.Sessions.id).getAsString(),
                   "Session ends before or at the same time as it starts. Session=" + session));
-        } else if ( end.getTime() - start.getTime() > 6 * 60 * 60 * 1000L ) { // check for session longer than 6 hours
+        } else if ( end - start > 6 * 60 * 60 * 1000L ) { // check for session longer than 6 hours
           result.failures.add(
               new CheckFailure(OutputJsonKeys.MainTypes.sessions.name(), get(session, OutputJsonKeys.Sessions.id).getAsString(),
                   "Session is longer than 6 hours. Session=" + session));
-        } else if ( start.getTime() < Config.CONFERENCE_DAYS[0][0] || // check for session starting before the conference
-            end.getTime() > Config.CONFERENCE_DAYS[1][1]) {  // check for session ending after the conference
+        } else if ( !blockIndex.isWithinConference(start, end)) {  // check for session outside of the conference
           result.failures.add(
               new CheckFailure(OutputJsonKeys.MainTypes.sessions.name(), get(session, OutputJsonKeys.Sessions.id).getAsString(),
                   "Session starts before or ends after the days of the conference. Session=" + session));
         } else {
           // Check if all sessions are covered by at least one free block (except the keynote):
-          boolean valid = false;
           if (!get(session, OutputJsonKeys.Sessions.id).getAsString().equals("__keynote__")) {
-            for (JsonElement bl: newBlocks) {
-              JsonObject block = bl.getAsJsonObject();
-              Date blockStart= blockDateFormat.parse(get(block, OutputJsonKeys.Blocks.start).getAsString());
-              Date blockEnd = blockDateFormat.parse(get(block, OutputJsonKeys.Blocks.end).getAsString());
-              String blockType = get(block, OutputJsonKeys.Blocks.type).getAsString();
-              if ("free".equals(blockType) &&
-                  start.compareTo(blockStart) >= 0 &&
-                  start.compareTo(blockEnd) < 0) {
-                valid = true;
-                break;
-              }
-            }
-            if (!valid) {
+            if (!blockIndex.isInFreeBlock(start)) {
               result.failures.add(
                   new CheckFailure(OutputJsonKeys.MainTypes.sessions.name(), get(session, OutputJsonKeys.Sessions.id).getAsString(),
                       "There is no FREE block where this session start date lies on. Session=" + session));
@@ -190,26 +304,9 @@ public class DataCheck {
                 +". Session=" + session));
       }
     }
-
-
-    // Check if video sessions (video library) have valid video URLs
-    JsonArray newVideoLibrary = getAsArray(newData, OutputJsonKeys.MainTypes.video_library);
-    for (JsonElement el: newVideoLibrary) {
-      JsonObject session = el.getAsJsonObject();
-      JsonPrimitive videoUrl = (JsonPrimitive) get(session, OutputJsonKeys.VideoLibrary.vid);
-      if (videoUrl == null || !videoUrl.isString() || videoUrl.getAsString() == null ||
-          videoUrl.getAsString().isEmpty()) {
-        result.failures.add(
-          new CheckFailure(InputJsonKeys.VendorAPISource.MainTypes.topics.name(),
-              ""+get(session, OutputJsonKeys.VideoLibrary.id),
-              "Video Session has empty vid info. Session: " + session));
-      }
-    }
-
-    return result;
   }
 
-  public void checkUsingPredicator(CheckResult result, JsonObject oldData, JsonObject newData,
+  public static void checkUsingPredicator(CheckResult result, JsonObject oldData, JsonObject newData,
       ArrayValidator predicate) {
     for (Map.Entry<String, JsonElement> entry: oldData.entrySet()) {
       String oldKey = entry.getKey();
@@ -219,7 +316,7 @@ public class DataCheck {
   }
 
 
-  public void checkUsingPredicator(CheckResult result, JsonObject oldData, JsonObject newData, Enum<?> entityType, Enum<?> entityKey, EntityValidator predicate) {
+  public static void checkUsingPredicator(CheckResult result, JsonObject oldData, JsonObject newData, Enum<?> entityType, Enum<?> entityKey, EntityValidator predicate) {
     HashMap<String, JsonObject> oldMap = new HashMap<String, JsonObject>();
     HashMap<String, JsonObject> newMap = new HashMap<String, JsonObject>();
     JsonArray oldArray = getAsArray(oldData, entityType);
@@ -238,22 +335,24 @@ public class DataCheck {
   }
 
 
-  private JsonObject clone(JsonObject source) {
-    JsonObject dest = new JsonObject();
-    for (Map.Entry<String, JsonElement> entry: source.entrySet()) {
-      JsonArray values = entry.getValue().getAsJsonArray();
-      JsonArray cloned = new JsonArray();
-      cloned.addAll(values);
-      dest.add(entry.getKey(), cloned);
-    }
-    return dest;
-  }
-
-  private void merge(JsonObject source, JsonObject dest) {
+  /**
+   * Appends the arrays of source to the arrays of dest with the same name. Arrays are shared
+   * until something needs to be appended to them: then they are replaced by a copy, which is
+   * added to {@code copies}, so that arrays of source are never modified.
+   */
+  private void merge(JsonObject source, JsonObject dest, Set<JsonArray> copies) {
     for (Map.Entry<String, JsonElement> entry: source.entrySet()) {
       JsonArray values = entry.getValue().getAsJsonArray();
       if (dest.has(entry.getKey())) {
-        dest.get(entry.getKey()).getAsJsonArray().addAll(values);
+        JsonArray existing = dest.get(entry.getKey()).getAsJsonArray();
+        if (!copies.contains(existing)) {
+          JsonArray copy = new JsonArray();
+          copy.addAll(existing);
+          dest.add(entry.getKey(), copy);
+          copies.add(copy);
+          existing = copy;
+        }
+        existing.addAll(values);
       } else {
         dest.add(entry.getKey(), values);
       }
@@ -288,6 +387,9 @@ public class DataCheck {
     String entity;
     String entityId;
     String failureReason;
+    // Set when the failure is reported by a CheckRule:
+    String rule;
+    long ruleElapsedMillis;
     public CheckFailure(String entity, String entityId, String failureReason) {
       this.entity = entity;
       this.entityId = entityId;
@@ -305,6 +407,29 @@ public class DataCheck {
 
   public static class CheckResult {
     public ArrayList<CheckFailure> failures = new ArrayList<CheckFailure>();
+    // Time taken by each rule, in the order rules were registered:
+    public LinkedHashMap<String, Long> ruleTimes = new LinkedHashMap<String, Long>();
+
+    void addAll(CheckResult other) {
+      failures.addAll(other.failures);
+      ruleTimes.putAll(other.ruleTimes);
+    }
+
+    /**
+     * Failures grouped by the name of the rule that reported them.
+     */
+    public Map<String, List<CheckFailure>> getFailuresByRule() {
+      Map<String, List<CheckFailure>> result = new LinkedHashMap<String, List<CheckFailure>>();
+      for (CheckFailure failure: failures) {
+        List<CheckFailure> ruleFailures = result.get(failure.rule);
+        if (ruleFailures == null) {
+          ruleFailures = new ArrayList<CheckFailure>();
+          result.put(failure.rule, ruleFailures);
+        }
+        ruleFailures.add(failure);
+      }
+      return result;
+    }
   }
 
 }
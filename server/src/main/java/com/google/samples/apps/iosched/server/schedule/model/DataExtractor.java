@@ -21,13 +21,20 @@ import static com.google.samples.apps.iosched.server.schedule.model.DataModelHel
 import static com.google.samples.apps.iosched.server.schedule.model.DataModelHelper.isHashtag;
 import static com.google.samples.apps.iosched.server.schedule.model.DataModelHelper.set;
 
+import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.google.samples.apps.iosched.server.schedule.Config;
+import com.google.samples.apps.iosched.server.schedule.model.validator.Converter;
 import com.google.samples.apps.iosched.server.schedule.model.validator.Converters;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -45,8 +52,83 @@ public class DataExtractor {
   private JsonElement mainCategory;
   private boolean obfuscate;
 
+  private final MappingPlan speakerPlan;
+  private final MappingPlan tagPlan;
+  private final MappingPlan tagConfPlan;
+  private final MappingPlan sessionPlan;
+  private final MappingPlan videoSessionPlan;
+
   public DataExtractor(boolean obfuscate) {
     this.obfuscate = obfuscate;
+    Converter text = obfuscate ? Converters.OBFUSCATE : null;
+
+    speakerPlan = MappingPlan.builder()
+        .copy(InputJsonKeys.VendorAPISource.Speakers.id, OutputJsonKeys.Speakers.id)
+        .copy(InputJsonKeys.VendorAPISource.Speakers.name, OutputJsonKeys.Speakers.name, text)
+        .copy(InputJsonKeys.VendorAPISource.Speakers.bio, OutputJsonKeys.Speakers.bio, text)
+        .copy(InputJsonKeys.VendorAPISource.Speakers.companyname, OutputJsonKeys.Speakers.company, text)
+        // Note that the input for SPEAKER_PHOTO_ID converter is the entity ID. We simply ignore the original
+        // photo URL, because that will be processed by an offline cron script, resizing the
+        // photos and saving them to a known location with the entity ID as its base name.
+        .copyIfNotEmpty(InputJsonKeys.VendorAPISource.Speakers.photo,
+            InputJsonKeys.VendorAPISource.Speakers.id, OutputJsonKeys.Speakers.thumbnailUrl,
+            Converters.SPEAKER_PHOTO_URL)
+        .mapValue(InputJsonKeys.VendorAPISource.Speakers.info,
+            InputJsonKeys.VendorAPISource.Speakers.INFO_PUBLIC_PLUS_ID,
+            OutputJsonKeys.Speakers.plusoneUrl, Converters.GPLUS_URL, null)
+        .mapValue(InputJsonKeys.VendorAPISource.Speakers.info,
+            InputJsonKeys.VendorAPISource.Speakers.INFO_PUBLIC_TWITTER,
+            OutputJsonKeys.Speakers.twitterUrl, Converters.TWITTER_URL, null)
+        .build();
+
+    tagPlan = MappingPlan.builder()
+        .copy(InputJsonKeys.VendorAPISource.Categories.id, OutputJsonKeys.Tags.original_id)
+        .copy(InputJsonKeys.VendorAPISource.Categories.description, OutputJsonKeys.Tags._abstract, text)
+        .build();
+
+    tagConfPlan = MappingPlan.builder()
+        .copy(InputJsonKeys.ExtraSource.TagConf.order_in_category, OutputJsonKeys.Tags.order_in_category)
+        .copy(InputJsonKeys.ExtraSource.TagConf.color, OutputJsonKeys.Tags.color)
+        .copy(InputJsonKeys.ExtraSource.TagConf.hashtag, OutputJsonKeys.Tags.hashtag)
+        .build();
+
+    sessionPlan = MappingPlan.builder()
+        .copy(InputJsonKeys.VendorAPISource.Topics.id, OutputJsonKeys.Sessions.url, Converters.SESSION_URL)
+        .copy(InputJsonKeys.VendorAPISource.Topics.title, OutputJsonKeys.Sessions.title, text)
+        .copy(InputJsonKeys.VendorAPISource.Topics.description, OutputJsonKeys.Sessions.description, text)
+        .copy(InputJsonKeys.VendorAPISource.Topics.start, OutputJsonKeys.Sessions.startTimestamp, Converters.DATETIME)
+        .copy(InputJsonKeys.VendorAPISource.Topics.finish, OutputJsonKeys.Sessions.endTimestamp, Converters.DATETIME)
+        // Extract "Featured Session" flag from EventPoint "info" block.
+        .mapValue(InputJsonKeys.VendorAPISource.Topics.info,
+            InputJsonKeys.VendorAPISource.Topics.INFO_FEATURED_SESSION,
+            OutputJsonKeys.Sessions.isFeatured, Converters.BOOLEAN, "false")
+        // Note that the input for SessionPhotoURL is the entity ID. We simply ignore the original
+        // photo URL, because that will be processed by an offline cron script, resizing the
+        // photos and saving them to a known location with the entity ID as its base name.
+        .copyIfNotEmpty(InputJsonKeys.VendorAPISource.Topics.documents,
+            InputJsonKeys.VendorAPISource.Topics.id, OutputJsonKeys.Sessions.photoUrl,
+            Converters.SESSION_PHOTO_URL)
+        .build();
+
+    videoSessionPlan = MappingPlan.builder()
+        .copy(InputJsonKeys.VendorAPISource.Topics.title, OutputJsonKeys.VideoLibrary.title, text)
+        .copy(InputJsonKeys.VendorAPISource.Topics.description, OutputJsonKeys.VideoLibrary.desc, text)
+        .constant(new JsonPrimitive(Config.CONFERENCE_YEAR), OutputJsonKeys.VideoLibrary.year)
+        .build();
+  }
+
+  /**
+   * Creates an extractor with the same configuration as another one, sharing its mapping plans.
+   * Extractors keep the state of the current extraction, so concurrent extractions need an
+   * instance each.
+   */
+  public DataExtractor(DataExtractor config) {
+    this.obfuscate = config.obfuscate;
+    speakerPlan = config.speakerPlan;
+    tagPlan = config.tagPlan;
+    tagConfPlan = config.tagConfPlan;
+    sessionPlan = config.sessionPlan;
+    videoSessionPlan = config.videoSessionPlan;
   }
 
   public JsonObject extractFromDataSources(JsonDataSources sources) {
@@ -87,6 +169,126 @@ public class DataExtractor {
     return result;
   }
 
+  /**
+   * Streaming version of {@link #extractFromDataSources(JsonDataSources)}. Vendor topics are
+   * read one entity at a time from {@code vendorStreams}, so the input topics are never fully
+   * held in memory. Only the reference data (rooms, tags and speakers), the video library and
+   * the serialized sessions are.
+   *
+   * <p>The output is byte for byte the same as serializing the result of
+   * {@link #extractFromDataSources(JsonDataSources)} with {@code new Gson().toJson(result,
+   * writer)}, provided that topic ids are unique, as they are in the Vendor API. In particular,
+   * entities are written in the same order, the order of a {@link JsonDataSource}.
+   *
+   * @param extraSources Sources for the extra (non-vendor) input, like the tags configuration.
+   * @param vendorStreams Streams for the Vendor API entity types. The document is opened once
+   *     per entity type and twice for topics, and {@link JsonEntityStreams#checkUnchanged()} is
+   *     called when all of it was read.
+   * @param writer Where the extracted data is written to.
+   */
+  public void extractFromStreams(JsonDataSources extraSources, JsonEntityStreams vendorStreams,
+      JsonWriter writer) throws IOException {
+    usedTags = new HashSet<String>();
+    usedSpeakers = new HashSet<String>();
+    Gson gson = new Gson();
+    // Same settings used by Gson when writing a whole tree, so that the output is identical:
+    boolean oldHtmlSafe = writer.isHtmlSafe();
+    writer.setHtmlSafe(true);
+
+    // Rooms, categories and speakers are small, so they are loaded as regular data sources:
+    JsonDataSources sources = new JsonDataSources();
+    sources.putAll(extraSources);
+    sources.addSource(vendorStreams.readDataSource(InputJsonKeys.VendorAPISource.MainTypes.rooms));
+    sources.addSource(vendorStreams.readDataSource(InputJsonKeys.VendorAPISource.MainTypes.categories));
+    sources.addSource(vendorStreams.readDataSource(InputJsonKeys.VendorAPISource.MainTypes.speakers));
+
+    writer.beginObject();
+    writer.name(OutputJsonKeys.MainTypes.rooms.name());
+    gson.toJson(extractRooms(sources), writer);
+
+    JsonArray speakers = extractSpeakers(sources);
+    JsonArray tags = extractTags(sources);
+
+    // A JsonDataSource iterates in the order of a HashMap of its ids, which only depends on the
+    // ids and the order they were added in. Maps of the topic ids to the extracted entities,
+    // filled in the same order, are then iterated in the same order as the topics data source.
+    videoSessionsById = new HashMap<String, JsonObject>();
+    HashMap<String, JsonObject> videoSessions = new HashMap<String, JsonObject>();
+    JsonReader reader = vendorStreams.openEntities(InputJsonKeys.VendorAPISource.MainTypes.topics);
+    if (reader != null) {
+      try {
+        for (JsonObject origin: JsonEntityStreams.iterate(reader)) {
+          String id = get(origin, InputJsonKeys.VendorAPISource.Topics.id).getAsString();
+          if (videoSessions.containsKey(id)) {
+            throw new JsonParseException("Duplicate topic id "+id+". Streaming extraction "
+                + "requires unique ids, use extractFromDataSources instead.");
+          }
+          videoSessions.put(id, extractVideoSession(origin));
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    writer.name(OutputJsonKeys.MainTypes.video_library.name());
+    writer.beginArray();
+    for (JsonObject videoSession: videoSessions.values()) {
+      if (videoSession != null) {
+        gson.toJson(videoSession, writer);
+      }
+    }
+    writer.endArray();
+
+    // Sessions are kept serialized until they can be written in order, which takes a fraction
+    // of the memory of their trees:
+    HashMap<String, String> sessions = new HashMap<String, String>();
+    videoSessions = null;
+    reader = vendorStreams.openEntities(InputJsonKeys.VendorAPISource.MainTypes.topics);
+    if (reader != null) {
+      try {
+        for (JsonObject origin: JsonEntityStreams.iterate(reader)) {
+          String id = get(origin, InputJsonKeys.VendorAPISource.Topics.id).getAsString();
+          JsonObject dest = extractSession(origin);
+          sessions.put(id, dest == null ? null : gson.toJson(dest));
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    vendorStreams.checkUnchanged();
+    writer.name(OutputJsonKeys.MainTypes.sessions.name());
+    writer.beginArray();
+    JsonParser parser = new JsonParser();
+    for (String session: sessions.values()) {
+      if (session != null) {
+        // Gson writes a parsed document exactly as it was serialized:
+        gson.toJson(parser.parse(session), writer);
+      }
+    }
+    writer.endArray();
+
+    // Only speakers and tags used on any session are written, as in extractFromDataSources:
+    writer.name(OutputJsonKeys.MainTypes.speakers.name());
+    writer.beginArray();
+    for (JsonElement speaker: speakers) {
+      if (usedSpeakers.contains(get(speaker.getAsJsonObject(), OutputJsonKeys.Speakers.id).getAsString())) {
+        gson.toJson(speaker, writer);
+      }
+    }
+    writer.endArray();
+
+    writer.name(OutputJsonKeys.MainTypes.tags.name());
+    writer.beginArray();
+    for (JsonElement tag: tags) {
+      if (usedTags.contains(get(tag.getAsJsonObject(), OutputJsonKeys.Tags.tag).getAsString())) {
+        gson.toJson(tag, writer);
+      }
+    }
+    writer.endArray();
+    writer.endObject();
+    writer.flush();
+    writer.setHtmlSafe(oldHtmlSafe);
+  }
+
   public JsonArray extractRooms(JsonDataSources sources) {
     HashSet<String> ids = new HashSet<String>();
     JsonArray result = new JsonArray();
@@ -165,15 +367,12 @@ public class DataExtractor {
 
           set(tagName, dest, OutputJsonKeys.Tags.tag);
           set(name, dest, OutputJsonKeys.Tags.name);
-          set(origin, InputJsonKeys.VendorAPISource.Categories.id, dest, OutputJsonKeys.Tags.original_id);
-          set(origin, InputJsonKeys.VendorAPISource.Categories.description, dest, OutputJsonKeys.Tags._abstract, obfuscate ? Converters.OBFUSCATE : null);
+          tagPlan.apply(origin, dest);
 
           if (tagsConfSource != null) {
             JsonObject tagConf = tagsConfSource.getElementById(originalTagName.getAsString());
             if (tagConf != null) {
-              set(tagConf, InputJsonKeys.ExtraSource.TagConf.order_in_category, dest, OutputJsonKeys.Tags.order_in_category);
-              set(tagConf, InputJsonKeys.ExtraSource.TagConf.color, dest, OutputJsonKeys.Tags.color);
-              set(tagConf, InputJsonKeys.ExtraSource.TagConf.hashtag, dest, OutputJsonKeys.Tags.hashtag);
+              tagConfPlan.apply(tagConf, dest);
             }
           }
 
@@ -196,35 +395,20 @@ public class DataExtractor {
     JsonDataSource source = sources.getSource(InputJsonKeys.VendorAPISource.MainTypes.speakers.name());
     if (source != null) {
       for (JsonObject origin: source) {
-        JsonObject dest = new JsonObject();
-        JsonElement id = get(origin, InputJsonKeys.VendorAPISource.Speakers.id);
-        set(id, dest, OutputJsonKeys.Speakers.id);
-        set(origin, InputJsonKeys.VendorAPISource.Speakers.name, dest, OutputJsonKeys.Speakers.name, obfuscate?Converters.OBFUSCATE:null);
-        set(origin, InputJsonKeys.VendorAPISource.Speakers.bio, dest, OutputJsonKeys.Speakers.bio, obfuscate?Converters.OBFUSCATE:null);
-        set(origin, InputJsonKeys.VendorAPISource.Speakers.companyname, dest, OutputJsonKeys.Speakers.company, obfuscate?Converters.OBFUSCATE:null);
-        JsonElement originalPhoto = get(origin, InputJsonKeys.VendorAPISource.Speakers.photo);
-        if (originalPhoto != null && !"".equals(originalPhoto.getAsString())) {
-          // Note that the input for SPEAKER_PHOTO_ID converter is the entity ID. We simply ignore the original
-          // photo URL, because that will be processed by an offline cron script, resizing the
-          // photos and saving them to a known location with the entity ID as its base name.
-          set(origin, InputJsonKeys.VendorAPISource.Speakers.id, dest, OutputJsonKeys.Speakers.thumbnailUrl, Converters.SPEAKER_PHOTO_URL);
-        }
-        JsonElement info = origin.get(InputJsonKeys.VendorAPISource.Speakers.info.name());
-        JsonPrimitive plusUrl = getMapValue(info, InputJsonKeys.VendorAPISource.Speakers.INFO_PUBLIC_PLUS_ID, Converters.GPLUS_URL, null);
-        if (plusUrl != null) {
-          set(plusUrl, dest, OutputJsonKeys.Speakers.plusoneUrl);
-        }
-        JsonPrimitive twitter = getMapValue(info, InputJsonKeys.VendorAPISource.Speakers.INFO_PUBLIC_TWITTER, Converters.TWITTER_URL, null);
-        if (twitter != null) {
-          set(twitter, dest, OutputJsonKeys.Speakers.twitterUrl);
-        }
+        JsonObject dest = extractSpeaker(origin);
         result.add(dest);
-        speakersById.put(id.getAsString(), dest);
+        speakersById.put(get(dest, OutputJsonKeys.Speakers.id).getAsString(), dest);
       }
     }
     return result;
   }
 
+  private JsonObject extractSpeaker(JsonObject origin) {
+    JsonObject dest = new JsonObject();
+    speakerPlan.apply(origin, dest);
+    return dest;
+  }
+
   public JsonArray extractSessions(JsonDataSources sources) {
     if (videoSessionsById == null) {
       throw new IllegalStateException("You need to extract video sessions before attempting to extract sessions");
@@ -237,114 +421,112 @@ public class DataExtractor {
     JsonDataSource source = sources.getSource(InputJsonKeys.VendorAPISource.MainTypes.topics.name());
     if (source != null) {
       for (JsonObject origin: source) {
-        if (isVideoSession(origin)) {
-          // Sessions with the Video tag are processed as video library content
-          continue;
-        }
-        if (isHiddenSession(origin)) {
-          // Sessions with a "Hidden from schedule" flag should be ignored
-          continue;
-        }
-        JsonElement title = get(origin, InputJsonKeys.VendorAPISource.Topics.title);
-        // Since the CMS returns an empty keynote as a session, we need to ignore it
-        if (title != null && title.isJsonPrimitive() && "keynote".equalsIgnoreCase(title.getAsString())) {
-          continue;
+        JsonObject dest = extractSession(origin);
+        if (dest != null) {
+          result.add(dest);
         }
-        JsonObject dest = new JsonObject();
+      }
+    }
+    return result;
+  }
 
-        // Some sessions require a special ID, so we replace it here...
-        if (title != null && title.isJsonPrimitive() && "after hours".equalsIgnoreCase(title.getAsString())) {
-          set(new JsonPrimitive("__afterhours__"), dest, OutputJsonKeys.Sessions.id);
-        } else {
-          set(origin, InputJsonKeys.VendorAPISource.Topics.id, dest, OutputJsonKeys.Sessions.id);
-        }
-        set(origin, InputJsonKeys.VendorAPISource.Topics.id, dest, OutputJsonKeys.Sessions.url, Converters.SESSION_URL);
-        set(origin, InputJsonKeys.VendorAPISource.Topics.title, dest, OutputJsonKeys.Sessions.title, obfuscate?Converters.OBFUSCATE:null);
-        set(origin, InputJsonKeys.VendorAPISource.Topics.description, dest, OutputJsonKeys.Sessions.description, obfuscate?Converters.OBFUSCATE:null);
-        set(origin, InputJsonKeys.VendorAPISource.Topics.start, dest, OutputJsonKeys.Sessions.startTimestamp, Converters.DATETIME);
-        set(origin, InputJsonKeys.VendorAPISource.Topics.finish, dest, OutputJsonKeys.Sessions.endTimestamp, Converters.DATETIME);
-        set(new JsonPrimitive(isFeatured(origin)), dest, OutputJsonKeys.Sessions.isFeatured);
-
-        JsonElement documents = get(origin, InputJsonKeys.VendorAPISource.Topics.documents);
-        if (documents != null && documents.isJsonArray() && documents.getAsJsonArray().size()>0) {
-          // Note that the input for SessionPhotoURL is the entity ID. We simply ignore the original
-          // photo URL, because that will be processed by an offline cron script, resizing the
-          // photos and saving them to a known location with the entity ID as its base name.
-          set(origin, InputJsonKeys.VendorAPISource.Topics.id, dest, OutputJsonKeys.Sessions.photoUrl, Converters.SESSION_PHOTO_URL);
-        }
+  /**
+   * Maps a single Vendor topic to an IOSched session, or returns null if the topic should not
+   * be part of the sessions (video sessions, hidden sessions and the empty keynote).
+   */
+  private JsonObject extractSession(JsonObject origin) {
+    if (isVideoSession(origin)) {
+      // Sessions with the Video tag are processed as video library content
+      return null;
+    }
+    if (isHiddenSession(origin)) {
+      // Sessions with a "Hidden from schedule" flag should be ignored
+      return null;
+    }
+    JsonElement title = get(origin, InputJsonKeys.VendorAPISource.Topics.title);
+    // Since the CMS returns an empty keynote as a session, we need to ignore it
+    if (title != null && title.isJsonPrimitive() && "keynote".equalsIgnoreCase(title.getAsString())) {
+      return null;
+    }
+    JsonObject dest = new JsonObject();
 
-        setVideoPropertiesInSession(origin, dest);
-        setRelatedContent(origin, dest);
-
-        JsonElement mainTag = null;
-        JsonElement hashtag = null;
-        JsonElement mainTagColor = null;
-        JsonArray categories= origin.getAsJsonArray(InputJsonKeys.VendorAPISource.Topics.categoryids.name());
-        JsonArray tags = new JsonArray();
-        for (JsonElement category: categories) {
-          JsonObject tag = categoryToTagMap.get(category.getAsString());
-          if (tag != null) {
-            JsonElement tagName = get(tag, OutputJsonKeys.Tags.tag);
-            tags.add(tagName);
-            usedTags.add(tagName.getAsString());
-
-            if (mainTag == null) {
-              // check if the tag is from a "default" category. For example, if THEME is the default
-              // category, all sessions will have a "mainTag" property set to the first tag of type THEME
-              JsonElement tagCategory = get(tag, OutputJsonKeys.Tags.category); // THEME, TYPE or TOPIC
-              if (tagCategory.equals(mainCategory)) {
-                mainTag = tagName;
-                mainTagColor = get(tag, OutputJsonKeys.Tags.color);
-              }
-              if (hashtag == null && isHashtag(tag)) {
-                hashtag = get(tag, OutputJsonKeys.Tags.hashtag);
-                if (hashtag == null || hashtag.getAsString() == null || hashtag.getAsString().isEmpty()) {
-                  // If no hashtag set in the tagsconf file, we will convert the tagname to find one:
-                  hashtag = new JsonPrimitive(get(tag, OutputJsonKeys.Tags.name, Converters.TAG_NAME)
-                          .getAsString().toLowerCase());
-                }
-              }
-            }
+    // Some sessions require a special ID, so we replace it here...
+    if (title != null && title.isJsonPrimitive() && "after hours".equalsIgnoreCase(title.getAsString())) {
+      set(new JsonPrimitive("__afterhours__"), dest, OutputJsonKeys.Sessions.id);
+    } else {
+      set(origin, InputJsonKeys.VendorAPISource.Topics.id, dest, OutputJsonKeys.Sessions.id);
+    }
+    sessionPlan.apply(origin, dest);
+
+    setVideoPropertiesInSession(origin, dest);
+    setRelatedContent(origin, dest);
+
+    JsonElement mainTag = null;
+    JsonElement hashtag = null;
+    JsonElement mainTagColor = null;
+    JsonArray categories= origin.getAsJsonArray(InputJsonKeys.VendorAPISource.Topics.categoryids.name());
+    JsonArray tags = new JsonArray();
+    for (JsonElement category: categories) {
+      JsonObject tag = categoryToTagMap.get(category.getAsString());
+      if (tag != null) {
+        JsonElement tagName = get(tag, OutputJsonKeys.Tags.tag);
+        tags.add(tagName);
+        usedTags.add(tagName.getAsString());
+
+        if (mainTag == null) {
+          // check if the tag is from a "default" category. For example, if THEME is the default
+          // category, all sessions will have a "mainTag" property set to the first tag of type THEME
+          JsonElement tagCategory = get(tag, OutputJsonKeys.Tags.category); // THEME, TYPE or TOPIC
+          if (tagCategory.equals(mainCategory)) {
+            mainTag = tagName;
+            mainTagColor = get(tag, OutputJsonKeys.Tags.color);
           }
-        }
-        set(tags, dest, OutputJsonKeys.Sessions.tags);
-        if (mainTag != null) {
-          set(mainTag, dest, OutputJsonKeys.Sessions.mainTag);
-        }
-        if (mainTagColor != null) {
-          set(mainTagColor, dest, OutputJsonKeys.Sessions.color);
-        }
-        if (hashtag != null) {
-          set(hashtag, dest, OutputJsonKeys.Sessions.hashtag);
-        }
-
-        JsonArray speakers = getAsArray(origin, InputJsonKeys.VendorAPISource.Topics.speakerids);
-        if (speakers != null) for (JsonElement speaker: speakers) {
-            String speakerId = speaker.getAsString();
-            usedSpeakers.add(speakerId);
-        }
-        set(speakers, dest, OutputJsonKeys.Sessions.speakers);
-
-        JsonArray sessions= origin.getAsJsonArray(InputJsonKeys.VendorAPISource.Topics.sessions.name());
-        if (sessions != null && sessions.size()>0) {
-          String roomId = get(sessions.get(0).getAsJsonObject(), InputJsonKeys.VendorAPISource.Sessions.roomid).getAsString();
-          roomId = Config.ROOM_MAPPING.getRoomId(roomId);
-          set(new JsonPrimitive(roomId), dest, OutputJsonKeys.Sessions.room);
-
-          // captions URL is set based on the session room, so keep it here.
-          String captionsURL = Config.ROOM_MAPPING.getCaptions(roomId);
-          if (captionsURL != null) {
-            set(new JsonPrimitive(captionsURL), dest, OutputJsonKeys.Sessions.captionsUrl);
+          if (hashtag == null && isHashtag(tag)) {
+            hashtag = get(tag, OutputJsonKeys.Tags.hashtag);
+            if (hashtag == null || hashtag.getAsString() == null || hashtag.getAsString().isEmpty()) {
+              // If no hashtag set in the tagsconf file, we will convert the tagname to find one:
+              hashtag = new JsonPrimitive(get(tag, OutputJsonKeys.Tags.name, Converters.TAG_NAME)
+                      .getAsString().toLowerCase());
+            }
           }
         }
+      }
+    }
+    set(tags, dest, OutputJsonKeys.Sessions.tags);
+    if (mainTag != null) {
+      set(mainTag, dest, OutputJsonKeys.Sessions.mainTag);
+    }
+    if (mainTagColor != null) {
+      set(mainTagColor, dest, OutputJsonKeys.Sessions.color);
+    }
+    if (hashtag != null) {
+      set(hashtag, dest, OutputJsonKeys.Sessions.hashtag);
+    }
 
-        if (Config.DEBUG_FIX_DATA) {
-          DebugDataExtractorHelper.changeSession(dest, usedTags);
-        }
-        result.add(dest);
+    JsonArray speakers = getAsArray(origin, InputJsonKeys.VendorAPISource.Topics.speakerids);
+    if (speakers != null) for (JsonElement speaker: speakers) {
+        String speakerId = speaker.getAsString();
+        usedSpeakers.add(speakerId);
+    }
+    set(speakers, dest, OutputJsonKeys.Sessions.speakers);
+
+    JsonArray sessions= origin.getAsJsonArray(InputJsonKeys.VendorAPISource.Topics.sessions.name());
+    if (sessions != null && sessions.size()>0) {
+      String roomId = get(sessions.get(0).getAsJsonObject(), InputJsonKeys.VendorAPISource.Sessions.roomid).getAsString();
+      roomId = Config.ROOM_MAPPING.getRoomId(roomId);
+      set(new JsonPrimitive(roomId), dest, OutputJsonKeys.Sessions.room);
+
+      // captions URL is set based on the session room, so keep it here.
+      String captionsURL = Config.ROOM_MAPPING.getCaptions(roomId);
+      if (captionsURL != null) {
+        set(new JsonPrimitive(captionsURL), dest, OutputJsonKeys.Sessions.captionsUrl);
       }
     }
-    return result;
+
+    if (Config.DEBUG_FIX_DATA) {
+      DebugDataExtractorHelper.changeSession(dest, usedTags);
+    }
+    return dest;
   }
 
   public JsonArray extractVideoSessions(JsonDataSources sources) {
@@ -360,61 +542,69 @@ public class DataExtractor {
     JsonDataSource source = sources.getSource(InputJsonKeys.VendorAPISource.MainTypes.topics.name());
     if (source != null) {
       for (JsonObject origin: source) {
-
-        if (!isVideoSession(origin)) {
-          continue;
-        }
-        if (isHiddenSession(origin)) {
-          // Sessions with a "Hidden from schedule" flag should be ignored
-          continue;
+        JsonObject dest = extractVideoSession(origin);
+        if (dest != null) {
+          result.add(dest);
         }
+      }
+    }
+    return result;
+  }
 
-        JsonObject dest = new JsonObject();
+  /**
+   * Maps a single Vendor topic to an IOSched video library entry, or returns null if the topic
+   * is not a visible video session.
+   */
+  private JsonObject extractVideoSession(JsonObject origin) {
+    if (!isVideoSession(origin)) {
+      return null;
+    }
+    if (isHiddenSession(origin)) {
+      // Sessions with a "Hidden from schedule" flag should be ignored
+      return null;
+    }
 
-        JsonPrimitive vid = setVideoForVideoSession(origin, dest);
-
-        JsonElement id = get(origin, InputJsonKeys.VendorAPISource.Topics.id);
-        // video library id must be the Youtube video id
-        set(vid, dest, OutputJsonKeys.VideoLibrary.id);
-        set(origin, InputJsonKeys.VendorAPISource.Topics.title, dest, OutputJsonKeys.VideoLibrary.title, obfuscate?Converters.OBFUSCATE:null);
-        set(origin, InputJsonKeys.VendorAPISource.Topics.description, dest, OutputJsonKeys.VideoLibrary.desc, obfuscate?Converters.OBFUSCATE:null);
-        set(new JsonPrimitive(Config.CONFERENCE_YEAR), dest, OutputJsonKeys.VideoLibrary.year);
-
-
-        JsonElement videoTopic = null;
-        JsonArray categories= origin.getAsJsonArray(InputJsonKeys.VendorAPISource.Topics.categoryids.name());
-        for (JsonElement category: categories) {
-          JsonObject tag = categoryToTagMap.get(category.getAsString());
-          if (tag != null) {
-            if (isHashtag(tag)) {
-              videoTopic = get(tag, OutputJsonKeys.Tags.name);
-              // by definition, the first tag that can be a hashtag (usually a TOPIC) is considered the video tag
-              break;
-            }
-          }
-        }
-        if (videoTopic != null) {
-          set(videoTopic, dest, OutputJsonKeys.VideoLibrary.topic);
-        }
+    JsonObject dest = new JsonObject();
 
-        // Concatenate speakers:
-        JsonArray speakers = getAsArray(origin, InputJsonKeys.VendorAPISource.Topics.speakerids);
-        StringBuilder sb = new StringBuilder();
-        if (speakers != null) for (int i=0; i<speakers.size(); i++) {
-          String speakerId = speakers.get(i).getAsString();
-          usedSpeakers.add(speakerId);
-          JsonObject speaker = speakersById.get(speakerId);
-          if (speaker != null) {
-            sb.append(get(speaker, OutputJsonKeys.Speakers.name).getAsString());
-            if (i<speakers.size()-1) sb.append(", ");
-          }
+    JsonPrimitive vid = setVideoForVideoSession(origin, dest);
+
+    JsonElement id = get(origin, InputJsonKeys.VendorAPISource.Topics.id);
+    // video library id must be the Youtube video id
+    set(vid, dest, OutputJsonKeys.VideoLibrary.id);
+    videoSessionPlan.apply(origin, dest);
+
+
+    JsonElement videoTopic = null;
+    JsonArray categories= origin.getAsJsonArray(InputJsonKeys.VendorAPISource.Topics.categoryids.name());
+    for (JsonElement category: categories) {
+      JsonObject tag = categoryToTagMap.get(category.getAsString());
+      if (tag != null) {
+        if (isHashtag(tag)) {
+          videoTopic = get(tag, OutputJsonKeys.Tags.name);
+          // by definition, the first tag that can be a hashtag (usually a TOPIC) is considered the video tag
+          break;
         }
-        set(new JsonPrimitive(sb.toString()), dest, OutputJsonKeys.VideoLibrary.speakers);
-        videoSessionsById.put(id.getAsString(), dest);
-        result.add(dest);
       }
     }
-    return result;
+    if (videoTopic != null) {
+      set(videoTopic, dest, OutputJsonKeys.VideoLibrary.topic);
+    }
+
+    // Concatenate speakers:
+    JsonArray speakers = getAsArray(origin, InputJsonKeys.VendorAPISource.Topics.speakerids);
+    StringBuilder sb = new StringBuilder();
+    if (speakers != null) for (int i=0; i<speakers.size(); i++) {
+      String speakerId = speakers.get(i).getAsString();
+      usedSpeakers.add(speakerId);
+      JsonObject speaker = speakersById.get(speakerId);
+      if (speaker != null) {
+        sb.append(get(speaker, OutputJsonKeys.Speakers.name).getAsString());
+        if (i<speakers.size()-1) sb.append(", ");
+      }
+    }
+    set(new JsonPrimitive(sb.toString()), dest, OutputJsonKeys.VideoLibrary.speakers);
+    videoSessionsById.put(id.getAsString(), dest);
+    return dest;
   }
 
   private boolean isVideoSession(JsonObject sessionObj) {
@@ -438,10 +628,18 @@ public class DataExtractor {
     return false;
   }
 
+  /**
+   * @return whether the conference is over. The extracted data depends on it, because sessions
+   * are never livestreamed after the end of the conference.
+   */
+  public static boolean isAfterConference() {
+    long endOfConference = Config.CONFERENCE_DAYS[Config.CONFERENCE_DAYS.length-1][1];
+    return System.currentTimeMillis() > endOfConference;
+  }
+
   private boolean isLivestreamed(JsonObject sessionObj) {
     // data generated after the end of the conference should never have livestream URLs
-    long endOfConference = Config.CONFERENCE_DAYS[Config.CONFERENCE_DAYS.length-1][1];
-    if (System.currentTimeMillis() > endOfConference ) {
+    if (isAfterConference()) {
       return false;
     }
     JsonPrimitive livestream = getMapValue(
@@ -451,23 +649,6 @@ public class DataExtractor {
     return livestream != null && "true".equalsIgnoreCase(livestream.getAsString());
   }
 
-  /** Check whether a session is featured or not.
-   *
-   * @param sessionObj Session to check
-   * @return True if featured, false otherwise.
-   */
-  private boolean isFeatured(JsonObject sessionObj) {
-    // Extract "Featured Session" flag from EventPoint "info" block.
-    JsonPrimitive featured = getMapValue(
-            get(sessionObj, InputJsonKeys.VendorAPISource.Topics.info),
-            InputJsonKeys.VendorAPISource.Topics.INFO_FEATURED_SESSION,
-            Converters.BOOLEAN, null);
-    if (featured != null && featured.isBoolean() && featured.getAsBoolean()) {
-      return true;
-    }
-    return false;
-  }
-
   private void setVideoPropertiesInSession(JsonObject origin, JsonObject dest) {
     boolean isLivestream = isLivestreamed(origin);
     set(new JsonPrimitive(isLivestream), dest, OutputJsonKeys.Sessions.isLivestream);
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.model;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map.Entry;
+
+/**
+ * Calculates per-entity content hashes of the extracted data and the delta (added, changed and
+ * removed entities) between two versions of it, so that clients can update their data without
+ * downloading the full sessions file.
+ *
+ * <p>Hashes are kept as <code>{"sessions": {"id1": "md5hex", ...}, "tags": {...}}</code>. A
+ * delta looks like <code>{"added": {"sessions": [...]}, "changed": {"sessions": [...]},
+ * "removed": {"sessions": ["id1", ...]}}</code>, where added and changed entities are complete
+ * and only entity types with any modification are present.
+ */
+public class EntityDelta {
+
+  public static final String ADDED = "added";
+  public static final String CHANGED = "changed";
+  public static final String REMOVED = "removed";
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  /**
+   * Returns the property that identifies entities of the given type, or null if entities of
+   * that type cannot be tracked individually.
+   */
+  public static String getKeyProperty(String entityType) {
+    if (OutputJsonKeys.MainTypes.tags.name().equals(entityType)) {
+      return OutputJsonKeys.Tags.tag.name();
+    }
+    if (OutputJsonKeys.MainTypes.rooms.name().equals(entityType)
+        || OutputJsonKeys.MainTypes.speakers.name().equals(entityType)
+        || OutputJsonKeys.MainTypes.sessions.name().equals(entityType)
+        || OutputJsonKeys.MainTypes.video_library.name().equals(entityType)) {
+      return "id";
+    }
+    return null;
+  }
+
+  /**
+   * Calculates the hash of each entity of the given data.
+   *
+   * @return the hashes, or null if some entity cannot be tracked individually (unknown type,
+   *     missing or duplicate id).
+   */
+  public static JsonObject computeHashes(JsonObject data) {
+    Gson gson = new Gson();
+    MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new InternalError("MD5 MessageDigest is not available");
+    }
+    Charset utf8 = Charset.forName("UTF-8");
+    JsonObject result = new JsonObject();
+    for (Entry<String, JsonElement> type: data.entrySet()) {
+      String keyProperty = getKeyProperty(type.getKey());
+      if (keyProperty == null || !type.getValue().isJsonArray()) {
+        return null;
+      }
+      JsonObject hashes = new JsonObject();
+      for (JsonElement entity: type.getValue().getAsJsonArray()) {
+        String id = getId(entity, keyProperty);
+        if (id == null || hashes.has(id)) {
+          return null;
+        }
+        byte[] digest = md.digest(gson.toJson(entity).getBytes(utf8));
+        hashes.addProperty(id, toHex(digest));
+      }
+      result.add(type.getKey(), hashes);
+    }
+    return result;
+  }
+
+  /**
+   * Calculates the delta from the data whose hashes are {@code oldHashes} to {@code newData}.
+   *
+   * @param oldHashes Hashes of the previous version, as calculated by
+   *     {@link #computeHashes(JsonObject)}.
+   * @param newHashes Hashes of newData.
+   * @param newData The new version.
+   */
+  public static JsonObject computeDelta(JsonObject oldHashes, JsonObject newHashes,
+      JsonObject newData) {
+    JsonObject added = new JsonObject();
+    JsonObject changed = new JsonObject();
+    JsonObject removed = new JsonObject();
+    for (Entry<String, JsonElement> type: newData.entrySet()) {
+      String keyProperty = getKeyProperty(type.getKey());
+      JsonObject typeNewHashes = newHashes.getAsJsonObject(type.getKey());
+      JsonObject typeOldHashes = oldHashes.has(type.getKey())
+          ? oldHashes.getAsJsonObject(type.getKey()) : new JsonObject();
+      JsonArray typeAdded = new JsonArray();
+      JsonArray typeChanged = new JsonArray();
+      for (JsonElement entity: type.getValue().getAsJsonArray()) {
+        String id = getId(entity, keyProperty);
+        JsonElement oldHash = typeOldHashes.get(id);
+        if (oldHash == null) {
+          typeAdded.add(entity);
+        } else if (!oldHash.equals(typeNewHashes.get(id))) {
+          typeChanged.add(entity);
+        }
+      }
+      addIfNotEmpty(added, type.getKey(), typeAdded);
+      addIfNotEmpty(changed, type.getKey(), typeChanged);
+    }
+    for (Entry<String, JsonElement> type: oldHashes.entrySet()) {
+      JsonObject typeNewHashes = newHashes.getAsJsonObject(type.getKey());
+      JsonArray typeRemoved = new JsonArray();
+      for (Entry<String, JsonElement> entity: type.getValue().getAsJsonObject().entrySet()) {
+        if (typeNewHashes == null || !typeNewHashes.has(entity.getKey())) {
+          typeRemoved.add(new JsonPrimitive(entity.getKey()));
+        }
+      }
+      addIfNotEmpty(removed, type.getKey(), typeRemoved);
+    }
+    JsonObject delta = new JsonObject();
+    delta.add(ADDED, added);
+    delta.add(CHANGED, changed);
+    delta.add(REMOVED, removed);
+    return delta;
+  }
+
+  private static String getId(JsonElement entity, String keyProperty) {
+    if (!entity.isJsonObject()) {
+      return null;
+    }
+    JsonElement id = entity.getAsJsonObject().get(keyProperty);
+    return (id == null || !id.isJsonPrimitive()) ? null : id.getAsString();
+  }
+
+  private static void addIfNotEmpty(JsonObject target, String type, JsonArray values) {
+    if (values.size() > 0) {
+      target.add(type, values);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    char[] result = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      result[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+      result[i * 2 + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(result);
+  }
+}
@@ -72,7 +72,7 @@ public class InputJsonKeys {
 
 
   static public class ExtraSource {
-    static public enum MainTypes {
+    static public enum MainTypes implements KeyedType {
       tag_category_mapping(CategoryTagMapping.category_id.name()),
       tag_conf(TagConf.tag.name());
 
@@ -83,6 +83,7 @@ public class InputJsonKeys {
       private MainTypes(String key) {
         this.key = key;
       }
+      @Override
       public String getKey() {
         return key;
       }
@@ -18,10 +18,15 @@ package com.google.samples.apps.iosched.server.schedule.model;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
 
 import java.lang.reflect.Method;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * A generic holder for JSON data.
@@ -32,8 +37,17 @@ public class JsonDataSource implements Comparable<JsonDataSource>, Iterable<Json
   private HashMap<String, JsonObject> data;
 
   public JsonDataSource(Enum<?> sourceType) {
+    this(sourceType, new HashMap<String, JsonObject>());
+  }
+
+  /**
+   * For subclasses that store the entities themselves, which pass a null map and override all
+   * the methods that use it: {@link #getElementById(String)}, {@link #iterator()},
+   * {@link #size()}, {@link #addElement(String, JsonObject)} and {@link #getEstimatedSize()}.
+   */
+  protected JsonDataSource(Enum<?> sourceType, HashMap<String, JsonObject> data) {
     this.sourceType = sourceType;
-    this.data = new HashMap<String, JsonObject>();
+    this.data = data;
   }
 
   public JsonDataSource(Enum<?> sourceType, JsonArray arr) {
@@ -92,6 +106,9 @@ public class JsonDataSource implements Comparable<JsonDataSource>, Iterable<Json
   private String getKeyProperty(JsonObject obj) {
     JsonElement idEl = obj.get("id");
     if (idEl == null) {
+      if (sourceType instanceof KeyedType) {
+        return ((KeyedType) sourceType).getKey();
+      }
       // reflection is not efficient in general, but the overhead should be insignificant
       // compared to the usual times taken to load a datasource (either from HTTP, disk or
       // cloud storage)
@@ -121,4 +138,61 @@ public class JsonDataSource implements Comparable<JsonDataSource>, Iterable<Json
       addElement(id, obj);
     }
   }
+
+  /**
+   * Estimates the heap retained by this source, in bytes, assuming a 64-bit JVM with
+   * compressed references. Only meant to compare sources and implementations.
+   */
+  public long getEstimatedSize() {
+    Set<Object> counted = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    // the map, its table and one entry per element:
+    long size = 56 + 4 * Integer.highestOneBit(Math.max(1, data.size()) * 2) + 32 * data.size();
+    for (Map.Entry<String, JsonObject> entry: data.entrySet()) {
+      size += estimateSize(entry.getKey(), counted) + estimateSize(entry.getValue(), counted);
+    }
+    return size;
+  }
+
+  /**
+   * Estimates the size of a string, or zero if it was already counted.
+   */
+  static long estimateSize(String value, Set<Object> counted) {
+    if (value == null || !counted.add(value)) {
+      return 0;
+    }
+    return 40 + 2 * value.length();
+  }
+
+  /**
+   * Estimates the size of a Gson tree, without the parts that were already counted.
+   */
+  static long estimateSize(JsonElement element, Set<Object> counted) {
+    if (element == null || element.isJsonNull() || !counted.add(element)) {
+      return 0;
+    }
+    if (element.isJsonPrimitive()) {
+      JsonPrimitive primitive = element.getAsJsonPrimitive();
+      if (primitive.isString()) {
+        return 16 + estimateSize(primitive.getAsString(), counted);
+      }
+      if (primitive.isNumber()) {
+        // Numbers read by Gson keep their text:
+        return 32 + estimateSize(primitive.getAsString(), counted);
+      }
+      return 16;
+    }
+    if (element.isJsonArray()) {
+      JsonArray array = element.getAsJsonArray();
+      long size = 56 + 4 * array.size();
+      for (JsonElement child: array) {
+        size += estimateSize(child, counted);
+      }
+      return size;
+    }
+    long size = 64;
+    for (Map.Entry<String, JsonElement> entry: element.getAsJsonObject().entrySet()) {
+      size += 40 + estimateSize(entry.getKey(), counted) + estimateSize(entry.getValue(), counted);
+    }
+    return size;
+  }
 }
@@ -17,6 +17,8 @@ package com.google.samples.apps.iosched.server.schedule.model;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * An encapsulation of a JsonDataSource collection.
@@ -53,6 +55,18 @@ public class JsonDataSources implements Iterable<String> {
     this.sources.putAll(dataSources.sources);
   }
 
+  /**
+   * @return the estimated heap size of each source, in bytes, keyed by source name.
+   * @see JsonDataSource#getEstimatedSize()
+   */
+  public Map<String, Long> getEstimatedSizes() {
+    TreeMap<String, Long> sizes = new TreeMap<String, Long>();
+    for (Map.Entry<String, JsonDataSource> entry: sources.entrySet()) {
+      sizes.put(entry.getKey(), entry.getValue().getEstimatedSize());
+    }
+    return sizes;
+  }
+
   @Override
   public Iterator<String> iterator() {
     return sources.keySet().iterator();
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.model;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Streaming access to the entity arrays of a JSON document shaped like
+ * <code>{"rooms": [...], "speakers": [...], "topics": [...]}</code>, so that large entity types
+ * can be processed one element at a time instead of loading the whole document in memory.
+ */
+public abstract class JsonEntityStreams {
+
+  /**
+   * Opens a new reader over the whole JSON document. Called once per
+   * {@link #openEntities(Enum)}, so implementations must be able to read the document more than
+   * once.
+   *
+   * @return the reader, or null if the document does not exist.
+   */
+  protected abstract Reader openReader() throws IOException;
+
+  /**
+   * Checks that the document did not change since it was first opened, so that entities read
+   * from separate openings are consistent. Called once all the entities needed were read.
+   * Documents that can't change don't need to check anything.
+   *
+   * @throws IOException if the document changed.
+   */
+  public void checkUnchanged() throws IOException {
+  }
+
+  /**
+   * Opens the document and positions the returned reader right before the array of entities of
+   * the given type. Callers must close the returned reader.
+   *
+   * @return the reader, or null if the document or the entity type do not exist.
+   */
+  public JsonReader openEntities(Enum<?> entityType) throws IOException {
+    Reader in = openReader();
+    if (in == null) {
+      return null;
+    }
+    JsonReader reader = new JsonReader(in);
+    boolean found = false;
+    try {
+      reader.beginObject();
+      while (reader.hasNext()) {
+        if (entityType.name().equals(reader.nextName())) {
+          if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            throw new JsonParseException("Entity type "+entityType.name()+" is not an array");
+          }
+          found = true;
+          return reader;
+        }
+        reader.skipValue();
+      }
+      return null;
+    } finally {
+      if (!found) {
+        reader.close();
+      }
+    }
+  }
+
+  /**
+   * Reads all entities of the given type as a regular {@link JsonDataSource}. Only meant for
+   * small entity types.
+   */
+  public JsonDataSource readDataSource(Enum<?> entityType) throws IOException {
+    JsonDataSource source = new JsonDataSource(entityType);
+    JsonReader reader = openEntities(entityType);
+    if (reader != null) {
+      try {
+        JsonArray arr = new JsonArray();
+        for (JsonObject obj: iterate(reader)) {
+          arr.add(obj);
+        }
+        source.addAll(arr);
+      } finally {
+        reader.close();
+      }
+    }
+    return source;
+  }
+
+  /**
+   * Iterates over the entities of an array, parsing one at a time. The reader must be
+   * positioned right before the array, as returned by {@link #openEntities(Enum)}. Read errors
+   * are thrown as {@link JsonIOException}.
+   */
+  public static Iterable<JsonObject> iterate(final JsonReader reader) {
+    return new Iterable<JsonObject>() {
+      @Override
+      public Iterator<JsonObject> iterator() {
+        return new Iterator<JsonObject>() {
+          private boolean started = false;
+          private boolean finished = false;
+
+          @Override
+          public boolean hasNext() {
+            if (finished) {
+              return false;
+            }
+            try {
+              if (!started) {
+                reader.beginArray();
+                started = true;
+              }
+              if (reader.hasNext()) {
+                return true;
+              }
+              reader.endArray();
+              finished = true;
+              return false;
+            } catch (IOException e) {
+              throw new JsonIOException(e);
+            }
+          }
+
+          @Override
+          public JsonObject next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            return new JsonParser().parse(reader).getAsJsonObject();
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.model;
+
+import static com.google.samples.apps.iosched.server.schedule.model.DataModelHelper.getMapValue;
+import static com.google.samples.apps.iosched.server.schedule.model.DataModelHelper.maybeFixPropertyName;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.samples.apps.iosched.server.schedule.model.validator.Converter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes how the properties of an input entity are copied to an output entity, as a list of
+ * (input property, output property, converter) steps.
+ *
+ * <p>A plan is declared once with a {@link Builder}, which resolves the property names of the
+ * enum keys. {@link #apply(JsonObject, JsonObject)} then runs the steps over each entity in
+ * order, so output properties keep the order in which they were declared. As with
+ * {@link DataModelHelper#set(JsonElement, JsonObject, Enum)}, null values are not set.
+ */
+public class MappingPlan {
+
+  private static final int COPY = 0;
+  private static final int COPY_IF_NOT_EMPTY = 1;
+  private static final int MAP_VALUE = 2;
+  private static final int CONSTANT = 3;
+
+  private static class Step {
+    final int kind;
+    final String input;
+    final String output;
+    final Converter converter;
+    /** Input property that must not be empty, or key in the input map. */
+    final String extra;
+    /** Constant value, or converted default value of the input map. */
+    final JsonElement value;
+
+    Step(int kind, String input, String output, Converter converter, String extra,
+        JsonElement value) {
+      this.kind = kind;
+      this.input = input;
+      this.output = output;
+      this.converter = converter;
+      this.extra = extra;
+      this.value = value;
+    }
+  }
+
+  private final Step[] steps;
+
+  private MappingPlan(List<Step> steps) {
+    this.steps = steps.toArray(new Step[steps.size()]);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public void apply(JsonObject origin, JsonObject dest) {
+    for (Step step: steps) {
+      if (step.kind == COPY_IF_NOT_EMPTY && !isNotEmpty(origin.get(step.extra))) {
+        continue;
+      }
+      JsonElement value;
+      switch (step.kind) {
+        case COPY:
+        case COPY_IF_NOT_EMPTY:
+          value = origin.get(step.input);
+          if (step.converter != null) {
+            value = step.converter.convert(value);
+          }
+          break;
+        case MAP_VALUE:
+          value = getMapValue(origin.get(step.input), step.extra, step.converter, null);
+          if (value == null) {
+            value = step.value;
+          }
+          break;
+        default:
+          value = step.value;
+      }
+      if (value != null) {
+        dest.add(step.output, value);
+      }
+    }
+  }
+
+  /**
+   * @return the output property names, in the order they are set.
+   */
+  public List<String> getOutputs() {
+    List<String> outputs = new ArrayList<String>(steps.length);
+    for (Step step: steps) {
+      outputs.add(step.output);
+    }
+    return outputs;
+  }
+
+  private static boolean isNotEmpty(JsonElement element) {
+    if (element == null) {
+      return false;
+    }
+    if (element.isJsonArray()) {
+      return element.getAsJsonArray().size() > 0;
+    }
+    return element.isJsonPrimitive() && !element.getAsString().isEmpty();
+  }
+
+  public static class Builder {
+    private final List<Step> steps = new ArrayList<Step>();
+
+    public Builder copy(Enum<?> input, Enum<?> output) {
+      return copy(input, output, null);
+    }
+
+    /**
+     * Sets output to the converted value of input. The converter may be null.
+     */
+    public Builder copy(Enum<?> input, Enum<?> output, Converter converter) {
+      steps.add(new Step(COPY, name(input), name(output), converter, null, null));
+      return this;
+    }
+
+    /**
+     * Like {@link #copy(Enum, Enum, Converter)}, but only when the condition property is a
+     * non-empty string or array.
+     */
+    public Builder copyIfNotEmpty(Enum<?> condition, Enum<?> input, Enum<?> output,
+        Converter converter) {
+      steps.add(new Step(COPY_IF_NOT_EMPTY, name(input), name(output), converter,
+          name(condition), null));
+      return this;
+    }
+
+    /**
+     * Sets output to the value named key in the array of name/value pairs of input, see
+     * {@link DataModelHelper#getMapValue(JsonElement, String, Converter, String)}. The default
+     * value, used when there is no such pair, is converted only once.
+     */
+    public Builder mapValue(Enum<?> input, String key, Enum<?> output, Converter converter,
+        String defaultValue) {
+      JsonElement value = null;
+      if (defaultValue != null) {
+        value = new JsonPrimitive(defaultValue);
+        if (converter != null) {
+          value = converter.convert(value);
+        }
+      }
+      steps.add(new Step(MAP_VALUE, name(input), name(output), converter, key, value));
+      return this;
+    }
+
+    public Builder constant(JsonElement value, Enum<?> output) {
+      steps.add(new Step(CONSTANT, null, name(output), null, null, value));
+      return this;
+    }
+
+    public MappingPlan build() {
+      return new MappingPlan(steps);
+    }
+
+    private static String name(Enum<?> key) {
+      return maybeFixPropertyName(key.name());
+    }
+  }
+}
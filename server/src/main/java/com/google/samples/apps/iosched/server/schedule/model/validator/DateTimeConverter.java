@@ -19,50 +19,35 @@ import com.google.gson.JsonPrimitive;
 import com.google.samples.apps.iosched.server.schedule.Config;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
 
 
+/**
+ * Normalizes timestamps to yyyy-MM-dd'T'HH:mm:ss'Z', applying {@link Config#TIME_TRAVEL_SHIFT}.
+ * Parsing and formatting go through {@link IsoDateTime}, so the same instance can be used by
+ * several threads.
+ */
 public class DateTimeConverter extends Converter {
-  SimpleDateFormat[] inputFormats = new SimpleDateFormat[] {
-      new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'"),
-      new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss"),
-  };
-  SimpleDateFormat outputFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
   public DateTimeConverter() {
   }
-  @SuppressWarnings("deprecation")
   @Override
   public JsonPrimitive convert(JsonPrimitive value) {
     if (value == null) {
       return null;
     }
-    Date date = null;
-    Exception lastEx = null;
-    for (int i=0; i<inputFormats.length && date==null; i++) {
-      try {
-        date = inputFormats[i].parse(value.getAsString());
-      } catch (NumberFormatException e) {
-        lastEx = e;
-      } catch (ParseException e) {
-        lastEx = e;
-      }
-    }
-
-    if (date == null) {
-      throw new ConverterException(value, this, lastEx.getMessage());
+    long date;
+    try {
+      date = IsoDateTime.parse(value.getAsString());
+    } catch (ParseException e) {
+      throw new ConverterException(value, this, e.getMessage());
     }
 
-    if (date.getYear() < 100) {
+    if (IsoDateTime.year(date) < 2000) {
       // hack to fix invalid dates on temporary data
-      date.setYear(114);
-      date.setMonth(Calendar.JUNE);
-      date.setDate(25);
+      date = IsoDateTime.toEpochMillis(2014, 6, 25) + IsoDateTime.millisOfDay(date);
     }
     if (Config.TIME_TRAVEL_SHIFT != 0) {
-      date=new Date(date.getTime() + Config.TIME_TRAVEL_SHIFT);
+      date += Config.TIME_TRAVEL_SHIFT;
     }
-    return new JsonPrimitive(outputFormat.format(date));
+    return new JsonPrimitive(IsoDateTime.format(date));
   }
 }
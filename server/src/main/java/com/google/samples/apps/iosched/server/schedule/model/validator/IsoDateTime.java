@@ -0,0 +1,219 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.model.validator;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/**
+ * Parses and formats ISO-8601 timestamps like "2015-05-28T16:00:00Z" directly from and to
+ * characters. Parsing returns epoch millis and, for well formed input, allocates nothing and does
+ * not go through Calendar, Date or SimpleDateFormat. All methods are thread safe.
+ *
+ * <p>Parsing accepts what a lenient SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss") in UTC accepts, and
+ * gives the same result: fields may have any number of digits, out-of-range values roll over into
+ * the next field, and whatever follows the seconds is ignored, including 'Z' and zone offsets.
+ * A fraction of second right after the seconds is read as millis.
+ */
+public final class IsoDateTime {
+
+  public static final int FORMATTED_LENGTH = "yyyy-MM-ddTHH:mm:ssZ".length();
+
+  private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+  // Separators before the month, day, hour, minute and second:
+  private static final String SEPARATORS = "--T::";
+  // Longer fields are left to SimpleDateFormat, so that the arithmetic here cannot overflow:
+  private static final int MAX_FIELD_DIGITS = 4;
+
+  // Used for input the fast path does not handle, like spaces or signs before a field:
+  private static final ThreadLocal<SimpleDateFormat> FALLBACK_FORMAT =
+      new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+          SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+          format.setTimeZone(TimeZone.getTimeZone("UTC"));
+          return format;
+        }
+      };
+
+  private IsoDateTime() {
+  }
+
+  public static long parse(CharSequence text) throws ParseException {
+    return parse(text, 0, text.length());
+  }
+
+  /**
+   * Parses the timestamp between the given offsets of text.
+   *
+   * @return the timestamp, in milliseconds since the epoch.
+   * @throws ParseException if the text is not a valid timestamp.
+   */
+  public static long parse(CharSequence text, int start, int end) throws ParseException {
+    long year = 0, month = 0, day = 0, hour = 0, minute = 0, second = 0;
+    int pos = start;
+    for (int field = 0; field < 6; field++) {
+      if (field > 0) {
+        if (pos >= end || text.charAt(pos) != SEPARATORS.charAt(field - 1)) {
+          return fallbackParse(text, start, end);
+        }
+        pos++;
+      }
+      int fieldStart = pos;
+      long value = 0;
+      while (pos < end && isDigit(text.charAt(pos))) {
+        value = value * 10 + (text.charAt(pos++) - '0');
+      }
+      if (pos == fieldStart || pos - fieldStart > MAX_FIELD_DIGITS) {
+        return fallbackParse(text, start, end);
+      }
+      switch (field) {
+        case 0: year = value; break;
+        case 1: month = value; break;
+        case 2: day = value; break;
+        case 3: hour = value; break;
+        case 4: minute = value; break;
+        default: second = value; break;
+      }
+    }
+
+    long millis = 0;
+    if (pos + 1 < end && text.charAt(pos) == '.' && isDigit(text.charAt(pos + 1))) {
+      pos++;
+      for (int scale = 100; pos < end && isDigit(text.charAt(pos)); pos++, scale /= 10) {
+        millis += (text.charAt(pos) - '0') * scale;
+      }
+    }
+
+    // Like a lenient Calendar, months past December count into the next year and days past the
+    // end of the month into the next month:
+    long yearsFromMonth = floorDiv(month - 1, 12);
+    int normalizedMonth = (int) (month - 1 - yearsFromMonth * 12) + 1;
+    return toEpochMillis((int) (year + yearsFromMonth), normalizedMonth, 1)
+        + (day - 1) * MILLIS_PER_DAY + ((hour * 60 + minute) * 60 + second) * 1000L + millis;
+  }
+
+  /**
+   * @return the timestamp formatted as yyyy-MM-dd'T'HH:mm:ss'Z' in UTC, dropping millis.
+   */
+  public static String format(long millis) {
+    char[] buffer = new char[FORMATTED_LENGTH];
+    formatTo(millis, buffer, 0);
+    return new String(buffer);
+  }
+
+  /**
+   * Writes {@link #FORMATTED_LENGTH} characters of {@link #format(long)} into buffer.
+   *
+   * @return the offset right after the written characters.
+   */
+  public static int formatTo(long millis, char[] buffer, int offset) {
+    long epochDay = floorDiv(millis, MILLIS_PER_DAY);
+    int secondOfDay = (int) ((millis - epochDay * MILLIS_PER_DAY) / 1000);
+    long date = civilFromDays(epochDay);
+    int year = (int) (date / 10000);
+    if (year < 0 || year > 9999) {
+      throw new IllegalArgumentException("Year out of range: " + year);
+    }
+    int pos = offset;
+    pos = putDigits(buffer, pos, year, 4);
+    buffer[pos++] = '-';
+    pos = putDigits(buffer, pos, (int) (date / 100 % 100), 2);
+    buffer[pos++] = '-';
+    pos = putDigits(buffer, pos, (int) (date % 100), 2);
+    buffer[pos++] = 'T';
+    pos = putDigits(buffer, pos, secondOfDay / 3600, 2);
+    buffer[pos++] = ':';
+    pos = putDigits(buffer, pos, secondOfDay / 60 % 60, 2);
+    buffer[pos++] = ':';
+    pos = putDigits(buffer, pos, secondOfDay % 60, 2);
+    buffer[pos++] = 'Z';
+    return pos;
+  }
+
+  /**
+   * @return the UTC year of the timestamp.
+   */
+  public static int year(long millis) {
+    return (int) (civilFromDays(floorDiv(millis, MILLIS_PER_DAY)) / 10000);
+  }
+
+  /**
+   * @return the milliseconds elapsed since the start of the UTC day of the timestamp.
+   */
+  public static long millisOfDay(long millis) {
+    return millis - floorDiv(millis, MILLIS_PER_DAY) * MILLIS_PER_DAY;
+  }
+
+  /**
+   * @param month 1 for January, 12 for December.
+   * @return the start of the given UTC day, in milliseconds since the epoch.
+   */
+  public static long toEpochMillis(int year, int month, int day) {
+    // Days from civil, see http://howardhinnant.github.io/date_algorithms.html
+    long y = month <= 2 ? year - 1 : year;
+    long era = (y >= 0 ? y : y - 399) / 400;
+    long yearOfEra = y - era * 400;
+    long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+    long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return (era * 146097 + dayOfEra - 719468) * MILLIS_PER_DAY;
+  }
+
+  /**
+   * @return the date of the given day since the epoch, as year * 10000 + month * 100 + day.
+   */
+  private static long civilFromDays(long epochDay) {
+    long z = epochDay + 719468;
+    long era = (z >= 0 ? z : z - 146096) / 146097;
+    long dayOfEra = z - era * 146097;
+    long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    long mp = (5 * dayOfYear + 2) / 153;
+    long day = dayOfYear - (153 * mp + 2) / 5 + 1;
+    long month = mp < 10 ? mp + 3 : mp - 9;
+    long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+    return year * 10000 + month * 100 + day;
+  }
+
+  private static long floorDiv(long x, long y) {
+    long q = x / y;
+    return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+  }
+
+  private static boolean isDigit(char ch) {
+    return ch >= '0' && ch <= '9';
+  }
+
+  private static long fallbackParse(CharSequence text, int start, int end)
+      throws ParseException {
+    String value = text.subSequence(start, end).toString();
+    try {
+      return FALLBACK_FORMAT.get().parse(value).getTime();
+    } catch (NumberFormatException e) {
+      throw new ParseException("Unparseable date: \"" + value + "\"", 0);
+    }
+  }
+
+  private static int putDigits(char[] buffer, int pos, int value, int count) {
+    for (int i = pos + count - 1; i >= pos; i--) {
+      buffer[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+    return pos + count;
+  }
+}
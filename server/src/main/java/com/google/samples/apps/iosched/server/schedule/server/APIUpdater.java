@@ -15,11 +15,14 @@
  */
 package com.google.samples.apps.iosched.server.schedule.server;
 
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.ShortBlob;
 import com.google.appengine.api.mail.MailService.Message;
 import com.google.appengine.api.mail.MailServiceFactory;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.appengine.api.utils.SystemProperty;
+import com.google.appengine.tools.cloudstorage.GcsFileMetadata;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
@@ -33,18 +36,27 @@ import com.google.samples.apps.iosched.server.schedule.model.DataCheck;
 import com.google.samples.apps.iosched.server.schedule.model.DataCheck.CheckFailure;
 import com.google.samples.apps.iosched.server.schedule.model.DataCheck.CheckResult;
 import com.google.samples.apps.iosched.server.schedule.model.DataExtractor;
+import com.google.samples.apps.iosched.server.schedule.model.EntityDelta;
 import com.google.samples.apps.iosched.server.schedule.model.JsonDataSources;
 import com.google.samples.apps.iosched.server.schedule.server.cloudstorage.CloudFileManager;
+import com.google.samples.apps.iosched.server.schedule.server.cloudstorage.JsonFileCache;
+import com.google.samples.apps.iosched.server.schedule.server.cloudstorage.SerializedJson;
 import com.google.samples.apps.iosched.server.schedule.server.input.ExtraInput;
 import com.google.samples.apps.iosched.server.schedule.server.input.VendorStaticInput;
+import com.google.samples.apps.iosched.server.schedule.server.input.fetcher.CloudStorageEntityStreams;
 import com.google.samples.apps.iosched.server.schedule.server.input.fetcher.CloudStorageRemoteFilesEntityFetcher;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.io.Writer;
 import java.nio.channels.Channels;
 import java.text.MessageFormat;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -58,6 +70,12 @@ public class APIUpdater {
 
   public void run(boolean force, boolean obfuscate, OutputStream optionalOutput) throws IOException {
 
+    // Anything that changes the extracted data must be part of the input fingerprint:
+    final InputFingerprint fingerprint = new InputFingerprint();
+    fingerprint.add("obfuscate", String.valueOf(obfuscate));
+    fingerprint.add("applicationVersion", SystemProperty.applicationVersion.get());
+    fingerprint.add("afterConference", String.valueOf(DataExtractor.isAfterConference()));
+
     RemoteFilesEntityFetcherFactory.setBuilder(new RemoteFilesEntityFetcherFactory.FetcherBuilder() {
         String[] filenames;
 
@@ -69,37 +87,68 @@ public class APIUpdater {
 
         @Override
         public EntityFetcher build() {
-            return new CloudStorageRemoteFilesEntityFetcher(filenames);
+            return new CloudStorageRemoteFilesEntityFetcher(fingerprint, filenames);
         }
     });
 
     UpdateRunLogger logger = new UpdateRunLogger();
     CloudFileManager fileManager = new CloudFileManager();
+    JsonFileCache fileCache = new JsonFileCache(
+        Config.FILE_CACHE_USE_MEMCACHE ? MemcacheServiceFactory.getMemcacheService() : null);
+    fileManager.setCache(fileCache);
+
+    JsonDataSources sources;
+    ExecutorService fetchExecutor = Executors.newFixedThreadPool(Config.FETCH_MAX_THREADS,
+        ThreadManager.currentRequestThreadFactory());
+    try {
+      logger.startTimer();
+      ExtraInput extraInput = new ExtraInput();
+      sources = extraInput.fetchAllDataSources(fetchExecutor, Config.FETCH_TIMEOUT_MILLIS);
+      logger.stopTimer("fetchExtraAPI");
+      logger.addTimers("fetch_", extraInput.getFetchTimes());
+      logger.addBytes("memory_", sources.getEstimatedSizes());
+    } finally {
+      fetchExecutor.shutdownNow();
+    }
 
     logger.startTimer();
-    JsonDataSources sources = new ExtraInput().fetchAllDataSources();
-    logger.stopTimer("fetchExtraAPI");
-
-    logger.startTimer();
-    sources.putAll(new VendorStaticInput().fetchAllDataSources());
-    logger.stopTimer("fetchVendorStaticAPI");
+    addFileFingerprint(fingerprint, fileManager, VendorStaticInput.RAW_SESSION_DATA_FILE, logger);
+    byte[] inputHash = fingerprint.getHash();
+    logger.addBytes("read_", fingerprint.getSizes());
+    Entity lastRun = logger.getLastRun();
+    if (!force && isUpToDate(inputHash, lastRun, "inputHash")) {
+      logger.logNoopRun();
+      return;
+    }
+    logger.stopTimer("compareInputHash");
 
+    // The Vendor static data is streamed while extracting, and the extracted data is serialized
+    // only once, feeding both the hash and the buffer that is uploaded if the hash changed.
     logger.startTimer();
-    JsonObject newData = new DataExtractor(obfuscate).extractFromDataSources(sources);
+    SerializedJson newData = new SerializedJson(Config.GZIP_DATA_FILES);
+    new DataExtractor(obfuscate).extractFromStreams(sources,
+        new CloudStorageEntityStreams(VendorStaticInput.RAW_SESSION_DATA_FILE),
+        newData.getWriter());
+    newData.close();
+    byte[] newHash = newData.getHash();
     logger.stopTimer("extractOurData");
 
-    logger.startTimer();
-    byte[] newHash = CloudFileManager.calulateHash(newData);
-    logger.stopTimer("calculateHash");
-
     // compare current Vendor API log with the one from previous run:
     logger.startTimer();
-    if (!force && isUpToDate(newHash, logger)) {
+    if (!force && isUpToDate(newHash, lastRun, "hash")) {
+      // The input changed in a way that doesn't affect the extracted data. Remember it, so
+      // that the next run with the same input doesn't need to extract again.
+      logger.updateInputHash(lastRun, inputHash);
       logger.logNoopRun();
       return;
     }
     logger.stopTimer("compareHash");
 
+    // Only runs that changed the data need it as a tree, for checking and logging:
+    logger.startTimer();
+    JsonObject newDataTree = newData.parse().getAsJsonObject();
+    logger.stopTimer("parseOurData");
+
     logger.startTimer();
     ManifestData dataProduction = extractManifestData(fileManager.readProductionManifest(), null);
     //ManifestData dataStaging = extractManifestData(fileManager.readStagingManifest(), dataProduction);
@@ -115,18 +164,39 @@ public class APIUpdater {
       Writer writer = Channels.newWriter(Channels.newChannel(optionalOutput), "UTF-8");
       optionalOutputWriter = new JsonWriter(writer);
       optionalOutputWriter.setIndent("  ");
-      new Gson().toJson(newData, optionalOutputWriter);
+      new Gson().toJson(newDataTree, optionalOutputWriter);
       optionalOutputWriter.flush();
     } else {
       // save data to the CloudStorage
-      fileManager.createOrUpdate(dataProduction.sessionsFilename, newData, false);
+      if (Config.IMMUTABLE_FILES) {
+        dataProduction.setSessionsFilename(
+            fileManager.createImmutable(dataProduction.sessionsFilename, newData));
+      } else {
+        fileManager.createOrUpdate(dataProduction.sessionsFilename, newData, false);
+      }
+      logger.addBytes("write_sessions", newData.getBytes().length);
     }
+    logger.addBytes("serialized_sessions", newData.getUncompressedSize());
     logger.stopTimer("uploadNewSessionsFile");
 
+    if (optionalOutput == null) {
+      logger.startTimer();
+      publishDelta(fileManager, dataProduction, newDataTree, logger);
+      logger.stopTimer("uploadDelta");
+    }
+
     // Check data consistency
     logger.startTimer();
     DataCheck checker = new DataCheck(fileManager);
-    CheckResult result = checker.check(sources, newData, dataProduction);
+    CheckResult result;
+    ExecutorService checkExecutor = Executors.newFixedThreadPool(Config.CHECK_MAX_THREADS,
+        ThreadManager.currentRequestThreadFactory());
+    try {
+      result = checker.check(sources, newDataTree, dataProduction, checkExecutor);
+    } finally {
+      checkExecutor.shutdownNow();
+    }
+    logger.addTimers("check_", result.ruleTimes);
     if (!result.failures.isEmpty()) {
       reportDataCheckFailures(result, optionalOutput);
     }
@@ -141,6 +211,7 @@ public class APIUpdater {
       JsonObject newProductionManifest = new JsonObject();
       newProductionManifest.add("format", new JsonPrimitive(Config.MANIFEST_FORMAT_VERSION));
       newProductionManifest.add("data_files", dataProduction.dataFiles);
+      newProductionManifest.add("delta_files", dataProduction.deltaFiles);
 
       JsonObject newStagingManifest = new JsonObject();
       newStagingManifest.add("format", new JsonPrimitive(Config.MANIFEST_FORMAT_VERSION));
@@ -152,15 +223,20 @@ public class APIUpdater {
 
       try {
         // notify production GCM server:
-        new GCMPing().notifyGCMServer(Config.GCM_URL, Config.GCM_API_KEY);
+        new GCMPing().notifyGCMServer(Config.GCM_URL, Config.GCM_API_KEY,
+            Config.GCM_ROLLOUT_WAVES, Config.GCM_ROLLOUT_WAVE_DELAY_SECONDS,
+            Config.GCM_ROLLOUT_JITTER_SECONDS, Config.GCM_ROLLOUT_MAX_ERROR_RATE);
       } catch (Throwable t) {
         Logger.getLogger(APIUpdater.class.getName()).log(Level.SEVERE, "Error while pinging GCM server", t);
       }
 
       logger.stopTimer("uploadManifest");
 
+      logger.setCounter("fileCacheHits", fileCache.getHits());
+      logger.setCounter("fileCacheMemcacheHits", fileCache.getMemcacheHits());
+      logger.setCounter("fileCacheMisses", fileCache.getMisses());
       logger.logUpdateRun(dataProduction.majorVersion, dataProduction.minorVersion,
-          dataProduction.sessionsFilename, newHash, newData, force);
+          dataProduction.sessionsFilename, newHash, inputHash, newDataTree, force);
     }
 
   }
@@ -177,8 +253,13 @@ public class APIUpdater {
         + "even in an inconsistent state, you or other app admin will need to force an update by "
         + "clicking on the \"Force update\" button at https://iosched-updater-dev.appspot.com/admin/\n\n"*/
         + "\n\n" + result.failures.size() + " data non-compliances:\n");
-    for (CheckFailure f: result.failures) {
-      errorMessage.append(f).append("\n\n");
+    for (Map.Entry<String, List<CheckFailure>> rule: result.getFailuresByRule().entrySet()) {
+      errorMessage.append("\n== Rule ").append(rule.getKey()).append(": ")
+          .append(rule.getValue().size()).append(" failures (")
+          .append(result.ruleTimes.get(rule.getKey())).append("ms) ==\n\n");
+      for (CheckFailure f: rule.getValue()) {
+        errorMessage.append(f).append("\n\n");
+      }
     }
 
     // Log error message to syslog, so that it's available even if the log is truncated.
@@ -214,6 +295,7 @@ public class APIUpdater {
     data.majorVersion = copyFrom == null ? Config.MANIFEST_VERSION : copyFrom.majorVersion;
     data.minorVersion = copyFrom == null ? 0 : copyFrom.minorVersion;
     data.dataFiles = new JsonArray();
+    data.deltaFiles = new JsonArray();
 
     if (currentManifest != null) {
       try {
@@ -226,11 +308,15 @@ public class APIUpdater {
             if (copyFrom == null) {
               data.majorVersion = Integer.parseInt(matcher.group(1));
               data.minorVersion = Integer.parseInt(matcher.group(2));
+              data.previousSessionsFilename = filename;
             }
           } else {
             data.dataFiles.add(file);
           }
         }
+        if (currentManifest.has("delta_files")) {
+          data.deltaFiles.addAll(currentManifest.get("delta_files").getAsJsonArray());
+        }
       } catch (NullPointerException ex) {
         Logger.getLogger(getClass().getName()).warning("Ignoring existing manifest, as it seems "
             + "to be badly formatted.");
@@ -253,11 +339,87 @@ public class APIUpdater {
   }
 
 
-  private boolean isUpToDate(byte[] newHash, UpdateRunLogger logger) {
-    Entity lastUpdate = logger.getLastRun();
+  /**
+   * Uploads the delta from the previous sessions file to the new one and adds it to the
+   * manifest delta files. Deltas are calculated using the per-entity hashes saved by the
+   * previous run. If those are not available, or if it's time for a full snapshot, the list
+   * of deltas is reset, so that clients download the full file.
+   */
+  private void publishDelta(CloudFileManager fileManager, ManifestData manifest,
+      JsonObject newData, UpdateRunLogger logger) throws IOException {
+    JsonObject newHashes = EntityDelta.computeHashes(newData);
+    JsonObject delta = null;
+    if (newHashes != null && manifest.previousSessionsFilename != null
+        && manifest.minorVersion % Config.DELTA_SNAPSHOT_INTERVAL != 0) {
+      JsonObject previous = fileManager.readFileAsJsonObject(Config.ENTITY_HASHES_FILE);
+      if (previous != null && previous.has("file") && previous.has("hashes")
+          && manifest.previousSessionsFilename.equals(previous.get("file").getAsString())) {
+        delta = EntityDelta.computeDelta(previous.getAsJsonObject("hashes"), newHashes, newData);
+      }
+    }
+
+    if (delta == null) {
+      manifest.deltaFiles = new JsonArray();
+    } else {
+      String deltaFilename = MessageFormat.format(Config.DELTA_FORMAT, manifest.majorVersion,
+          manifest.minorVersion - 1, manifest.minorVersion);
+      delta.addProperty("from", manifest.previousSessionsFilename);
+      delta.addProperty("to", manifest.sessionsFilename);
+      SerializedJson deltaData = SerializedJson.of(delta, Config.GZIP_DATA_FILES);
+      if (Config.IMMUTABLE_FILES) {
+        deltaFilename = fileManager.createImmutable(deltaFilename, deltaData);
+      } else {
+        fileManager.createOrUpdate(deltaFilename, deltaData, false);
+      }
+      logger.addBytes("write_delta", deltaData.getBytes().length);
+      JsonObject deltaEntry = new JsonObject();
+      deltaEntry.addProperty("from", manifest.previousSessionsFilename);
+      deltaEntry.addProperty("to", manifest.sessionsFilename);
+      deltaEntry.addProperty("file", deltaFilename);
+      manifest.deltaFiles.add(deltaEntry);
+    }
+
+    if (newHashes != null) {
+      JsonObject hashesFile = new JsonObject();
+      hashesFile.addProperty("file", manifest.sessionsFilename);
+      hashesFile.add("hashes", newHashes);
+      fileManager.createOrUpdate(Config.ENTITY_HASHES_FILE, hashesFile, true);
+    }
+  }
+
+  /**
+   * Adds a CloudStorage file to the fingerprint. The file ETag is used when available, so that
+   * the file doesn't need to be read. Otherwise (in the development server) the file is read
+   * and digested.
+   */
+  private void addFileFingerprint(InputFingerprint fingerprint, CloudFileManager fileManager,
+      String filename, UpdateRunLogger logger) throws IOException {
+    GcsFileMetadata metadata = fileManager.getFileMetadata(filename);
+    if (metadata != null && metadata.getEtag() != null) {
+      fingerprint.add(filename, metadata.getEtag());
+      logger.addBytes("read_" + filename, metadata.getLength());
+      return;
+    }
+    Reader reader = fileManager.openFileReader(filename);
+    if (reader == null) {
+      fingerprint.add(filename, null);
+      return;
+    }
+    reader = fingerprint.digesting(filename, reader);
+    try {
+      char[] buffer = new char[8192];
+      while (reader.read(buffer) >= 0) {
+        // only digesting
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  private boolean isUpToDate(byte[] newHash, Entity lastUpdate, String hashProperty) {
     byte[] currentHash = null;
     if (lastUpdate != null) {
-      ShortBlob hash = (ShortBlob) lastUpdate.getProperty("hash");
+      ShortBlob hash = (ShortBlob) lastUpdate.getProperty(hashProperty);
       if (hash != null) {
         currentHash = hash.getBytes();
       }
@@ -16,6 +16,7 @@
 package com.google.samples.apps.iosched.server.schedule.server;
 
 import com.google.appengine.api.utils.SystemProperty;
+import com.google.samples.apps.iosched.server.gcm.device.RolloutSchedule;
 import com.google.samples.apps.iosched.server.schedule.input.fetcher.VendorAPIEntityFetcher;
 
 import java.net.HttpURLConnection;
@@ -30,6 +31,24 @@ public class GCMPing {
 
   static Logger LOG = Logger.getLogger(VendorAPIEntityFetcher.class.getName());
 
+  /**
+   * Same as {@link #notifyGCMServer(String, String)}, asking the GCM server to ping the devices
+   * in waves instead of all at once.
+   *
+   * @param waves number of waves. 1 pings all devices at once.
+   * @param waveDelaySeconds time between waves.
+   * @param jitterSeconds window over which the devices of each wave spread their sync.
+   * @param maxErrorRate the rollout stops after a wave with a higher ratio of failed pings.
+   */
+  public void notifyGCMServer(String urlStr, String key, int waves, int waveDelaySeconds,
+      int jitterSeconds, double maxErrorRate) {
+    notifyGCMServer(urlStr + (urlStr.contains("?") ? "&" : "?")
+        + RolloutSchedule.PARAM_WAVES + "=" + waves
+        + "&" + RolloutSchedule.PARAM_WAVE_DELAY + "=" + waveDelaySeconds
+        + "&" + RolloutSchedule.PARAM_JITTER + "=" + jitterSeconds
+        + "&" + RolloutSchedule.PARAM_MAX_ERROR_RATE + "=" + maxErrorRate, key);
+  }
+
   public void notifyGCMServer(String urlStr, String key) {
     if (SystemProperty.environment.value() == SystemProperty.Environment.Value.Development) {
       // In the development server, don't notify GCM
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.server;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * Fingerprint of the raw input of an update run. If the fingerprint is the same as the one from
+ * the previous run, the extracted data would also be the same, so extraction can be skipped.
+ *
+ * <p>Each source is digested separately, while it is read and parsed, and the digests are
+ * combined in source name order. This way, the fingerprint does not depend on the order in
+ * which sources are fetched, even if they are fetched concurrently.
+ */
+public class InputFingerprint {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final TreeMap<String, MessageDigest> digests = new TreeMap<String, MessageDigest>();
+  // UTF-8 size of the sources digested while read:
+  private final TreeMap<String, long[]> sizes = new TreeMap<String, long[]>();
+  private byte[] hash;
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new InternalError("MD5 MessageDigest is not available");
+    }
+  }
+
+  private synchronized MessageDigest addSource(String name) {
+    if (hash != null) {
+      throw new IllegalStateException("Fingerprint was already calculated");
+    }
+    MessageDigest md = newDigest();
+    if (digests.put(name, md) != null) {
+      throw new IllegalArgumentException("Source " + name + " was already added");
+    }
+    return md;
+  }
+
+  /**
+   * Adds a source whose contents are already summarized by a short value, like a file ETag or
+   * a configuration flag.
+   */
+  public void add(String name, String value) {
+    addSource(name).update(String.valueOf(value).getBytes(UTF8));
+  }
+
+  /**
+   * Wraps the reader of a source, so that the source is digested as it is read.
+   */
+  public Reader digesting(String name, Reader in) {
+    final MessageDigest md = addSource(name);
+    final long[] size = new long[1];
+    synchronized (this) {
+      sizes.put(name, size);
+    }
+    return new FilterReader(in) {
+      @Override
+      public int read() throws IOException {
+        int c = super.read();
+        if (c >= 0) {
+          md.update((byte) (c >> 8));
+          md.update((byte) c);
+          size[0] += utf8Length((char) c);
+        }
+        return c;
+      }
+
+      @Override
+      public int read(char[] cbuf, int off, int len) throws IOException {
+        int n = super.read(cbuf, off, len);
+        long bytes = 0;
+        for (int i = off; i < off + n; i++) {
+          md.update((byte) (cbuf[i] >> 8));
+          md.update((byte) cbuf[i]);
+          bytes += utf8Length(cbuf[i]);
+        }
+        size[0] += bytes;
+        return n;
+      }
+
+      @Override
+      public long skip(long n) throws IOException {
+        // Skipped chars must also be digested:
+        char[] buf = new char[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+          int read = read(buf, 0, (int) Math.min(n - skipped, buf.length));
+          if (read < 0) {
+            break;
+          }
+          skipped += read;
+        }
+        return skipped;
+      }
+
+      @Override
+      public boolean markSupported() {
+        return false;
+      }
+    };
+  }
+
+  /**
+   * @return the number of UTF-8 bytes read so far from each source read through
+   * {@link #digesting(String, Reader)}, keyed by source name.
+   */
+  public synchronized Map<String, Long> getSizes() {
+    TreeMap<String, Long> result = new TreeMap<String, Long>();
+    for (Entry<String, long[]> entry: sizes.entrySet()) {
+      result.put(entry.getKey(), entry.getValue()[0]);
+    }
+    return result;
+  }
+
+  private static int utf8Length(char c) {
+    if (c < 0x80) {
+      return 1;
+    }
+    // Each half of a surrogate pair counts for half of its 4 bytes:
+    return c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+  }
+
+  /**
+   * Combines the digests of all sources. No more sources can be added after this is called.
+   */
+  public synchronized byte[] getHash() {
+    if (hash == null) {
+      MessageDigest combined = newDigest();
+      for (Entry<String, MessageDigest> entry: digests.entrySet()) {
+        combined.update(entry.getKey().getBytes(UTF8));
+        combined.update(entry.getValue().digest());
+      }
+      hash = combined.digest();
+    }
+    return hash;
+  }
+}
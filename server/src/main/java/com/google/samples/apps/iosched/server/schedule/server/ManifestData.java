@@ -17,6 +17,7 @@ package com.google.samples.apps.iosched.server.schedule.server;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
 import com.google.samples.apps.iosched.server.schedule.Config;
 
 import java.text.MessageFormat;
@@ -26,7 +27,9 @@ public class ManifestData {
   public int minorVersion;
   public int majorVersion;
   public String sessionsFilename;
+  public String previousSessionsFilename;
   public JsonArray dataFiles;
+  public JsonArray deltaFiles;
 
   public void setFromDataFiles(JsonArray files) {
     for (JsonElement file: files) {
@@ -42,6 +45,18 @@ public class ManifestData {
     }
   }
 
+  /**
+   * Replaces the sessions filename, also in the list of data files.
+   */
+  public void setSessionsFilename(String filename) {
+    JsonArray files = new JsonArray();
+    for (JsonElement file: dataFiles) {
+      files.add(file.getAsString().equals(sessionsFilename) ? new JsonPrimitive(filename) : file);
+    }
+    dataFiles = files;
+    sessionsFilename = filename;
+  }
+
   public void incrementMinorVersion() {
       minorVersion++;
       sessionsFilename = MessageFormat.format(Config.SESSIONS_FORMAT, majorVersion, minorVersion);
@@ -26,7 +26,9 @@ import com.google.gson.JsonObject;
 
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.logging.Logger;
 
@@ -34,6 +36,9 @@ import java.util.logging.Logger;
 /**
  * Hold log information for each run of the Updater and save this to the datastore.
  *
+ * <p>Besides the run results, each run saves its metrics as properties: stage timings in
+ * nanoseconds, bytes read and written, counts and heap usage. See {@link UpdateRunMetrics} for
+ * their aggregation across runs.
  */
 public class UpdateRunLogger {
 
@@ -43,18 +48,76 @@ public class UpdateRunLogger {
   private DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
 
   private long lastStart;
-  private HashMap<String, Long> timers;
+  private LinkedHashMap<String, Long> timers;
+  private LinkedHashMap<String, Long> bytes;
+  private HashMap<String, Long> counters;
+  private long maxHeapUsed;
 
   public UpdateRunLogger() {
-    timers = new HashMap<String, Long>();
+    timers = new LinkedHashMap<String, Long>();
+    bytes = new LinkedHashMap<String, Long>();
+    counters = new HashMap<String, Long>();
   }
 
   public void startTimer() {
-    this.lastStart = System.currentTimeMillis();
+    this.lastStart = System.nanoTime();
   }
 
   public void stopTimer(String description) {
-    timers.put((timers.size()+1)+"_"+description, System.currentTimeMillis() - lastStart);
+    addTimerNanos(description, System.nanoTime() - lastStart);
+    sampleHeap();
+  }
+
+  /**
+   * Record a timing that was measured elsewhere, like the time taken to fetch each
+   * entity type.
+   */
+  public void addTimer(String description, long elapsedMillis) {
+    addTimerNanos(description, elapsedMillis * 1000000L);
+  }
+
+  public void addTimerNanos(String description, long elapsedNanos) {
+    timers.put(description, elapsedNanos);
+  }
+
+  public void addTimers(String prefix, Map<String, Long> elapsedMillis) {
+    for (Entry<String, Long> entry: elapsedMillis.entrySet()) {
+      addTimer(prefix + entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Record a number of bytes read or written, like the size of an uploaded file.
+   */
+  public void addBytes(String name, long value) {
+    Long previous = bytes.get(name);
+    bytes.put(name, previous == null ? value : previous + value);
+  }
+
+  public void addBytes(String prefix, Map<String, Long> values) {
+    for (Entry<String, Long> entry: values.entrySet()) {
+      addBytes(prefix + entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Record a count, like the number of cache hits of the run.
+   */
+  public void setCounter(String name, long value) {
+    counters.put(name, value);
+  }
+
+  public void setCounters(String prefix, Map<String, Long> values) {
+    for (Entry<String, Long> entry: values.entrySet()) {
+      setCounter(prefix + entry.getKey(), entry.getValue());
+    }
+  }
+
+  private long sampleHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    long used = runtime.totalMemory() - runtime.freeMemory();
+    maxHeapUsed = Math.max(maxHeapUsed, used);
+    return used;
   }
 
   public Entity getLastRun() {
@@ -75,22 +138,31 @@ public class UpdateRunLogger {
     logger.fine("Run APIUpdater. No updates required.");
   }
 
+  /**
+   * Record the input fingerprint of a run that did not change the extracted data, so that the
+   * next run with the same input can skip extraction.
+   */
+  public void updateInputHash(Entity lastRun, byte[] inputHash) {
+    lastRun.setProperty("inputHash", new ShortBlob(inputHash));
+    datastore.put(lastRun);
+  }
+
   public void logUpdateRun(int majorVersion, int minorVersion, String filename, byte[] hash,
-      JsonObject data, boolean forced) {
+      byte[] inputHash, JsonObject data, boolean forced) {
     Entity updateRun = new Entity(UPDATERUN_ENTITY_KIND);
     updateRun.setProperty("date", new Date());
     updateRun.setProperty("hash", new ShortBlob(hash));
+    updateRun.setProperty("inputHash", new ShortBlob(inputHash));
     updateRun.setProperty("forced", forced);
     updateRun.setProperty("majorVersion", majorVersion);
     updateRun.setProperty("minorVersion", minorVersion);
-    for (Entry<String, Long> performanceItem: timers.entrySet()) {
-      updateRun.setProperty("time_"+performanceItem.getKey(), performanceItem.getValue());
-    }
     updateRun.setProperty("filename", filename);
     StringBuilder sb = new StringBuilder();
     for (Entry<String, JsonElement> el: data.entrySet()) {
       if (el.getValue().isJsonArray()) {
-        sb.append(el.getKey()).append("=").append(el.getValue().getAsJsonArray().size()).append(" ");
+        int size = el.getValue().getAsJsonArray().size();
+        sb.append(el.getKey()).append("=").append(size).append(" ");
+        setCounter("entities_" + el.getKey(), size);
       }
     }
     if (sb.length()>0) {
@@ -98,7 +170,22 @@ public class UpdateRunLogger {
       sb.deleteCharAt(sb.length()-1);
     }
     updateRun.setProperty("summary", sb.toString());
+    for (Entry<String, Long> performanceItem: timers.entrySet()) {
+      updateRun.setProperty(UpdateRunMetrics.NANOS_PREFIX+performanceItem.getKey(),
+          performanceItem.getValue());
+    }
+    for (Entry<String, Long> item: bytes.entrySet()) {
+      updateRun.setProperty(UpdateRunMetrics.BYTES_PREFIX+item.getKey(), item.getValue());
+    }
+    for (Entry<String, Long> counter: counters.entrySet()) {
+      updateRun.setProperty(UpdateRunMetrics.COUNT_PREFIX+counter.getKey(), counter.getValue());
+    }
+    updateRun.setProperty(UpdateRunMetrics.HEAP_USED, sampleHeap());
+    updateRun.setProperty(UpdateRunMetrics.HEAP_USED_MAX, maxHeapUsed);
     datastore.put(updateRun);
     timers.clear();
+    bytes.clear();
+    counters.clear();
+    maxHeapUsed = 0;
   }
 }
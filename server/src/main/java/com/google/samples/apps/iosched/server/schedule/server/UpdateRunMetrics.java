@@ -0,0 +1,210 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.server;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.gson.JsonObject;
+import com.google.samples.apps.iosched.server.schedule.model.validator.IsoDateTime;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * Aggregates the metrics saved by {@link UpdateRunLogger} over the most recent update runs: for
+ * each metric, its value in the last run that had it and its median (p50) and p95 across runs.
+ * Runs that did not change the data are not saved, so only runs that published data are
+ * aggregated.
+ *
+ * <p>Metrics are served as JSON and in the Prometheus text format, so that alerts can be set
+ * on regressions of the updater.
+ */
+public class UpdateRunMetrics {
+
+  public static final String NANOS_PREFIX = "ns_";
+  public static final String BYTES_PREFIX = "bytes_";
+  public static final String COUNT_PREFIX = "count_";
+  public static final String HEAP_USED = "heapUsedBytes";
+  public static final String HEAP_USED_MAX = "heapUsedMaxBytes";
+
+  private static final String PROMETHEUS_PREFIX = "iosched_updater_";
+
+  /**
+   * Values of one metric, most recent run first.
+   */
+  public static class Metric {
+    private final List<Long> values = new ArrayList<Long>();
+
+    public long getLast() {
+      return values.get(0);
+    }
+
+    public int getSamples() {
+      return values.size();
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     * @return the nearest-rank percentile of the values.
+     */
+    public long getPercentile(double percentile) {
+      List<Long> sorted = new ArrayList<Long>(values);
+      Collections.sort(sorted);
+      int rank = (int) Math.ceil(percentile / 100 * sorted.size());
+      return sorted.get(Math.max(0, rank - 1));
+    }
+  }
+
+  private final int runs;
+  private final Date lastRunDate;
+  private final TreeMap<String, Metric> metrics = new TreeMap<String, Metric>();
+
+  /**
+   * @param updateRuns Update runs, most recent first, as returned by
+   *     {@link UpdateRunLogger#getMostRecentRuns(int)}.
+   */
+  public static UpdateRunMetrics fromRuns(List<Entity> updateRuns) {
+    List<Map<String, Object>> runProperties = new ArrayList<Map<String, Object>>();
+    for (Entity run: updateRuns) {
+      runProperties.add(run.getProperties());
+    }
+    return new UpdateRunMetrics(runProperties);
+  }
+
+  /**
+   * @param runProperties Properties of the update runs, most recent first.
+   */
+  UpdateRunMetrics(List<Map<String, Object>> runProperties) {
+    runs = runProperties.size();
+    lastRunDate = runs == 0 ? null : (Date) runProperties.get(0).get("date");
+    for (Map<String, Object> run: runProperties) {
+      for (Entry<String, Object> property: run.entrySet()) {
+        String name = property.getKey();
+        if (isMetric(name) && property.getValue() instanceof Number) {
+          Metric metric = metrics.get(name);
+          if (metric == null) {
+            metric = new Metric();
+            metrics.put(name, metric);
+          }
+          metric.values.add(((Number) property.getValue()).longValue());
+        }
+      }
+    }
+  }
+
+  private static boolean isMetric(String name) {
+    return name.startsWith(NANOS_PREFIX) || name.startsWith(BYTES_PREFIX)
+        || name.startsWith(COUNT_PREFIX) || name.equals(HEAP_USED) || name.equals(HEAP_USED_MAX);
+  }
+
+  /**
+   * @return the metrics, keyed by the name of the run property they are saved as.
+   */
+  public Map<String, Metric> getMetrics() {
+    return Collections.unmodifiableMap(metrics);
+  }
+
+  public JsonObject toJson() {
+    JsonObject result = new JsonObject();
+    result.addProperty("runs", runs);
+    if (lastRunDate != null) {
+      result.addProperty("lastRun", IsoDateTime.format(lastRunDate.getTime()));
+    }
+    JsonObject values = new JsonObject();
+    for (Entry<String, Metric> entry: metrics.entrySet()) {
+      Metric metric = entry.getValue();
+      JsonObject obj = new JsonObject();
+      obj.addProperty("last", metric.getLast());
+      obj.addProperty("p50", metric.getPercentile(50));
+      obj.addProperty("p95", metric.getPercentile(95));
+      obj.addProperty("samples", metric.getSamples());
+      values.add(entry.getKey(), obj);
+    }
+    result.add("metrics", values);
+    return result;
+  }
+
+  /**
+   * Writes the metrics in the Prometheus text exposition format. Timings are converted to
+   * seconds, and each metric has a "stat" label with the value "last", "p50" or "p95".
+   */
+  public void writePrometheus(Writer out) throws IOException {
+    writeFamily(out, "runs", "Number of aggregated update runs.");
+    out.write(PROMETHEUS_PREFIX + "runs " + runs + "\n");
+    if (lastRunDate != null) {
+      writeFamily(out, "last_run_timestamp_seconds", "Time of the last update run.");
+      out.write(PROMETHEUS_PREFIX + "last_run_timestamp_seconds "
+          + lastRunDate.getTime() / 1000 + "\n");
+    }
+    writeMetrics(out, NANOS_PREFIX, "stage_seconds", "stage",
+        "Time taken by each stage of the update runs.", 1e-9);
+    writeMetrics(out, BYTES_PREFIX, "bytes", "name",
+        "Bytes read and written by the update runs.", 1);
+    writeMetrics(out, COUNT_PREFIX, "count", "name",
+        "Counts of the update runs, like entities or cache hits.", 1);
+    writeMetrics(out, HEAP_USED, "heap_used_bytes", null,
+        "Heap used at the end of the update runs.", 1);
+    writeMetrics(out, HEAP_USED_MAX, "heap_used_max_bytes", null,
+        "Maximum heap used between stages of the update runs.", 1);
+  }
+
+  private void writeMetrics(Writer out, String prefix, String family, String label, String help,
+      double scale) throws IOException {
+    boolean first = true;
+    for (Entry<String, Metric> entry: metrics.entrySet()) {
+      String name = entry.getKey();
+      if (label == null ? !name.equals(prefix) : !name.startsWith(prefix)) {
+        continue;
+      }
+      if (first) {
+        writeFamily(out, family, help);
+        first = false;
+      }
+      String labels = label == null ? ""
+          : label + "=\"" + escapeLabel(name.substring(prefix.length())) + "\",";
+      Metric metric = entry.getValue();
+      writeSample(out, family, labels, "last", metric.getLast() * scale);
+      writeSample(out, family, labels, "p50", metric.getPercentile(50) * scale);
+      writeSample(out, family, labels, "p95", metric.getPercentile(95) * scale);
+    }
+  }
+
+  private static void writeFamily(Writer out, String family, String help) throws IOException {
+    out.write("# HELP " + PROMETHEUS_PREFIX + family + " " + help + "\n");
+    out.write("# TYPE " + PROMETHEUS_PREFIX + family + " gauge\n");
+  }
+
+  private static void writeSample(Writer out, String family, String labels, String stat,
+      double value) throws IOException {
+    out.write(PROMETHEUS_PREFIX + family + "{" + labels + "stat=\"" + stat + "\"} ");
+    if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      out.write(Long.toString((long) value));
+    } else {
+      out.write(Double.toString(value));
+    }
+    out.write('\n');
+  }
+
+  private static String escapeLabel(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+}
@@ -15,7 +15,6 @@
  */
 package com.google.samples.apps.iosched.server.schedule.server.cloudstorage;
 
-import com.google.appengine.api.appidentity.AppIdentityService;
 import com.google.appengine.api.appidentity.AppIdentityServiceFactory;
 import com.google.appengine.api.utils.SystemProperty;
 import com.google.appengine.tools.cloudstorage.GcsFileMetadata;
@@ -33,16 +32,17 @@ import com.google.gson.JsonParser;
 import com.google.samples.apps.iosched.server.schedule.Config;
 import com.google.samples.apps.iosched.server.schedule.input.fetcher.RemoteJsonHelper;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
-import java.nio.charset.Charset;
-import java.security.DigestOutputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Handle all interaction with GoogleCloudStorage.
@@ -51,37 +51,38 @@ import java.util.logging.Logger;
 public class CloudFileManager {
 
   private static final String DEFAULT_CHARSET_NAME = "UTF-8";
+  private static final int WRITE_BUFFER_SIZE = 256 * 1024;
 
-  private final GcsService gcsService = GcsServiceFactory.createGcsService(
-      RetryParams.getDefaultInstance());
+  private final GcsService gcsService;
+
+  private JsonFileCache cache;
 
   private final String defaultBucket;
   private final GcsFilename productionManifestFile;
   private final GcsFilename stagingManifestFile;
 
   public CloudFileManager() {
-    AppIdentityService appIdentityService = AppIdentityServiceFactory.getAppIdentityService();
-    defaultBucket = appIdentityService.getDefaultGcsBucketName();
+    this(GcsServiceFactory.createGcsService(RetryParams.getDefaultInstance()),
+        AppIdentityServiceFactory.getAppIdentityService().getDefaultGcsBucketName());
+  }
+
+  /**
+   * Uses the given GcsService and bucket, for example a {@link LocalFileGcsService} to run
+   * offline.
+   */
+  public CloudFileManager(GcsService gcsService, String bucket) {
+    this.gcsService = gcsService;
+    defaultBucket = bucket;
     productionManifestFile = new GcsFilename(defaultBucket, Config.MANIFEST_NAME);
     stagingManifestFile = new GcsFilename(defaultBucket, Config.MANIFEST_NAME_STAGING);
   }
 
-  static public byte[] calulateHash(JsonElement contents) {
-    MessageDigest md;
-    try {
-      md = MessageDigest.getInstance("MD5");
-    } catch (NoSuchAlgorithmException e) {
-      throw new InternalError("MD5 MessageDigest is not available");
-    }
-    OutputStream byteSink = new OutputStream() {
-      @Override
-      public void write(int b) throws IOException {
-        // ignore, since this is only used to calculate MD5
-      }
-    };
-    DigestOutputStream dis = new DigestOutputStream(byteSink, md);
-    new Gson().toJson(contents, new OutputStreamWriter(dis, Charset.forName(DEFAULT_CHARSET_NAME)));
-    return dis.getMessageDigest().digest();
+  /**
+   * Sets a cache for the files read with {@link #readFileAsJsonObject(GcsFilename)}. Trees
+   * returned by that method are then shared, and must not be modified.
+   */
+  public void setCache(JsonFileCache cache) {
+    this.cache = cache;
   }
 
   /**
@@ -112,6 +113,83 @@ public class CloudFileManager {
     }
   }
 
+  /**
+   * Create or update a file in a GCC bucket with content that was already serialized, using the
+   * default ACL for the bucket. If the content is gzip'd, the file is served with gzip
+   * Content-Encoding.
+   *
+   * @param filename Name of file to create
+   * @param contents File contents
+   * @param shortCache If true, sets cache expiry to 0 sec. Otherwise, cache expiry is set to 6,000 sec.
+   * @throws IOException
+   */
+  public void createOrUpdate(String filename, SerializedJson contents, boolean shortCache)
+      throws IOException {
+    GcsFilename file = new GcsFilename(defaultBucket, filename);
+    GcsFileOptions.Builder options = new GcsFileOptions.Builder()
+      .mimeType("application/json")
+      .cacheControl("public, max-age="+(shortCache?0:6000));
+    if (contents.isGzipped()) {
+      options.contentEncoding("gzip");
+    }
+    gcsService.createOrReplace(file, options.build(), ByteBuffer.wrap(contents.getBytes()));
+  }
+
+  /**
+   * Opens a stream that creates or updates a file in a GCC bucket as it is written, using the
+   * default ACL for the bucket. The file is only created or updated when the stream is closed,
+   * so if writing fails, it should not be closed.
+   *
+   * @param filename Name of file to create
+   * @param shortCache If true, sets cache expiry to 0 sec. Otherwise, cache expiry is set to 6,000 sec.
+   * @param gzip If true, the contents are gzip'd and the file is served with gzip
+   *     Content-Encoding.
+   */
+  public OutputStream openForWrite(String filename, boolean shortCache, boolean gzip)
+      throws IOException {
+    GcsFilename file = new GcsFilename(defaultBucket, filename);
+    GcsFileOptions.Builder options = new GcsFileOptions.Builder()
+      .mimeType("application/json")
+      .cacheControl("public, max-age="+(shortCache?0:6000));
+    if (gzip) {
+      options.contentEncoding("gzip");
+    }
+    OutputStream out = Channels.newOutputStream(
+        gcsService.createOrReplace(file, options.build()));
+    return gzip ? new GZIPOutputStream(out, WRITE_BUFFER_SIZE)
+        : new BufferedOutputStream(out, WRITE_BUFFER_SIZE);
+  }
+
+  /**
+   * Create a file in a GCC bucket named after the hash of its contents, so that it never
+   * changes and can be cached for as long as clients want. The name is built by inserting the
+   * hash before the extension of {@code filename}, like "session_data_v1.2.(md5 in hex).json".
+   * Only the manifest, which lists the current files, needs to be short-cached.
+   *
+   * @return the actual name of the file.
+   */
+  public String createImmutable(String filename, SerializedJson contents) throws IOException {
+    String contentFilename = getContentAddressedName(filename, contents);
+    GcsFilename file = new GcsFilename(defaultBucket, contentFilename);
+    GcsFileOptions.Builder options = new GcsFileOptions.Builder()
+      .mimeType("application/json")
+      .cacheControl("public, max-age="+Config.IMMUTABLE_FILES_MAX_AGE);
+    if (contents.isGzipped()) {
+      options.contentEncoding("gzip");
+    }
+    gcsService.createOrReplace(file, options.build(), ByteBuffer.wrap(contents.getBytes()));
+    return contentFilename;
+  }
+
+  public static String getContentAddressedName(String filename, SerializedJson contents) {
+    int extension = filename.lastIndexOf('.');
+    if (extension < 0) {
+      extension = filename.length();
+    }
+    return filename.substring(0, extension) + "." + contents.getHashHex()
+        + filename.substring(extension);
+  }
+
   public String getBucketName() {
     return defaultBucket;
   }
@@ -144,6 +222,60 @@ public class CloudFileManager {
     return readFileAsJsonObject(new GcsFilename(defaultBucket, filename));
   }
 
+  /**
+   * Opens a reader over the contents of a file, without loading it in memory. Callers must
+   * close it.
+   *
+   * @return the reader, or null if the file does not exist.
+   */
+  public Reader openFileReader(String filename) throws IOException {
+    GcsFilename file = new GcsFilename(defaultBucket, filename);
+    GcsFileMetadata metadata = gcsService.getMetadata(file);
+    if (metadata == null) {
+      if (SystemProperty.environment.value() == SystemProperty.Environment.Value.Development) {
+        // In the development server, try to fetch files on cloud storage via HTTP
+        Logger.getAnonymousLogger().info("opening "+file.getObjectName()+" at "+Config.CLOUD_STORAGE_BASE_URL+file.getObjectName());
+        return RemoteJsonHelper.openPublicURL(Config.CLOUD_STORAGE_BASE_URL+file.getObjectName());
+      }
+      return null;
+    }
+    return openReader(file, metadata);
+  }
+
+  /**
+   * Reads a file as stored, uncompressing it if it was uploaded with gzip Content-Encoding.
+   */
+  private Reader openReader(GcsFilename file, GcsFileMetadata metadata) throws IOException {
+    GcsInputChannel readChannel = gcsService.openReadChannel(file, 0);
+    String encoding = metadata.getOptions() == null ? null
+        : metadata.getOptions().getContentEncoding();
+    if ("gzip".equals(encoding)) {
+      return new InputStreamReader(new GZIPInputStream(Channels.newInputStream(readChannel)),
+          DEFAULT_CHARSET_NAME);
+    }
+    return Channels.newReader(readChannel, DEFAULT_CHARSET_NAME);
+  }
+
+  /**
+   * Returns the ETag of a file, which changes whenever its contents change, without reading
+   * it.
+   *
+   * @return the ETag, or null if the file does not exist or its metadata is not available.
+   */
+  public String getFileETag(String filename) throws IOException {
+    GcsFileMetadata metadata = getFileMetadata(filename);
+    return metadata == null ? null : metadata.getEtag();
+  }
+
+  /**
+   * Returns the metadata of a file, like its ETag and stored length, without reading it.
+   *
+   * @return the metadata, or null if the file does not exist or its metadata is not available.
+   */
+  public GcsFileMetadata getFileMetadata(String filename) throws IOException {
+    return gcsService.getMetadata(new GcsFilename(defaultBucket, filename));
+  }
+
   public JsonObject readFileAsJsonObject(GcsFilename file) throws IOException {
     GcsFileMetadata metadata = gcsService.getMetadata(file);
     if (metadata == null) {
@@ -154,16 +286,21 @@ public class CloudFileManager {
       }
       return null;
     }
-    GcsInputChannel readChannel = null;
+    if (cache != null) {
+      JsonObject cached = cache.get(file, metadata.getEtag());
+      if (cached != null) {
+        return cached;
+      }
+    }
+    Reader reader = openReader(file, metadata);
     try {
-      readChannel = gcsService.openReadChannel(file, 0);
-      JsonElement element = new JsonParser().parse(Channels.newReader(readChannel,
-          DEFAULT_CHARSET_NAME));
-      return element.getAsJsonObject();
-    } finally {
-      if (readChannel != null) {
-        readChannel.close();
+      JsonObject result = new JsonParser().parse(reader).getAsJsonObject();
+      if (cache != null) {
+        cache.put(file, metadata.getEtag(), result);
       }
+      return result;
+    } finally {
+      reader.close();
     }
   }
 }
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.server.cloudstorage;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Read-through cache of parsed CloudStorage JSON files, used by {@link CloudFileManager}.
+ *
+ * <p>Entries are keyed on the file ETag, which changes whenever the file changes, so a cached
+ * tree is only used after revalidating it with a (cheap) metadata call. Parsed trees are kept in
+ * memory and shared by all instances in the same JVM, so they survive across update runs. If a
+ * MemcacheService is given, the JSON text is also kept there, so that other instances can skip
+ * the download.
+ *
+ * <p>Returned trees are shared and must not be modified.
+ */
+public class JsonFileCache {
+
+  private static final Logger LOGGER = Logger.getLogger(JsonFileCache.class.getName());
+
+  // Memcache values are limited to 1MB:
+  private static final int MAX_MEMCACHE_VALUE_CHARS = 500 * 1000;
+  private static final String MEMCACHE_KEY_PREFIX = "JsonFileCache:";
+
+  private static final int MAX_ENTRIES = 32;
+  private static final Map<GcsFilename, CacheEntry> SHARED_ENTRIES = Collections.synchronizedMap(
+      new LinkedHashMap<GcsFilename, CacheEntry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<GcsFilename, CacheEntry> eldest) {
+          return size() > MAX_ENTRIES;
+        }
+      });
+
+  private static class CacheEntry {
+    final String etag;
+    final JsonObject tree;
+
+    CacheEntry(String etag, JsonObject tree) {
+      this.etag = etag;
+      this.tree = tree;
+    }
+  }
+
+  private final Map<GcsFilename, CacheEntry> entries;
+  private final MemcacheService memcache;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong memcacheHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Creates a cache that uses the entries shared by the JVM.
+   *
+   * @param memcache MemcacheService used as a second level, or null to use only memory.
+   */
+  public JsonFileCache(MemcacheService memcache) {
+    this(SHARED_ENTRIES, memcache);
+  }
+
+  JsonFileCache(Map<GcsFilename, CacheEntry> entries, MemcacheService memcache) {
+    this.entries = entries;
+    this.memcache = memcache;
+  }
+
+  /**
+   * Creates a cache with its own entries, not shared with other instances.
+   */
+  public static JsonFileCache createPrivate() {
+    return new JsonFileCache(Collections.synchronizedMap(
+        new LinkedHashMap<GcsFilename, CacheEntry>()), null);
+  }
+
+  /**
+   * Returns the cached tree of a file, if it was cached with the given ETag.
+   */
+  public JsonObject get(GcsFilename file, String etag) {
+    if (etag == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    CacheEntry entry = entries.get(file);
+    if (entry != null && etag.equals(entry.etag)) {
+      hits.incrementAndGet();
+      return entry.tree;
+    }
+    if (memcache != null) {
+      try {
+        Object value = memcache.get(MEMCACHE_KEY_PREFIX + file);
+        if (value instanceof String && ((String) value).startsWith(etag + "\n")) {
+          String json = ((String) value).substring(etag.length() + 1);
+          JsonObject tree = new JsonParser().parse(json).getAsJsonObject();
+          entries.put(file, new CacheEntry(etag, tree));
+          memcacheHits.incrementAndGet();
+          return tree;
+        }
+      } catch (RuntimeException ex) {
+        // memcache is only an optimization
+        LOGGER.log(Level.WARNING, "Could not read "+file+" from memcache", ex);
+      }
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Caches the tree of a file read with the given ETag.
+   */
+  public void put(GcsFilename file, String etag, JsonObject tree) {
+    if (etag == null) {
+      return;
+    }
+    entries.put(file, new CacheEntry(etag, tree));
+    if (memcache != null) {
+      String json = tree.toString();
+      if (json.length() <= MAX_MEMCACHE_VALUE_CHARS) {
+        try {
+          memcache.put(MEMCACHE_KEY_PREFIX + file, etag + "\n" + json);
+        } catch (RuntimeException ex) {
+          LOGGER.log(Level.WARNING, "Could not write "+file+" to memcache", ex);
+        }
+      }
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMemcacheHits() {
+    return memcacheHits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.server.cloudstorage;
+
+import com.google.appengine.tools.cloudstorage.GcsFileMetadata;
+import com.google.appengine.tools.cloudstorage.GcsFileOptions;
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.appengine.tools.cloudstorage.GcsInputChannel;
+import com.google.appengine.tools.cloudstorage.GcsOutputChannel;
+import com.google.appengine.tools.cloudstorage.GcsService;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * GcsService that keeps files in a local directory, so that code that uses CloudStorage can run
+ * and be tested offline. Each object is saved at root/bucket/objectName, and its options
+ * (mime type, cache control, content encoding...) are saved in a properties file at
+ * root/.metadata/bucket/objectName.
+ */
+public class LocalFileGcsService implements GcsService {
+
+  private static final String METADATA_DIR = ".metadata";
+
+  private final File root;
+
+  public LocalFileGcsService(File root) {
+    this.root = root;
+  }
+
+  private File getFile(GcsFilename filename) {
+    return new File(new File(root, filename.getBucketName()), filename.getObjectName());
+  }
+
+  private File getMetadataFile(GcsFilename filename) {
+    return new File(new File(new File(root, METADATA_DIR), filename.getBucketName()),
+        filename.getObjectName());
+  }
+
+  @Override
+  public GcsOutputChannel createOrReplace(final GcsFilename filename,
+      final GcsFileOptions options) throws IOException {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    return new GcsOutputChannel() {
+      private boolean open = true;
+
+      @Override
+      public GcsFilename getFilename() {
+        return filename;
+      }
+
+      @Override
+      public int getBufferSizeBytes() {
+        return 256 * 1024;
+      }
+
+      @Override
+      public int write(ByteBuffer src) throws IOException {
+        if (!open) {
+          throw new ClosedChannelException();
+        }
+        int length = src.remaining();
+        Channels.newChannel(buffer).write(src);
+        return length;
+      }
+
+      @Override
+      public void waitForOutstandingWrites() {
+      }
+
+      @Override
+      public boolean isOpen() {
+        return open;
+      }
+
+      @Override
+      public void close() throws IOException {
+        if (open) {
+          open = false;
+          createOrReplace(filename, options, ByteBuffer.wrap(buffer.toByteArray()));
+        }
+      }
+    };
+  }
+
+  @Override
+  public void createOrReplace(GcsFilename filename, GcsFileOptions options, ByteBuffer src)
+      throws IOException {
+    byte[] contents = new byte[src.remaining()];
+    src.get(contents);
+    write(getFile(filename), contents);
+
+    Properties metadata = new Properties();
+    setProperty(metadata, "mimeType", options.getMimeType());
+    setProperty(metadata, "acl", options.getAcl());
+    setProperty(metadata, "cacheControl", options.getCacheControl());
+    setProperty(metadata, "contentEncoding", options.getContentEncoding());
+    setProperty(metadata, "contentDisposition", options.getContentDisposition());
+    for (Map.Entry<String, String> entry: options.getUserMetadata().entrySet()) {
+      setProperty(metadata, "x-goog-meta-" + entry.getKey(), entry.getValue());
+    }
+    setProperty(metadata, "etag", md5Hex(contents));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    metadata.store(out, null);
+    write(getMetadataFile(filename), out.toByteArray());
+  }
+
+  private static void setProperty(Properties properties, String name, String value) {
+    if (value != null) {
+      properties.setProperty(name, value);
+    }
+  }
+
+  private static void write(File file, byte[] contents) throws IOException {
+    File dir = file.getParentFile();
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Could not create directory " + dir);
+    }
+    OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(contents);
+    } finally {
+      out.close();
+    }
+  }
+
+  private static String md5Hex(byte[] contents) {
+    try {
+      byte[] digest = MessageDigest.getInstance("MD5").digest(contents);
+      StringBuilder sb = new StringBuilder();
+      for (byte b: digest) {
+        sb.append(String.format("%02x", b));
+      }
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new InternalError("MD5 MessageDigest is not available");
+    }
+  }
+
+  @Override
+  public GcsInputChannel openReadChannel(GcsFilename filename, long startPosition)
+      throws IOException {
+    File file = getFile(filename);
+    if (!file.isFile()) {
+      throw new IOException("File not found: " + filename);
+    }
+    final FileChannel channel = new FileInputStream(file).getChannel();
+    channel.position(startPosition);
+    return new GcsInputChannel() {
+      @Override
+      public int read(ByteBuffer dst) throws IOException {
+        return channel.read(dst);
+      }
+
+      @Override
+      public boolean isOpen() {
+        return channel.isOpen();
+      }
+
+      @Override
+      public void close() {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          // nothing to do, the file was only being read
+        }
+      }
+    };
+  }
+
+  @Override
+  public GcsInputChannel openPrefetchingReadChannel(GcsFilename filename, long startPosition,
+      int blockSizeBytes) {
+    try {
+      return openReadChannel(filename, startPosition);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public GcsFileMetadata getMetadata(GcsFilename filename) throws IOException {
+    File file = getFile(filename);
+    File metadataFile = getMetadataFile(filename);
+    if (!file.isFile()) {
+      return null;
+    }
+    Properties metadata = new Properties();
+    if (metadataFile.isFile()) {
+      InputStream in = new FileInputStream(metadataFile);
+      try {
+        metadata.load(in);
+      } finally {
+        in.close();
+      }
+    }
+    GcsFileOptions.Builder options = new GcsFileOptions.Builder();
+    if (metadata.getProperty("mimeType") != null) {
+      options.mimeType(metadata.getProperty("mimeType"));
+    }
+    if (metadata.getProperty("acl") != null) {
+      options.acl(metadata.getProperty("acl"));
+    }
+    if (metadata.getProperty("cacheControl") != null) {
+      options.cacheControl(metadata.getProperty("cacheControl"));
+    }
+    if (metadata.getProperty("contentEncoding") != null) {
+      options.contentEncoding(metadata.getProperty("contentEncoding"));
+    }
+    if (metadata.getProperty("contentDisposition") != null) {
+      options.contentDisposition(metadata.getProperty("contentDisposition"));
+    }
+    for (String name: metadata.stringPropertyNames()) {
+      if (name.startsWith("x-goog-meta-")) {
+        options.addUserMetadata(name.substring("x-goog-meta-".length()), metadata.getProperty(name));
+      }
+    }
+    return new GcsFileMetadata(filename, options.build(), metadata.getProperty("etag"),
+        file.length(), new Date(file.lastModified()));
+  }
+
+  @Override
+  public boolean delete(GcsFilename filename) throws IOException {
+    getMetadataFile(filename).delete();
+    return getFile(filename).delete();
+  }
+
+  @Override
+  public void setHttpHeaders(Map<String, String> headers) {
+    // Not applicable to local files.
+  }
+}
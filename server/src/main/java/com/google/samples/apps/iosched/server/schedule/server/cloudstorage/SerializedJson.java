@@ -0,0 +1,198 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.server.cloudstorage;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * JSON content serialized only once, in memory, ready to be uploaded to CloudStorage.
+ *
+ * <p>Everything written to {@link #getWriter()} feeds both the MD5 digest (always calculated on
+ * the uncompressed bytes, so that it does not depend on the compression setting) and the upload
+ * buffer, which is optionally gzip'd. This way, a single serialization is used both to detect
+ * whether the content changed since the previous run and to upload it.
+ */
+public class SerializedJson {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final boolean gzipped;
+  private final ByteArrayOutputStream buffer;
+  private final DigestOutputStream digestStream;
+  private final JsonWriter writer;
+  private long uncompressedSize;
+  private byte[] hash;
+  private byte[] bytes;
+
+  public SerializedJson(boolean gzip) throws IOException {
+    this.gzipped = gzip;
+    MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new InternalError("MD5 MessageDigest is not available");
+    }
+    buffer = new ByteArrayOutputStream(64 * 1024);
+    OutputStream sink = gzip ? new GZIPOutputStream(buffer, 8 * 1024) : buffer;
+    digestStream = new DigestOutputStream(new CountingOutputStream(sink), md);
+    writer = new JsonWriter(new OutputStreamWriter(digestStream, UTF8));
+  }
+
+  /**
+   * Serializes a whole JSON tree.
+   */
+  public static SerializedJson of(JsonElement contents, boolean gzip) throws IOException {
+    SerializedJson result = new SerializedJson(gzip);
+    new Gson().toJson(contents, result.getWriter());
+    result.close();
+    return result;
+  }
+
+  /**
+   * Writer for the content. Must not be used after {@link #close()}.
+   */
+  public JsonWriter getWriter() {
+    return writer;
+  }
+
+  /**
+   * Finishes writing the content, calculating its digest.
+   */
+  public void close() throws IOException {
+    if (hash == null) {
+      writer.close();
+      hash = digestStream.getMessageDigest().digest();
+      bytes = buffer.toByteArray();
+    }
+  }
+
+  private void checkClosed() {
+    if (hash == null) {
+      throw new IllegalStateException("SerializedJson must be closed first");
+    }
+  }
+
+  /**
+   * MD5 digest of the uncompressed content.
+   */
+  public byte[] getHash() {
+    checkClosed();
+    return hash;
+  }
+
+  /**
+   * MD5 digest of the uncompressed content, in lowercase hexadecimal.
+   */
+  public String getHashHex() {
+    byte[] hash = getHash();
+    char[] result = new char[hash.length * 2];
+    for (int i = 0; i < hash.length; i++) {
+      result[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+      result[i * 2 + 1] = HEX[hash[i] & 0xf];
+    }
+    return new String(result);
+  }
+
+  /**
+   * Content as it should be uploaded, gzip'd if {@link #isGzipped()}.
+   */
+  public byte[] getBytes() {
+    checkClosed();
+    return bytes;
+  }
+
+  public boolean isGzipped() {
+    return gzipped;
+  }
+
+  public long getUncompressedSize() {
+    checkClosed();
+    return uncompressedSize;
+  }
+
+  /**
+   * Reads back the uncompressed content.
+   */
+  public Reader openReader() throws IOException {
+    checkClosed();
+    InputStream in = new ByteArrayInputStream(bytes);
+    if (gzipped) {
+      in = new GZIPInputStream(in);
+    }
+    return new InputStreamReader(in, UTF8);
+  }
+
+  /**
+   * Parses the content back into a JSON tree.
+   */
+  public JsonElement parse() throws IOException {
+    Reader reader = openReader();
+    try {
+      return new JsonParser().parse(reader);
+    } finally {
+      reader.close();
+    }
+  }
+
+  private class CountingOutputStream extends OutputStream {
+    private final OutputStream out;
+
+    CountingOutputStream(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      uncompressedSize++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      uncompressedSize += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+}
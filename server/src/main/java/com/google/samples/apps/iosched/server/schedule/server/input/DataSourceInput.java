@@ -18,12 +18,25 @@ package com.google.samples.apps.iosched.server.schedule.server.input;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParseException;
+import com.google.samples.apps.iosched.server.schedule.Config;
 import com.google.samples.apps.iosched.server.schedule.input.fetcher.EntityFetcher;
 import com.google.samples.apps.iosched.server.schedule.input.fetcher.VendorAPIEntityFetcher;
+import com.google.samples.apps.iosched.server.schedule.model.CompactJsonDataSource;
 import com.google.samples.apps.iosched.server.schedule.model.JsonDataSource;
 import com.google.samples.apps.iosched.server.schedule.model.JsonDataSources;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,6 +51,7 @@ public abstract class DataSourceInput<EnumType extends Enum<EnumType>> {
   public abstract Class<EnumType> getType();
 
   private EntityFetcher fetcher;
+  private LinkedHashMap<String, Long> fetchTimes = new LinkedHashMap<String, Long>();
 
   public DataSourceInput(EntityFetcher fetcher) {
     this.fetcher = fetcher;
@@ -52,17 +66,150 @@ public abstract class DataSourceInput<EnumType extends Enum<EnumType>> {
   }
 
   public JsonDataSources fetchAllDataSources() throws IOException {
+    fetchTimes.clear();
     JsonDataSources sources = new JsonDataSources();
     for (EnumType type: getType().getEnumConstants()) {
+      long start = System.currentTimeMillis();
       JsonArray data = fetch(type);
+      fetchTimes.put(type.name(), System.currentTimeMillis() - start);
       if (LOG.isLoggable(Level.INFO)) {
         LOG.info("result for "+type+": entities="+data.size());
       }
-      sources.addSource(new JsonDataSource(type, data));
+      sources.addSource(createDataSource(type, data));
     }
     return sources;
   }
 
+  /**
+   * Receives the data sources fetched by
+   * {@link DataSourceInput#fetchAllDataSources(ExecutorService, long, SourceConsumer)}.
+   */
+  public interface SourceConsumer {
+    void accept(JsonDataSource source) throws IOException;
+  }
+
+  /**
+   * Same as {@link #fetchAllDataSources()}, but fetches all entity types concurrently using the
+   * given executor, so that the total time is bound by the slowest type instead of the sum of
+   * all of them.
+   *
+   * <p>All types share a single deadline, {@code timeoutMillis} after the fetches are started:
+   * types that are not fetched by then time out and their fetches are cancelled. A type that
+   * fails or times out does not interrupt the others: all of them are waited for, and only then
+   * the first failure is thrown, with the remaining ones attached as suppressed exceptions.
+   *
+   * @param executor Executor used to run the fetches. The caller owns it and is responsible for
+   *     shutting it down.
+   * @param timeoutMillis Maximum time, in milliseconds, to wait for all entity types.
+   */
+  public JsonDataSources fetchAllDataSources(ExecutorService executor, long timeoutMillis)
+      throws IOException {
+    final JsonDataSources sources = new JsonDataSources();
+    fetchAllDataSources(executor, timeoutMillis, new SourceConsumer() {
+      @Override
+      public void accept(JsonDataSource source) {
+        sources.addSource(source);
+      }
+    });
+    return sources;
+  }
+
+  /**
+   * Same as {@link #fetchAllDataSources(ExecutorService, long)}, but instead of collecting the
+   * sources, hands each of them to the consumer as soon as it is fetched, in entity type order.
+   * Sources are not kept, so the consumer can write them somewhere and release them while the
+   * next types are still being fetched.
+   *
+   * <p>After a type fails, the following ones are still waited for but are not passed to the
+   * consumer. If the consumer throws, the remaining fetches are cancelled.
+   */
+  public void fetchAllDataSources(ExecutorService executor, long timeoutMillis,
+      SourceConsumer consumer) throws IOException {
+    fetchTimes.clear();
+    EnumType[] types = getType().getEnumConstants();
+    List<Future<TimedFetch>> futures = new ArrayList<Future<TimedFetch>>(types.length);
+    for (final EnumType type: types) {
+      futures.add(executor.submit(new Callable<TimedFetch>() {
+        @Override
+        public TimedFetch call() throws IOException {
+          long start = System.currentTimeMillis();
+          JsonArray data = fetch(type);
+          return new TimedFetch(data, System.currentTimeMillis() - start);
+        }
+      }));
+    }
+
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    IOException failure = null;
+    for (int i=0; i<types.length; i++) {
+      EnumType type = types[i];
+      Future<TimedFetch> future = futures.get(i);
+      // so that the fetched data can be released once consumed:
+      futures.set(i, null);
+      IOException error = null;
+      TimedFetch result = null;
+      try {
+        long remaining = Math.max(0, deadline - System.currentTimeMillis());
+        result = future.get(remaining, TimeUnit.MILLISECONDS);
+        fetchTimes.put(type.name(), result.elapsedMillis);
+        if (LOG.isLoggable(Level.INFO)) {
+          LOG.info("result for "+type+": entities="+result.data.size()
+              +" fetchTime="+result.elapsedMillis+"ms");
+        }
+      } catch (TimeoutException ex) {
+        future.cancel(true);
+        error = new IOException("Timed out fetching "+type+": all entity types must be "
+            +"fetched within "+timeoutMillis+"ms. Entity fetcher is "+getFetcher(), ex);
+      } catch (ExecutionException ex) {
+        error = new IOException("Error fetching "+type+". Entity fetcher is "+getFetcher(),
+            ex.getCause());
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        error = new IOException("Interrupted while fetching "+type, ex);
+      }
+      if (error != null) {
+        LOG.log(Level.SEVERE, error.getMessage(), error.getCause());
+        if (failure == null) {
+          failure = error;
+        } else {
+          failure.addSuppressed(error);
+        }
+      } else if (failure == null) {
+        boolean consumed = false;
+        try {
+          consumer.accept(createDataSource(type, result.data));
+          consumed = true;
+        } finally {
+          if (!consumed) {
+            for (Future<TimedFetch> pending: futures) {
+              if (pending != null) {
+                pending.cancel(true);
+              }
+            }
+          }
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Time taken to fetch each entity type in the last call to one of the
+   * {@code fetchAllDataSources} methods, in milliseconds, keyed by entity type name.
+   */
+  public Map<String, Long> getFetchTimes() {
+    return Collections.unmodifiableMap(fetchTimes);
+  }
+
+  private JsonDataSource createDataSource(EnumType type, JsonArray data) {
+    if (Config.COMPACT_DATA_SOURCES) {
+      return new CompactJsonDataSource(type, data);
+    }
+    return new JsonDataSource(type, data);
+  }
+
   public JsonArray fetch(EnumType entityType) throws IOException {
     JsonElement element = getFetcher().fetch(entityType, null);
     if (element == null) {
@@ -76,4 +223,13 @@ public abstract class DataSourceInput<EnumType extends Enum<EnumType>> {
           +". Entity fetcher is "+getFetcher());
     }  }
 
+  private static class TimedFetch {
+    final JsonArray data;
+    final long elapsedMillis;
+
+    TimedFetch(JsonArray data, long elapsedMillis) {
+      this.data = data;
+      this.elapsedMillis = elapsedMillis;
+    }
+  }
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.server.input;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import com.google.samples.apps.iosched.server.schedule.model.JsonDataSource;
+
+import java.io.IOException;
+
+/**
+ * Writes data sources as they are fetched, see
+ * {@link DataSourceInput#fetchAllDataSources(java.util.concurrent.ExecutorService, long,
+ * DataSourceInput.SourceConsumer)}, as a JSON object with the array of entities of each type,
+ * like __raw_session_data.json. Only one source is held in memory at a time.
+ *
+ * <p>A summary with the number of entities of each type is built while writing.
+ */
+public class RawDataWriter implements DataSourceInput.SourceConsumer {
+
+  private final JsonWriter writer;
+  private final Gson gson = new Gson();
+  private final StringBuilder summary = new StringBuilder();
+
+  public RawDataWriter(JsonWriter writer) throws IOException {
+    this.writer = writer;
+    writer.beginObject();
+  }
+
+  @Override
+  public void accept(JsonDataSource source) throws IOException {
+    String entity = source.getSourceType().name();
+    writer.name(entity);
+    writer.beginArray();
+    for (JsonObject obj: source) {
+      gson.toJson(obj, writer);
+    }
+    writer.endArray();
+    // so that clients start receiving data while the next source is fetched:
+    writer.flush();
+    summary.append(entity).append(": ").append(source.size())
+        .append(" (about ").append(source.getEstimatedSize() / 1024).append(" KB in memory)\n");
+  }
+
+  /**
+   * Ends the JSON object. The underlying writer is flushed but not closed.
+   */
+  public void finish() throws IOException {
+    writer.endObject();
+    writer.flush();
+  }
+
+  /**
+   * @return one line for each type written so far, with its number of entities.
+   */
+  public String getSummary() {
+    return summary.toString();
+  }
+}
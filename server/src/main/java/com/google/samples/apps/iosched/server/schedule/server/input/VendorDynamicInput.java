@@ -25,7 +25,14 @@ import com.google.samples.apps.iosched.server.schedule.input.fetcher.VendorAPIEn
 import com.google.samples.apps.iosched.server.schedule.model.InputJsonKeys;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Encapsulation of the VendorAPI fetcher.
@@ -33,6 +40,7 @@ import java.util.HashMap;
 public class VendorDynamicInput extends DataSourceInput<InputJsonKeys.VendorAPISource.MainTypes> {
 
   private boolean extractUnpublished = Config.SHOW_UNPUBLISHED_DATA;
+  private ExecutorService pageExecutor;
 
   public VendorDynamicInput() {
     super(new VendorAPIEntityFetcher());
@@ -46,6 +54,21 @@ public class VendorDynamicInput extends DataSourceInput<InputJsonKeys.VendorAPIS
     this.extractUnpublished = extractUnpublished;
   }
 
+  /**
+   * Set the executor used to fetch the second and following pages of paged results in
+   * parallel, once the first page tells how many there are. It is shared by all the entity
+   * types fetched at the same time, so its size bounds the total number of these page requests
+   * to the Vendor API, not the number per entity type. First pages are fetched by the entity
+   * type fetches themselves and don't count against it. If null (the default), pages are
+   * fetched sequentially.
+   *
+   * <p>This must not be the same executor given to {@link #fetchAllDataSources(ExecutorService,
+   * long)}, as entity fetches would then wait on pages queued behind them.
+   */
+  public void setPageExecutor(ExecutorService pageExecutor) {
+    this.pageExecutor = pageExecutor;
+  }
+
   @Override
   public Class<InputJsonKeys.VendorAPISource.MainTypes> getType() {
     return InputJsonKeys.VendorAPISource.MainTypes.class;
@@ -59,31 +82,11 @@ public class VendorDynamicInput extends DataSourceInput<InputJsonKeys.VendorAPIS
   public JsonArray fetchArray(InputJsonKeys.VendorAPISource.MainTypes entityType,
       int page) throws IOException {
 
-    HashMap<String, String> params = null;
-
-    if (entityType.equals(InputJsonKeys.VendorAPISource.MainTypes.topics) || entityType.equals(InputJsonKeys.VendorAPISource.MainTypes.speakers)) {
-      params = new HashMap<String, String>();
-
-      // Topics and speakers require param "includeinfo=true" to bring extra data
-      params.put("includeinfo", "true");
-
-      if (entityType.equals(InputJsonKeys.VendorAPISource.MainTypes.topics)) {
-        if (extractUnpublished) {
-          params.put("minpublishstatus", "0");
-        }
-      }
-    }
-
     if (page == 0) {
       page = 1;
-    } else if (page > 1) {
-      if (params == null) {
-        params = new HashMap<String, String>();
-      }
-      params.put("page", Integer.toString(page));
     }
 
-    JsonElement element = getFetcher().fetch(entityType, params);
+    JsonElement element = getFetcher().fetch(entityType, getParams(entityType, page));
 
     if (element.isJsonArray()) {
         return element.getAsJsonArray();
@@ -96,8 +99,12 @@ public class VendorDynamicInput extends DataSourceInput<InputJsonKeys.VendorAPIS
       int totalEntities = obj.get("total").getAsInt();
       JsonArray elements = getEntities(obj);
       if (page*pageSize < totalEntities) {
-        // fetch the next page
-        elements.addAll(fetchArray(entityType, page+1));
+        // fetch the remaining pages
+        int lastPage = (totalEntities + pageSize - 1) / pageSize;
+        for (JsonArray pageElements: fetchPages(entityType, page+1, lastPage, pageSize,
+            totalEntities)) {
+          elements.addAll(pageElements);
+        }
       }
       return elements;
     } else {
@@ -107,6 +114,103 @@ public class VendorDynamicInput extends DataSourceInput<InputJsonKeys.VendorAPIS
     }
   }
 
+  /**
+   * Fetch pages {@code firstPage} to {@code lastPage}, inclusive, returning their entities in
+   * page order. If a page executor is set, pages are fetched in parallel on it, otherwise one
+   * after the other.
+   */
+  private List<JsonArray> fetchPages(final InputJsonKeys.VendorAPISource.MainTypes entityType,
+      int firstPage, int lastPage, final int pageSize, final int totalEntities)
+      throws IOException {
+    List<JsonArray> result = new ArrayList<JsonArray>(lastPage - firstPage + 1);
+    if (pageExecutor == null) {
+      for (int page = firstPage; page <= lastPage; page++) {
+        result.add(fetchPage(entityType, page, pageSize, totalEntities));
+      }
+      return result;
+    }
+
+    List<Future<JsonArray>> futures = new ArrayList<Future<JsonArray>>(lastPage - firstPage + 1);
+    for (int page = firstPage; page <= lastPage; page++) {
+      final int requestedPage = page;
+      futures.add(pageExecutor.submit(new Callable<JsonArray>() {
+        @Override
+        public JsonArray call() throws IOException {
+          return fetchPage(entityType, requestedPage, pageSize, totalEntities);
+        }
+      }));
+    }
+    try {
+      for (Future<JsonArray> future: futures) {
+        result.add(future.get());
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while paging "+entityType+" results");
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException("Error paging "+entityType+" results", cause);
+    } finally {
+      // no-op for pages already fetched, stops the others if we are bailing out
+      for (Future<JsonArray> future: futures) {
+        future.cancel(true);
+      }
+    }
+    return result;
+  }
+
+  private JsonArray fetchPage(InputJsonKeys.VendorAPISource.MainTypes entityType,
+      int page, int pageSize, int totalEntities) throws IOException {
+    JsonElement element = getFetcher().fetch(entityType, getParams(entityType, page));
+    if (!element.isJsonObject()) {
+      throw new JsonParseException("Invalid response from Vendor API when"
+          + "paging "+entityType+" results. Expected a JsonObject for page "+page
+          +", but got "+element.getClass().getName());
+    }
+    JsonObject obj = element.getAsJsonObject();
+    checkPagingConsistency(entityType, page, obj);
+    // Pages are requested based on the first response, so they are only consistent if the
+    // page size and total number of entities didn't change in the meantime:
+    if (obj.get("pagesize").getAsInt() != pageSize || obj.get("total").getAsInt() != totalEntities) {
+      throw new JsonParseException("Invalid response from Vendor API when"
+          + "paging "+entityType+" results. Page "+page+" has pagesize="+obj.get("pagesize")
+          +" and total="+obj.get("total")+", but first page had pagesize="+pageSize
+          +" and total="+totalEntities);
+    }
+    return getEntities(obj);
+  }
+
+  private HashMap<String, String> getParams(InputJsonKeys.VendorAPISource.MainTypes entityType,
+      int page) {
+    HashMap<String, String> params = null;
+
+    if (entityType.equals(InputJsonKeys.VendorAPISource.MainTypes.topics) || entityType.equals(InputJsonKeys.VendorAPISource.MainTypes.speakers)) {
+      params = new HashMap<String, String>();
+
+      // Topics and speakers require param "includeinfo=true" to bring extra data
+      params.put("includeinfo", "true");
+
+      if (entityType.equals(InputJsonKeys.VendorAPISource.MainTypes.topics)) {
+        if (extractUnpublished) {
+          params.put("minpublishstatus", "0");
+        }
+      }
+    }
+
+    if (page > 1) {
+      if (params == null) {
+        params = new HashMap<String, String>();
+      }
+      params.put("page", Integer.toString(page));
+    }
+    return params;
+  }
+
   private void checkPagingConsistency(InputJsonKeys.VendorAPISource.MainTypes entityType,
       int requestedPage, JsonObject obj) {
     if (!obj.has("page") || !obj.has("pagesize") || !obj.has("total") ||
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.server.input.fetcher;
+
+import com.google.samples.apps.iosched.server.schedule.model.JsonEntityStreams;
+import com.google.samples.apps.iosched.server.schedule.server.cloudstorage.CloudFileManager;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * JsonEntityStreams that reads entities from a single file stored in CloudStorage.
+ */
+public class CloudStorageEntityStreams extends JsonEntityStreams {
+
+  private CloudFileManager fileManager;
+  private String filename;
+  // ETag of the file when it was first opened, to detect changes between openings:
+  private String etag;
+  private boolean opened;
+
+  public CloudStorageEntityStreams(String filename) {
+    this.fileManager = new CloudFileManager();
+    this.filename = filename;
+  }
+
+  @Override
+  protected Reader openReader() throws IOException {
+    checkUnchanged();
+    return fileManager.openFileReader(filename);
+  }
+
+  /**
+   * Compares the ETag of the file with the one it had when it was first opened. If it is the
+   * same after everything was read, no opening read another version of the file: each upload
+   * gets a new ETag.
+   */
+  @Override
+  public void checkUnchanged() throws IOException {
+    String current = fileManager.getFileETag(filename);
+    if (!opened) {
+      etag = current;
+      opened = true;
+    } else if (etag == null ? current != null : !etag.equals(current)) {
+      throw new IOException(filename+" changed while being read (ETag "+etag+" is now "
+          +current+")");
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "CloudStorageEntityStreams(filename="+filename+")";
+  }
+}
@@ -18,12 +18,15 @@ package com.google.samples.apps.iosched.server.schedule.server.input.fetcher;
 import com.google.appengine.api.utils.SystemProperty;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.google.samples.apps.iosched.server.schedule.Config;
 import com.google.samples.apps.iosched.server.schedule.input.fetcher.EntityFetcher;
 import com.google.samples.apps.iosched.server.schedule.input.fetcher.RemoteJsonHelper;
+import com.google.samples.apps.iosched.server.schedule.server.InputFingerprint;
 import com.google.samples.apps.iosched.server.schedule.server.cloudstorage.CloudFileManager;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -39,24 +42,39 @@ public class CloudStorageRemoteFilesEntityFetcher implements EntityFetcher {
   private CloudFileManager fileManager;
   private String[] filenames;
   private JsonObject object;
+  private InputFingerprint fingerprint;
 
   public CloudStorageRemoteFilesEntityFetcher(String... filenames) {
     this.fileManager = new CloudFileManager();
     this.filenames = filenames;
   }
 
+  /**
+   * Digests the files into the given fingerprint as they are read.
+   */
+  public CloudStorageRemoteFilesEntityFetcher(InputFingerprint fingerprint, String... filenames) {
+    this(filenames);
+    this.fingerprint = fingerprint;
+  }
+
   @Override
-  public JsonElement fetch(Enum<?> entityType, Map<String, String> params)
+  public synchronized JsonElement fetch(Enum<?> entityType, Map<String, String> params)
       throws IOException {
-    // On the first call, read all the files
+    // On the first call, read all the files. Synchronized because DataSourceInput may
+    // fetch several entity types concurrently from the same fetcher.
     if (object == null) {
       object = new JsonObject();
       for (String filename: filenames) {
-        JsonObject obj = fileManager.readFileAsJsonObject(filename);
-        if (obj == null &&
-            SystemProperty.environment.value() == SystemProperty.Environment.Value.Development) {
-          // In the development server, cloud storage files cannot be directly accessed.
-          obj = RemoteJsonHelper.fetchJsonFromPublicURL(Config.CLOUD_STORAGE_BASE_URL + filename);
+        JsonObject obj;
+        if (fingerprint != null) {
+          obj = readDigesting(filename);
+        } else {
+          obj = fileManager.readFileAsJsonObject(filename);
+          if (obj == null &&
+              SystemProperty.environment.value() == SystemProperty.Environment.Value.Development) {
+            // In the development server, cloud storage files cannot be directly accessed.
+            obj = RemoteJsonHelper.fetchJsonFromPublicURL(Config.CLOUD_STORAGE_BASE_URL + filename);
+          }
         }
         if (obj == null) {
           LOGGER.warning("Could not find file "+filename);
@@ -70,6 +88,20 @@ public class CloudStorageRemoteFilesEntityFetcher implements EntityFetcher {
     return object.get(entityType.name());
   }
 
+  private JsonObject readDigesting(String filename) throws IOException {
+    Reader reader = fileManager.openFileReader(filename);
+    if (reader == null) {
+      fingerprint.add(filename, null);
+      return null;
+    }
+    reader = fingerprint.digesting(filename, reader);
+    try {
+      return new JsonParser().parse(reader).getAsJsonObject();
+    } finally {
+      reader.close();
+    }
+  }
+
   @Override
   public String toString() {
     return "CloudStorageEntityFetcher(filenames="+Arrays.toString(filenames)+")";
@@ -15,24 +15,26 @@
  */
 package com.google.samples.apps.iosched.server.schedule.server.servlet;
 
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.mail.MailService.Message;
 import com.google.appengine.api.mail.MailServiceFactory;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
 import com.google.gson.stream.JsonWriter;
 import com.google.samples.apps.iosched.server.schedule.Config;
-import com.google.samples.apps.iosched.server.schedule.model.JsonDataSource;
-import com.google.samples.apps.iosched.server.schedule.model.JsonDataSources;
 import com.google.samples.apps.iosched.server.schedule.server.cloudstorage.CloudFileManager;
+import com.google.samples.apps.iosched.server.schedule.server.input.RawDataWriter;
 import com.google.samples.apps.iosched.server.schedule.server.input.VendorDynamicInput;
+import com.google.samples.apps.iosched.server.schedule.server.input.VendorStaticInput;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
-import java.nio.channels.Channels;
 import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -68,7 +70,7 @@ public class CMSUpdateServlet extends HttpServlet {
     }
     boolean showOnly = "true".equals(req.getParameter("show"));
     if (showOnly) {
-      process(resp, true);
+      process(req, resp, true);
     } else {
       redirectToConfirmationPage(req, resp);
     }
@@ -85,38 +87,53 @@ public class CMSUpdateServlet extends HttpServlet {
       redirectToConfirmationPage(req, resp);
       return;
     }
-    process(resp, false);
+    process(req, resp, false);
 
   }
-  private void process(HttpServletResponse resp, boolean showOnly) throws IOException {
+  /**
+   * Fetches all the Vendor API entities and writes them, one type at a time as they are
+   * fetched, to the response or to the raw session data file in CloudStorage.
+   */
+  private void process(HttpServletRequest req, HttpServletResponse resp, boolean showOnly)
+      throws IOException {
     // everything ok, let's update
-    StringBuilder summary = new StringBuilder();
-    JsonObject contents = new JsonObject();
-    JsonDataSources sources = new VendorDynamicInput().fetchAllDataSources();
-    for (String entity: sources) {
-      JsonArray array = new JsonArray();
-      JsonDataSource source = sources.getSource(entity);
-      for (JsonObject obj: source) {
-        array.add(obj);
-      }
-      summary.append(entity).append(": ").append(source.size()).append("\n");
-      contents.add(entity, array);
-    }
-
+    OutputStream out;
     if (showOnly) {
       // Show generated contents to the output
       resp.setContentType("application/json");
-      Writer writer = Channels.newWriter(Channels.newChannel(resp.getOutputStream()), "UTF-8");
-      JsonWriter outputWriter = new JsonWriter(writer);
-      outputWriter.setIndent("  ");
-      new Gson().toJson(contents, outputWriter);
-      outputWriter.flush();
-
+      resp.setCharacterEncoding("UTF-8");
+      String acceptEncoding = req.getHeader("Accept-Encoding");
+      if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+        resp.setHeader("Content-Encoding", "gzip");
+        out = new GZIPOutputStream(resp.getOutputStream());
+      } else {
+        out = resp.getOutputStream();
+      }
     } else {
-      // Write file to cloud storage
-      CloudFileManager fileManager = new CloudFileManager();
-      fileManager.createOrUpdate("__raw_session_data.json", contents, true);
+      // The file is only written to cloud storage when closed, after all types were fetched:
+      out = new CloudFileManager().openForWrite(VendorStaticInput.RAW_SESSION_DATA_FILE, true,
+          Config.GZIP_DATA_FILES);
+    }
+    Writer writer = new OutputStreamWriter(out, "UTF-8");
+    RawDataWriter rawData = new RawDataWriter(new JsonWriter(writer));
+
+    ExecutorService fetchExecutor = Executors.newFixedThreadPool(Config.FETCH_MAX_THREADS,
+        ThreadManager.currentRequestThreadFactory());
+    ExecutorService pageExecutor = Executors.newFixedThreadPool(Config.FETCH_MAX_PAGE_THREADS,
+        ThreadManager.currentRequestThreadFactory());
+    try {
+      VendorDynamicInput vendorInput = new VendorDynamicInput();
+      vendorInput.setPageExecutor(pageExecutor);
+      vendorInput.fetchAllDataSources(fetchExecutor, Config.FETCH_TIMEOUT_MILLIS, rawData);
+    } finally {
+      fetchExecutor.shutdownNow();
+      pageExecutor.shutdownNow();
+    }
+    rawData.finish();
+    writer.close();
+    String summary = rawData.getSummary();
 
+    if (!showOnly) {
       // send email
       Message message = new Message();
       message.setSender(Config.EMAIL_FROM);
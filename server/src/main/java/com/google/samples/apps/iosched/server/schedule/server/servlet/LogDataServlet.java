@@ -22,6 +22,7 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import com.google.samples.apps.iosched.server.schedule.server.UpdateRunLogger;
+import com.google.samples.apps.iosched.server.schedule.server.UpdateRunMetrics;
 import com.google.samples.apps.iosched.server.schedule.server.cloudstorage.CloudFileManager;
 
 import java.io.IOException;
@@ -58,12 +59,25 @@ public class LogDataServlet extends HttpServlet {
     for (Entity run: lastRunsEntities) {
       JsonObject obj= new JsonObject();
       JsonObject timings = new JsonObject();
+      JsonObject timingsNanos = new JsonObject();
+      JsonObject bytes = new JsonObject();
+      JsonObject counts = new JsonObject();
       TreeMap<String, Object> sortedMap = new TreeMap<String, Object>(run.getProperties());
       for (Entry<String, Object> property: sortedMap.entrySet()) {
         Object value = property.getValue();
         String key = property.getKey();
         if (key.startsWith("time_")) {
+          // saved by older versions of the updater, in milliseconds
           timings.add(key.substring("time_".length()), new JsonPrimitive((Number) value));
+        } else if (key.startsWith(UpdateRunMetrics.NANOS_PREFIX)) {
+          timingsNanos.add(key.substring(UpdateRunMetrics.NANOS_PREFIX.length()),
+              new JsonPrimitive((Number) value));
+        } else if (key.startsWith(UpdateRunMetrics.BYTES_PREFIX)) {
+          bytes.add(key.substring(UpdateRunMetrics.BYTES_PREFIX.length()),
+              new JsonPrimitive((Number) value));
+        } else if (key.startsWith(UpdateRunMetrics.COUNT_PREFIX)) {
+          counts.add(key.substring(UpdateRunMetrics.COUNT_PREFIX.length()),
+              new JsonPrimitive((Number) value));
         } else {
           JsonPrimitive converted = null;
           if (value instanceof ShortBlob) {
@@ -84,7 +98,12 @@ public class LogDataServlet extends HttpServlet {
           }
         }
       }
-      obj.add("timings", timings);
+      if (timings.entrySet().size() > 0) {
+        obj.add("timings", timings);
+      }
+      obj.add("timingsNanos", timingsNanos);
+      obj.add("bytes", bytes);
+      obj.add("counts", counts);
       lastRuns.add(obj);
     }
     response.add("lastruns", lastRuns);
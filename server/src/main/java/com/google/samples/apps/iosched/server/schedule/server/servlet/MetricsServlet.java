@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.server.servlet;
+
+import com.google.gson.GsonBuilder;
+import com.google.samples.apps.iosched.server.schedule.Config;
+import com.google.samples.apps.iosched.server.schedule.server.UpdateRunLogger;
+import com.google.samples.apps.iosched.server.schedule.server.UpdateRunMetrics;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the metrics of the most recent Updater runs, see {@link UpdateRunMetrics}, as JSON or,
+ * with format=prometheus, in the Prometheus text format.
+ */
+public class MetricsServlet extends HttpServlet {
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    int limitElements = Config.METRICS_RUNS;
+    if (req.getParameter("limit")!=null) {
+      limitElements = Integer.parseInt(req.getParameter("limit"));
+    }
+    UpdateRunMetrics metrics = UpdateRunMetrics.fromRuns(
+        new UpdateRunLogger().getMostRecentRuns(limitElements));
+
+    resp.setHeader("Cache-Control", "no-cache");
+    if ("prometheus".equals(req.getParameter("format"))) {
+      resp.setContentType("text/plain; version=0.0.4");
+      resp.setCharacterEncoding("UTF-8");
+      metrics.writePrometheus(resp.getWriter());
+    } else {
+      resp.setContentType("application/json");
+      new GsonBuilder()
+        .setPrettyPrinting()
+        .disableHtmlEscaping()
+        .create().toJson(metrics.toJson(), resp.getWriter());
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.gcm.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.samples.apps.iosched.server.gcm.db.models.Device;
+import com.googlecode.objectify.ObjectifyService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class DeviceStoreTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+    private Closeable session;
+
+    @Before
+    public void setUp() {
+        helper.setUp();
+        session = ObjectifyService.begin();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        session.close();
+        helper.tearDown();
+    }
+
+    private static void saveDevice(String gcmId, String gcmGroupId) {
+        Device device = new Device();
+        device.setGcmId(gcmId);
+        device.setGcmGroupId(gcmGroupId);
+        OfyService.ofy().save().entity(device).now();
+    }
+
+    @Test
+    public void testUpdateRegistrations() {
+        saveDevice("a", "group-a");
+        saveDevice("b", "group-b");
+        saveDevice("c", "group-c");
+        Map<String, String> newGcmIds = new LinkedHashMap<String, String>();
+        newGcmIds.put("a", "a2");
+        newGcmIds.put("b", "b2");
+        newGcmIds.put("unknown", "unknown2");
+
+        assertEquals(2, DeviceStore.updateRegistrations(newGcmIds));
+        OfyService.ofy().clear();
+        assertNull(DeviceStore.findDeviceByGcmId("a"));
+        assertNull(DeviceStore.findDeviceByGcmId("b"));
+        assertNull(DeviceStore.findDeviceByGcmId("unknown2"));
+        assertEquals("group-a", DeviceStore.findDeviceByGcmId("a2").getGcmGroupId());
+        assertEquals("group-b", DeviceStore.findDeviceByGcmId("b2").getGcmGroupId());
+        assertEquals("group-c", DeviceStore.findDeviceByGcmId("c").getGcmGroupId());
+        assertEquals(3, DeviceStore.getDeviceCount());
+    }
+
+    @Test
+    public void testUpdateRegistrationsToIdOfAnotherDeviceInBatch() {
+        saveDevice("a", "group-a");
+        saveDevice("b", "group-b");
+        // a takes the id that b had, b gets a new one:
+        Map<String, String> newGcmIds = new LinkedHashMap<String, String>();
+        newGcmIds.put("a", "b");
+        newGcmIds.put("b", "c");
+
+        assertEquals(2, DeviceStore.updateRegistrations(newGcmIds));
+        OfyService.ofy().clear();
+        assertNull(DeviceStore.findDeviceByGcmId("a"));
+        Device b = DeviceStore.findDeviceByGcmId("b");
+        assertEquals("group-a", b.getGcmGroupId());
+        assertEquals("group-b", DeviceStore.findDeviceByGcmId("c").getGcmGroupId());
+        assertEquals(2, DeviceStore.getDeviceCount());
+    }
+
+    @Test
+    public void testUpdateRegistrationsOfNoDevice() {
+        assertEquals(0, DeviceStore.updateRegistrations(new LinkedHashMap<String, String>()));
+        Map<String, String> newGcmIds = new LinkedHashMap<String, String>();
+        newGcmIds.put("unknown", "unknown2");
+        assertEquals(0, DeviceStore.updateRegistrations(newGcmIds));
+        assertEquals(0, DeviceStore.getDeviceCount());
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.server.gcm.device;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.samples.apps.iosched.server.gcm.device.GcmRateLimiter.Bucket;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+public class GcmRateLimiterTest {
+
+    @Test
+    public void testTakeAndRefill() {
+        Bucket bucket = new Bucket(100, 0);
+        assertEquals(0, GcmRateLimiter.take(bucket, 60, 100, 0));
+        // 40 tokens left, 20 more after 200ms
+        assertEquals(0, GcmRateLimiter.take(bucket, 60, 100, 200));
+        assertEquals(0.0, bucket.tokens, 0.001);
+        // needs 50 tokens, half a second
+        assertEquals(500, GcmRateLimiter.take(bucket, 50, 100, 200));
+        assertEquals(0, GcmRateLimiter.take(bucket, 50, 100, 700));
+    }
+
+    @Test
+    public void testRefillIsCappedAtCapacity() {
+        Bucket bucket = new Bucket(0, 0);
+        GcmRateLimiter.take(bucket, 0, 100, 60000);
+        assertEquals(100.0, bucket.tokens, 0.001);
+    }
+
+    @Test
+    public void testBigMessageNeedsFullBucketAndLeavesDebt() {
+        Bucket bucket = new Bucket(100, 0);
+        assertEquals(0, GcmRateLimiter.take(bucket, 1000, 100, 0));
+        assertEquals(-900.0, bucket.tokens, 0.001);
+        // the debt must be paid back before the next message
+        assertEquals(9010, GcmRateLimiter.take(bucket, 1, 100, 0));
+    }
+
+    @Test
+    public void testLanes() {
+        GcmRateLimiter limiter = new GcmRateLimiter(10, 0, Collections.singleton("sync_user"));
+        assertEquals(GcmRateLimiter.LANE_PRIORITY, limiter.getLane("sync_user"));
+        assertEquals(GcmRateLimiter.LANE_BULK, limiter.getLane("sync_schedule"));
+        // no limit on the priority lane, so memcache isn't needed
+        assertEquals(0, limiter.acquire("sync_user", 1000, 0));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.server.gcm.device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+public class PushCoalescerTest {
+
+    private static final String KEY = PushCoalescer.key("global", "sync_schedule", "{}");
+
+    private Map<Object, Object> values;
+    private Expiration lastExpiration;
+    private MemcacheService memcache;
+
+    /**
+     * A memcache with only the calls used by the coalescer, backed by a map.
+     */
+    @Before
+    public void setUp() {
+        values = new HashMap<Object, Object>();
+        memcache = (MemcacheService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {MemcacheService.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if ("get".equals(name) && args.length == 1) {
+                            return values.get(args[0]);
+                        }
+                        if ("delete".equals(name) && args.length == 1) {
+                            return values.remove(args[0]) != null;
+                        }
+                        if ("put".equals(name) && args.length == 4
+                                && args[3] == MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT) {
+                            lastExpiration = (Expiration) args[2];
+                            if (values.containsKey(args[0])) {
+                                return false;
+                            }
+                            values.put(args[0], args[1]);
+                            return true;
+                        }
+                        throw new UnsupportedOperationException(method.toString());
+                    }
+                });
+    }
+
+    @Test
+    public void testSameRequestsHaveSameKey() {
+        assertEquals(PushCoalescer.key("global", "sync_schedule", "{\"a\":1}"),
+                PushCoalescer.key("global", "sync_schedule", "{\"a\":1}"));
+        assertEquals(PushCoalescer.key("global", "sync_schedule", null),
+                PushCoalescer.key("global", "sync_schedule", ""));
+    }
+
+    @Test
+    public void testDifferentRequestsHaveDifferentKeys() {
+        String key = PushCoalescer.key("global", "sync_schedule", "{\"a\":1}");
+        assertNotEquals(key, PushCoalescer.key("global", "sync_schedule", "{\"a\":2}"));
+        assertNotEquals(key, PushCoalescer.key("global", "sync_user", "{\"a\":1}"));
+        assertNotEquals(key, PushCoalescer.key("self", "sync_schedule", "{\"a\":1}"));
+    }
+
+    @Test
+    public void testDuplicatesJoinRunningJobUntilReleased() {
+        PushCoalescer coalescer = new PushCoalescer(memcache, 3600);
+        assertNull(coalescer.claim(KEY, "job-1", RolloutSchedule.SINGLE_WAVE));
+        assertEquals("job-1", coalescer.claim(KEY, "job-2", RolloutSchedule.SINGLE_WAVE));
+        assertEquals("job-1", coalescer.claim(KEY, "job-3", RolloutSchedule.SINGLE_WAVE));
+
+        // Only the job holding the claim can release it
+        coalescer.release(KEY, "job-2");
+        assertEquals("job-1", coalescer.claim(KEY, "job-4", RolloutSchedule.SINGLE_WAVE));
+
+        coalescer.release(KEY, "job-1");
+        assertNull(coalescer.claim(KEY, "job-5", RolloutSchedule.SINGLE_WAVE));
+        assertEquals("job-5", values.get(KEY));
+    }
+
+    @Test
+    public void testClaimOutlivesRollout() {
+        PushCoalescer coalescer = new PushCoalescer(memcache, 3600);
+        // 4 waves, 10 minutes apart: the last one starts 30 minutes after the first
+        assertNull(coalescer.claim(KEY, "rollout", new RolloutSchedule(4, 600, 0, 1)));
+        assertTrue(lastExpiration.getMillisecondsValue() >= (3600 + 1800) * 1000L);
+    }
+
+    @Test
+    public void testDisabledNeverCoalesces() {
+        PushCoalescer coalescer = new PushCoalescer(memcache, 0);
+        assertNull(coalescer.claim(KEY, "job-1", RolloutSchedule.SINGLE_WAVE));
+        assertNull(coalescer.claim(KEY, "job-2", RolloutSchedule.SINGLE_WAVE));
+        assertTrue(values.isEmpty());
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.gcm.device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.appengine.api.taskqueue.dev.LocalTaskQueue;
+import com.google.appengine.api.taskqueue.dev.QueueStateInfo.TaskStateInfo;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.samples.apps.iosched.server.gcm.db.DeviceStore;
+import com.google.samples.apps.iosched.server.gcm.db.OfyService;
+import com.google.samples.apps.iosched.server.gcm.db.models.Device;
+import com.googlecode.objectify.ObjectifyService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+public class RegistrationUpdatesTest {
+
+    private final LocalServiceTestHelper helper = new LocalServiceTestHelper(
+            new LocalDatastoreServiceTestConfig(),
+            new LocalMemcacheServiceTestConfig(),
+            new LocalTaskQueueTestConfig()
+                    .setQueueXmlPath("src/main/webapp/WEB-INF/queue.xml")
+                    .setDisableAutoTaskExecution(true));
+    private Closeable session;
+
+    @Before
+    public void setUp() {
+        helper.setUp();
+        session = ObjectifyService.begin();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        session.close();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testDeferredUpdatesAreAppliedByTasks() throws Exception {
+        RegistrationUpdates updates = new RegistrationUpdates();
+        int devices = RegistrationUpdates.MAX_DEVICES_PER_TASK + 10;
+        for (int i = 0; i < devices; i++) {
+            saveDevice("old" + i, "group" + i);
+            updates.addCanonicalId("old" + i, "new" + i);
+        }
+        saveDevice("uninstalled", "group");
+        updates.addNotRegistered("uninstalled");
+        updates.defer();
+
+        List<TaskStateInfo> tasks = getQueuedTasks();
+        assertEquals(2, tasks.size());
+        for (TaskStateInfo task : tasks) {
+            assertEquals(RegistrationUpdates.UPDATES_URL, task.getUrl());
+            RegistrationUpdates.fromTask(newTaskRequest(task.getBody())).apply();
+        }
+
+        OfyService.ofy().clear();
+        for (int i = 0; i < devices; i++) {
+            assertNull(DeviceStore.findDeviceByGcmId("old" + i));
+            assertEquals("group" + i, DeviceStore.findDeviceByGcmId("new" + i).getGcmGroupId());
+        }
+        assertNull(DeviceStore.findDeviceByGcmId("uninstalled"));
+        Map<String, Object> counters = RegistrationUpdates.getCounters();
+        assertEquals((long) devices, counters.get(RegistrationUpdates.COUNTER_REWRITTEN));
+        assertEquals(1L, counters.get(RegistrationUpdates.COUNTER_REMOVED));
+    }
+
+    @Test
+    public void testNothingToDefer() {
+        new RegistrationUpdates().defer();
+        assertEquals(0, getQueuedTasks().size());
+    }
+
+    private static void saveDevice(String gcmId, String gcmGroupId) {
+        Device device = new Device();
+        device.setGcmId(gcmId);
+        device.setGcmGroupId(gcmGroupId);
+        OfyService.ofy().save().entity(device).now();
+    }
+
+    private static List<TaskStateInfo> getQueuedTasks() {
+        LocalTaskQueue taskQueue = LocalTaskQueueTestConfig.getLocalTaskQueue();
+        return taskQueue.getQueueStateInfo().get(RegistrationUpdates.QUEUE_NAME).getTaskInfo();
+    }
+
+    /**
+     * A request with the parameters of a task, decoded from its form encoded body.
+     */
+    private static HttpServletRequest newTaskRequest(String body)
+            throws UnsupportedEncodingException {
+        final Map<String, List<String>> params = new HashMap<String, List<String>>();
+        for (String param : body.split("&")) {
+            int separator = param.indexOf('=');
+            String name = URLDecoder.decode(param.substring(0, separator), "UTF-8");
+            if (!params.containsKey(name)) {
+                params.put(name, new ArrayList<String>());
+            }
+            params.get(name).add(URLDecoder.decode(param.substring(separator + 1), "UTF-8"));
+        }
+        return (HttpServletRequest) Proxy.newProxyInstance(
+                RegistrationUpdatesTest.class.getClassLoader(),
+                new Class<?>[] {HttpServletRequest.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("getParameterValues".equals(method.getName())) {
+                            List<String> values = params.get(args[0]);
+                            return values == null ? null : values.toArray(new String[0]);
+                        }
+                        throw new UnsupportedOperationException(method.toString());
+                    }
+                });
+    }
+}
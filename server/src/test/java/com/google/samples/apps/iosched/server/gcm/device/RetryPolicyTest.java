@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.server.gcm.device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appengine.api.taskqueue.QueueConstants;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class RetryPolicyTest {
+
+    /** Always returns the same value, to get the shortest or the longest delays. */
+    @SuppressWarnings("serial")
+    private static class FixedRandom extends Random {
+        private final double value;
+
+        FixedRandom(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public double nextDouble() {
+            return value;
+        }
+    }
+
+    @Test
+    public void testExponentialDelays() {
+        RetryPolicy shortest = new RetryPolicy(5, 1000, 60000, new FixedRandom(0));
+        RetryPolicy longest = new RetryPolicy(5, 1000, 60000, new FixedRandom(0.999999));
+        assertEquals(500, shortest.getDelayMillis(1, 0));
+        assertEquals(999, longest.getDelayMillis(1, 0));
+        assertEquals(2000, shortest.getDelayMillis(3, 0));
+        assertEquals(3999, longest.getDelayMillis(3, 0));
+        // capped at the max delay, even after many attempts
+        assertEquals(30000, shortest.getDelayMillis(40, 0));
+        assertEquals(59999, longest.getDelayMillis(40, 0));
+    }
+
+    @Test
+    public void testRetryAfterIsMinimumDelay() {
+        RetryPolicy policy = new RetryPolicy(5, 1000, 60000, new FixedRandom(0));
+        assertEquals(120000, policy.getDelayMillis(1, 120000));
+        assertEquals(2000, policy.getDelayMillis(3, 100));
+        // but no longer than the task queue can wait:
+        assertEquals(QueueConstants.getMaxEtaDeltaMillis(),
+                policy.getDelayMillis(1, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testMaxAttempts() {
+        RetryPolicy policy = new RetryPolicy(3, 1000, 60000);
+        assertTrue(policy.canRetry(2));
+        assertFalse(policy.canRetry(3));
+    }
+
+    @Test
+    public void testParseRetryAfter() {
+        assertEquals(0, RetryPolicy.parseRetryAfter(null, 0));
+        assertEquals(0, RetryPolicy.parseRetryAfter("soon", 0));
+        assertEquals(120000, RetryPolicy.parseRetryAfter(" 120 ", 0));
+        // Thu, 01 Jan 1970 00:01:40 GMT is 100 seconds after the epoch
+        assertEquals(90000,
+                RetryPolicy.parseRetryAfter("Thu, 01 Jan 1970 00:01:40 GMT", 10000));
+        assertEquals(0, RetryPolicy.parseRetryAfter("Thu, 01 Jan 1970 00:01:40 GMT", 200000));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.server.gcm.device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RolloutScheduleTest {
+
+    @Test
+    public void testCohortsAreStableAndBalanced() {
+        RolloutSchedule schedule = new RolloutSchedule(4, 600, 300, 0.2);
+        int[] counts = new int[4];
+        for (int i = 0; i < 4000; i++) {
+            String gcmId = "APA91b-device-" + i;
+            int cohort = schedule.getCohort(gcmId);
+            assertEquals(cohort, schedule.getCohort(gcmId));
+            counts[cohort]++;
+        }
+        for (int count : counts) {
+            assertTrue("unbalanced cohort: " + count, count > 800 && count < 1200);
+        }
+    }
+
+    @Test
+    public void testWaveDelays() {
+        RolloutSchedule schedule = new RolloutSchedule(3, 600, 300, 0.2);
+        assertEquals(0, schedule.getWaveDelayMillis(0));
+        assertEquals(1200000, schedule.getWaveDelayMillis(2));
+    }
+
+    @Test
+    public void testParse() {
+        assertSame(RolloutSchedule.SINGLE_WAVE, RolloutSchedule.parse(null, null, "", null));
+        RolloutSchedule schedule = RolloutSchedule.parse("5", "60", null, "0.1");
+        assertEquals(5, schedule.getWaves());
+        assertEquals(60, schedule.getWaveDelaySeconds());
+        assertEquals(0, schedule.getJitterSeconds());
+        assertTrue(schedule.isStaged());
+        assertFalse(RolloutSchedule.SINGLE_WAVE.isStaged());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseTooManyWaves() {
+        RolloutSchedule.parse("1000", null, null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalidNumber() {
+        RolloutSchedule.parse("four", null, null, null);
+    }
+
+    @Test
+    public void testErrorRate() {
+        RolloutSchedule schedule = new RolloutSchedule(2, 60, 60, 0.2);
+        assertFalse(schedule.isErrorRateExceeded(1000, 200));
+        assertTrue(schedule.isErrorRateExceeded(1000, 201));
+        // too few results to tell
+        assertFalse(schedule.isErrorRateExceeded(10, 10));
+    }
+
+    @Test
+    public void testWithJitter() {
+        RolloutSchedule schedule = new RolloutSchedule(2, 60, 90, 0.2);
+        assertEquals("{\"sync_jitter\":90000}", schedule.withJitter(""));
+        assertEquals("{\"a\":1,\"sync_jitter\":90000}", schedule.withJitter("{\"a\":1}"));
+        assertEquals("{\"sync_jitter\":5}", schedule.withJitter("{\"sync_jitter\":5}"));
+        assertEquals("not json", schedule.withJitter("not json"));
+        assertEquals(null, RolloutSchedule.SINGLE_WAVE.withJitter(null));
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.commandline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import com.google.samples.apps.iosched.server.schedule.input.fetcher.FileEntityStreams;
+import com.google.samples.apps.iosched.server.schedule.model.DataExtractor;
+import com.google.samples.apps.iosched.server.schedule.model.InputJsonKeys;
+import com.google.samples.apps.iosched.server.schedule.model.JsonDataSource;
+import com.google.samples.apps.iosched.server.schedule.model.JsonDataSources;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class BatchExtractorTest {
+
+  private static final int SNAPSHOTS = 5;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File snapshotDir;
+  private JsonDataSources extraSources;
+
+  @Before
+  public void setUp() throws IOException {
+    snapshotDir = folder.newFolder("snapshots");
+    for (int i = 0; i < SNAPSHOTS; i++) {
+      // the last snapshot is gzip'd:
+      File file = new File(snapshotDir, "snapshot" + i + (i == SNAPSHOTS - 1 ? ".json.gz" : ".json"));
+      OutputStream out = new FileOutputStream(file);
+      if (i == SNAPSHOTS - 1) {
+        out = new GZIPOutputStream(out);
+      }
+      out.write(createSnapshot(10 + i).toString().getBytes("UTF-8"));
+      out.close();
+    }
+    new File(snapshotDir, "README.txt").createNewFile();
+
+    JsonArray mapping = new JsonParser().parse(
+        "[{\"category_id\": \"themeRoot\", \"tag_name\": \"THEME\", \"is_default\": true}]")
+        .getAsJsonArray();
+    extraSources = new JsonDataSources();
+    extraSources.addSource(new JsonDataSource(
+        InputJsonKeys.ExtraSource.MainTypes.tag_category_mapping, mapping));
+  }
+
+  private static JsonObject createSnapshot(int topicCount) {
+    JsonObject data = new JsonParser().parse("{"
+        + "\"rooms\": [{\"id\": \"room0\", \"name\": \"Room 0\"}],"
+        + "\"categories\": [{\"id\": \"themeRoot\", \"name\": \"Themes\"},"
+        + "  {\"id\": \"cat0\", \"name\": \"Category 0\", \"parentid\": \"themeRoot\"}],"
+        + "\"speakers\": [{\"id\": \"speaker0\", \"name\": \"Speaker 0\"}]}").getAsJsonObject();
+    JsonArray topics = new JsonArray();
+    for (int i = 0; i < topicCount; i++) {
+      topics.add(new JsonParser().parse("{\"id\": \"topic" + i + "\", \"title\": \"Topic " + i
+          + "\", \"start\": \"2015-05-28T10:00:00Z\", \"finish\": \"2015-05-28T11:00:00Z\","
+          + " \"categoryids\": [\"cat0\"], \"speakerids\": [\"speaker0\"]}"));
+    }
+    data.add("topics", topics);
+    return data;
+  }
+
+  private String extractOne(File snapshot) throws IOException {
+    StringWriter out = new StringWriter();
+    new DataExtractor(false).extractFromStreams(extraSources, new FileEntityStreams(snapshot),
+        new JsonWriter(out));
+    return out.toString();
+  }
+
+  private static String read(File file, boolean gzip) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(gzip
+        ? new GZIPInputStream(new FileInputStream(file)) : new FileInputStream(file), "UTF-8"));
+    try {
+      StringBuilder sb = new StringBuilder();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        sb.append(line).append('\n');
+      }
+      return sb.toString();
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testOneFilePerSnapshot() throws Exception {
+    File outputDir = new File(folder.getRoot(), "out");
+    BatchExtractor batch = new BatchExtractor(new DataExtractor(false), extraSources, 2);
+    batch.setGzip(true);
+    List<BatchExtractor.SnapshotStats> stats = batch.run(snapshotDir, outputDir);
+
+    assertEquals(SNAPSHOTS, stats.size());
+    for (int i = 0; i < SNAPSHOTS; i++) {
+      File snapshot = new File(snapshotDir, "snapshot" + i + (i == SNAPSHOTS - 1 ? ".json.gz" : ".json"));
+      File output = new File(outputDir, "snapshot" + i + ".json.gz");
+      assertEquals("snapshot" + i, stats.get(i).name);
+      assertEquals(snapshot.length(), stats.get(i).inputBytes);
+      assertEquals(output.length(), stats.get(i).outputBytes);
+      assertEquals(extractOne(snapshot) + "\n", read(output, true));
+    }
+    JsonArray statsFile = new JsonParser().parse(
+        read(new File(outputDir, BatchExtractor.STATS_FILE), false)).getAsJsonArray();
+    assertEquals(SNAPSHOTS, statsFile.size());
+  }
+
+  @Test
+  public void testNdjson() throws Exception {
+    File outputDir = new File(folder.getRoot(), "out");
+    BatchExtractor batch = new BatchExtractor(new DataExtractor(false), extraSources, 3);
+    batch.setNdjson(true);
+    batch.run(snapshotDir, outputDir);
+
+    String[] lines = read(new File(outputDir, BatchExtractor.NDJSON_FILE), false).split("\n");
+    assertEquals(SNAPSHOTS, lines.length);
+    for (int i = 0; i < SNAPSHOTS; i++) {
+      JsonObject line = new JsonParser().parse(lines[i]).getAsJsonObject();
+      assertEquals("snapshot" + i, line.get("snapshot").getAsString());
+      assertEquals(10 + i, line.getAsJsonObject("data").getAsJsonArray("sessions").size());
+      assertTrue(lines[i].endsWith(new Gson().toJson(line.get("data")) + "}"));
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.samples.apps.iosched.server.schedule.input.fetcher.VendorAPIEntityFetcher;
+import com.google.samples.apps.iosched.server.schedule.model.InputJsonKeys.VendorAPISource.MainTypes;
+import com.google.samples.apps.iosched.server.schedule.server.input.VendorDynamicInput;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Fetches paged results from a local stub of the Vendor API that adds a fixed latency to
+ * each page, comparing sequential and parallel paging.
+ */
+public class VendorPagingTest {
+
+  private static final int PAGE_SIZE = 10;
+  private static final int TOTAL = 95;
+  private static final long PAGE_LATENCY_MILLIS = 100;
+
+  private HttpServer server;
+  private ExecutorService serverExecutor;
+  private ExecutorService pageExecutor;
+  private String baseUrl;
+  private volatile boolean changeTotalAfterFirstPage;
+
+  @Before
+  public void setUp() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/api/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        int page = 1;
+        String query = exchange.getRequestURI().getQuery();
+        if (query != null) {
+          for (String param: query.split("&")) {
+            if (param.startsWith("page=")) {
+              page = Integer.parseInt(param.substring("page=".length()));
+            }
+          }
+        }
+        try {
+          Thread.sleep(PAGE_LATENCY_MILLIS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        byte[] body = createPage(page).toString().getBytes(Charset.forName("UTF-8"));
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+      }
+    });
+    serverExecutor = Executors.newFixedThreadPool(8);
+    server.setExecutor(serverExecutor);
+    server.start();
+    baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/api/";
+    pageExecutor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+    serverExecutor.shutdownNow();
+    pageExecutor.shutdownNow();
+  }
+
+  private JsonObject createPage(int page) {
+    int total = (changeTotalAfterFirstPage && page > 1) ? TOTAL + 1 : TOTAL;
+    JsonObject obj = new JsonObject();
+    obj.addProperty("page", page);
+    obj.addProperty("pagesize", PAGE_SIZE);
+    obj.addProperty("total", total);
+    JsonArray results = new JsonArray();
+    for (int i = (page - 1) * PAGE_SIZE; i < Math.min(page * PAGE_SIZE, total); i++) {
+      JsonObject entity = new JsonObject();
+      entity.addProperty("id", "topic" + i);
+      results.add(entity);
+    }
+    obj.add("results", results);
+    return obj;
+  }
+
+  @Test
+  public void testParallelPagingIsFasterAndKeepsOrder() throws IOException {
+    VendorDynamicInput sequentialInput = new VendorDynamicInput(new VendorAPIEntityFetcher(baseUrl));
+    long start = System.currentTimeMillis();
+    JsonArray sequential = sequentialInput.fetch(MainTypes.topics);
+    long sequentialMillis = System.currentTimeMillis() - start;
+
+    VendorDynamicInput parallelInput = new VendorDynamicInput(new VendorAPIEntityFetcher(baseUrl));
+    parallelInput.setPageExecutor(pageExecutor);
+    start = System.currentTimeMillis();
+    JsonArray parallel = parallelInput.fetch(MainTypes.topics);
+    long parallelMillis = System.currentTimeMillis() - start;
+
+    assertEquals(TOTAL, sequential.size());
+    assertEquals(sequential, parallel);
+    assertEquals("topic0", parallel.get(0).getAsJsonObject().get("id").getAsString());
+    assertEquals("topic94", parallel.get(TOTAL - 1).getAsJsonObject().get("id").getAsString());
+    assertTrue("parallel paging (" + parallelMillis + "ms) should be faster than sequential ("
+        + sequentialMillis + "ms)", parallelMillis < sequentialMillis);
+  }
+
+  @Test(expected = JsonParseException.class)
+  public void testParallelPagingRejectsInconsistentPages() throws IOException {
+    changeTotalAfterFirstPage = true;
+    VendorDynamicInput input = new VendorDynamicInput(new VendorAPIEntityFetcher(baseUrl));
+    input.setPageExecutor(pageExecutor);
+    input.fetch(MainTypes.topics);
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.input.fetcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.zip.GZIPOutputStream;
+
+public class HttpFileCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private HttpServer server;
+  private String url;
+  private volatile String body = "{\"rooms\": [{\"id\": \"room1\"}]}";
+  private volatile int bodiesSent;
+
+  @Before
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/data.json", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        String etag = "\"" + Integer.toHexString(body.hashCode()) + "\"";
+        exchange.getResponseHeaders().set("ETag", etag);
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+          exchange.sendResponseHeaders(304, -1);
+          exchange.close();
+          return;
+        }
+        boolean gzip = "gzip".equals(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+        if (gzip) {
+          exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        // Counted before the body is written, as the client may go on as soon as it is read:
+        bodiesSent++;
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        if (gzip) {
+          out = new GZIPOutputStream(out);
+        }
+        out.write(body.getBytes("UTF-8"));
+        out.close();
+      }
+    });
+    server.start();
+    url = "http://localhost:" + server.getAddress().getPort() + "/data.json";
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void testNotModifiedReusesParsedTree() throws IOException {
+    HttpFileCache cache = new HttpFileCache(null);
+    JsonObject first = cache.fetchJson(url);
+    JsonObject second = cache.fetchJson(url);
+    assertSame(first, second);
+    assertEquals("room1", first.getAsJsonArray("rooms").get(0).getAsJsonObject()
+        .get("id").getAsString());
+    assertEquals(1, bodiesSent);
+    assertEquals(1, cache.getNotModified());
+    assertEquals(1, cache.getParses());
+
+    body = "{\"rooms\": []}";
+    assertEquals(0, cache.fetchJson(url).getAsJsonArray("rooms").size());
+    assertEquals(2, bodiesSent);
+  }
+
+  @Test
+  public void testDiskCacheSurvivesInstances() throws IOException {
+    JsonObject first = new HttpFileCache(folder.getRoot()).fetchJson(url);
+    HttpFileCache cache = new HttpFileCache(folder.getRoot());
+    assertEquals(first, cache.fetchJson(url));
+    assertEquals(1, bodiesSent);
+    assertEquals(0, cache.getDownloads());
+    assertEquals(1, cache.getNotModified());
+  }
+}
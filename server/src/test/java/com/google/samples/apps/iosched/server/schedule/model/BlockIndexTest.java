@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+
+public class BlockIndexTest {
+
+  private static final SimpleDateFormat FORMAT =
+      new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+
+  private static JsonObject block(String type, String start, String end) {
+    JsonObject block = new JsonObject();
+    block.addProperty("type", type);
+    block.addProperty("start", "2015-05-28T" + start + ":00.000Z");
+    block.addProperty("end", "2015-05-28T" + end + ":00.000Z");
+    return block;
+  }
+
+  private static long time(String hour) throws Exception {
+    return FORMAT.parse("2015-05-28T" + hour + ":00.000Z").getTime();
+  }
+
+  @Test
+  public void testFreeBlocks() throws Exception {
+    JsonArray blocks = new JsonArray();
+    blocks.add(block("free", "13:00", "14:00"));
+    blocks.add(block("break", "12:00", "13:00"));
+    blocks.add(block("free", "09:00", "11:00"));
+    // overlaps the previous one, but ends before it:
+    blocks.add(block("free", "09:30", "10:00"));
+    blocks.add(block("free", "10:30", "11:30"));
+    JsonObject invalid = new JsonObject();
+    invalid.addProperty("type", "free");
+    invalid.addProperty("start", "tomorrow");
+    invalid.addProperty("end", "later");
+    blocks.add(invalid);
+
+    BlockIndex index = new BlockIndex(blocks);
+
+    assertEquals(6, index.getBlocks().size());
+    assertNotNull(index.getBlocks().get(5).parseError);
+    assertFalse(index.isInFreeBlock(time("08:59")));
+    assertTrue(index.isInFreeBlock(time("09:00")));
+    assertTrue(index.isInFreeBlock(time("10:15")));
+    assertTrue(index.isInFreeBlock(time("11:15")));
+    assertFalse(index.isInFreeBlock(time("11:30")));
+    assertFalse(index.isInFreeBlock(time("12:30")));
+    assertTrue(index.isInFreeBlock(time("13:59")));
+    assertFalse(index.isInFreeBlock(time("14:00")));
+  }
+}
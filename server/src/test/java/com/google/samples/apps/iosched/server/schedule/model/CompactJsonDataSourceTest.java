@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.samples.apps.iosched.server.schedule.model.InputJsonKeys.VendorAPISource;
+
+import org.junit.Test;
+
+import java.util.Iterator;
+
+public class CompactJsonDataSourceTest {
+
+  private static String toString(JsonDataSource source) {
+    JsonArray array = new JsonArray();
+    for (JsonObject obj: source) {
+      array.add(obj);
+    }
+    return array.toString();
+  }
+
+  @Test
+  public void testSameEntitiesAsJsonDataSource() {
+    JsonArray arr = new JsonParser().parse("["
+        + "{\"id\": \"a\", \"n\": 1, \"f\": true, \"tags\": [\"x\", \"y\"], \"info\": [{\"name\": \"k\", \"value\": \"v\"}]},"
+        + "{\"n\": 2, \"id\": \"b\", \"mixed\": [1, \"x\"], \"nothing\": null},"
+        + "{\"id\": \"c\", \"n\": 2.5, \"f\": false, \"big\": 12345678901234, \"tags\": []},"
+        + "{\"id\": \"a\", \"title\": \"replaced\"}"
+        + "]").getAsJsonArray();
+    JsonDataSource tree = new JsonDataSource(VendorAPISource.MainTypes.topics, arr);
+    CompactJsonDataSource compact = new CompactJsonDataSource(VendorAPISource.MainTypes.topics, arr);
+
+    assertEquals(tree.size(), compact.size());
+    assertEquals(toString(tree), toString(compact));
+    assertEquals(tree.getElementById("b"), compact.getElementById("b"));
+    assertNull(compact.getElementById("d"));
+    Iterator<JsonObject> it = compact.iterator();
+    assertEquals("replaced", it.next().get("title").getAsString());
+  }
+
+  @Test
+  public void testKeyFromType() {
+    JsonArray arr = new JsonParser().parse("[{\"tag\": \"TOPIC_ANDROID\", \"color\": \"#123456\"}]")
+        .getAsJsonArray();
+    CompactJsonDataSource compact = new CompactJsonDataSource(
+        InputJsonKeys.ExtraSource.MainTypes.tag_conf, arr);
+    assertEquals("#123456", compact.getElementById("TOPIC_ANDROID").get("color").getAsString());
+  }
+
+  @Test
+  public void testExtractionIsIdenticalAndSmaller() {
+    JsonArray categories = new JsonArray();
+    categories.add(new JsonParser().parse("{\"id\": \"themeRoot\", \"name\": \"Themes\"}"));
+    for (int i = 0; i < 20; i++) {
+      categories.add(new JsonParser().parse("{\"id\": \"cat" + i + "\", \"name\": \"Category "
+          + i + "\", \"parentid\": \"themeRoot\"}"));
+    }
+    JsonArray topics = new JsonArray();
+    for (int i = 0; i < 500; i++) {
+      JsonObject topic = new JsonObject();
+      topic.addProperty("id", "topic" + i);
+      topic.addProperty("title", "Topic " + i);
+      topic.addProperty("start", "2015-05-28T10:00:00Z");
+      topic.addProperty("finish", "2015-05-28T11:00:00Z");
+      JsonArray categoryIds = new JsonArray();
+      categoryIds.add(new JsonPrimitive("cat" + (i % 20)));
+      topic.add("categoryids", categoryIds);
+      JsonArray speakerIds = new JsonArray();
+      speakerIds.add(new JsonPrimitive("speaker" + (i % 7)));
+      topic.add("speakerids", speakerIds);
+      topic.add("sessions", new JsonParser().parse("[{\"roomid\": \"room" + (i % 5) + "\"}]"));
+      topics.add(topic);
+    }
+    JsonArray mapping = new JsonParser().parse(
+        "[{\"category_id\": \"themeRoot\", \"tag_name\": \"THEME\", \"is_default\": true}]")
+        .getAsJsonArray();
+
+    JsonDataSources trees = new JsonDataSources();
+    JsonDataSources compacts = new JsonDataSources();
+    trees.addSource(new JsonDataSource(VendorAPISource.MainTypes.categories, categories));
+    compacts.addSource(new CompactJsonDataSource(VendorAPISource.MainTypes.categories, categories));
+    trees.addSource(new JsonDataSource(VendorAPISource.MainTypes.topics, topics));
+    compacts.addSource(new CompactJsonDataSource(VendorAPISource.MainTypes.topics, topics));
+    trees.addSource(new JsonDataSource(InputJsonKeys.ExtraSource.MainTypes.tag_category_mapping, mapping));
+    compacts.addSource(new CompactJsonDataSource(InputJsonKeys.ExtraSource.MainTypes.tag_category_mapping, mapping));
+
+    Gson gson = new Gson();
+    assertEquals(gson.toJson(new DataExtractor(false).extractFromDataSources(trees)),
+        gson.toJson(new DataExtractor(false).extractFromDataSources(compacts)));
+
+    long treeSize = trees.getSource("topics").getEstimatedSize();
+    long compactSize = compacts.getSource("topics").getEstimatedSize();
+    assertTrue(compactSize > 0);
+    assertTrue(compactSize < treeSize / 2);
+  }
+}
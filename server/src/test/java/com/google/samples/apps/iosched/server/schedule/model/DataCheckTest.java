@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.samples.apps.iosched.server.schedule.model.DataCheck.CheckFailure;
+import com.google.samples.apps.iosched.server.schedule.model.DataCheck.CheckResult;
+import com.google.samples.apps.iosched.server.schedule.server.ManifestData;
+import com.google.samples.apps.iosched.server.schedule.server.cloudstorage.CloudFileManager;
+import com.google.samples.apps.iosched.server.schedule.server.cloudstorage.LocalFileGcsService;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class DataCheckTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private CloudFileManager fileManager;
+  private ManifestData manifest;
+  private JsonObject sessionData;
+
+  @Before
+  public void setUp() throws Exception {
+    fileManager = new CloudFileManager(new LocalFileGcsService(folder.getRoot()), "bucket");
+    // Blocks are not part of the session data, they come from another data file:
+    fileManager.createOrUpdate("blocks.json", new JsonParser().parse("{\"blocks\": ["
+        + "{\"type\": \"free\", \"start\": \"2015-05-28T16:00:00.000Z\", \"end\": \"2015-05-28T18:00:00.000Z\"},"
+        + "{\"type\": \"free\", \"start\": \"2015-05-28T15:00:00.000Z\", \"end\": \"2015-05-28T14:00:00.000Z\"}"
+        + "]}"), false);
+    manifest = new ManifestData();
+    manifest.dataFiles = new JsonArray();
+    manifest.dataFiles.add(new JsonPrimitive("blocks.json"));
+    manifest.dataFiles.add(new JsonPrimitive("session_data_v1.1.json"));
+
+    sessionData = new JsonParser().parse("{"
+        + "\"sessions\": ["
+        + "{\"id\": \"ok\", \"startTimestamp\": \"2015-05-28T17:00:00Z\", \"endTimestamp\": \"2015-05-28T17:30:00Z\"},"
+        + "{\"id\": \"notFree\", \"startTimestamp\": \"2015-05-28T19:00:00Z\", \"endTimestamp\": \"2015-05-28T19:30:00Z\"},"
+        + "{\"id\": \"backwards\", \"startTimestamp\": \"2015-05-28T17:00:00Z\", \"endTimestamp\": \"2015-05-28T16:00:00Z\"}],"
+        + "\"video_library\": [{\"id\": \"v1\", \"vid\": \"\"}]}").getAsJsonObject();
+  }
+
+  @Test
+  public void testRulesRunInParallelWithSameResult() throws Exception {
+    DataCheck checker = new DataCheck(fileManager);
+    CheckResult sequential = checker.check(null, sessionData, manifest);
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    CheckResult parallel;
+    try {
+      parallel = checker.check(null, sessionData, manifest, executor);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(sequential.failures.size(), parallel.failures.size());
+    for (int i = 0; i < sequential.failures.size(); i++) {
+      assertEquals(sequential.failures.get(i).toString(), parallel.failures.get(i).toString());
+      assertEquals(sequential.failures.get(i).rule, parallel.failures.get(i).rule);
+    }
+    assertEquals(checker.getRules().size(), parallel.ruleTimes.size());
+
+    Map<String, List<CheckFailure>> byRule = parallel.getFailuresByRule();
+    assertEquals(1, byRule.get("blockDates").size());
+    assertEquals(2, byRule.get("sessionDates").size());
+    assertEquals(1, byRule.get("videoLibraryVid").size());
+    assertEquals(3, byRule.size());
+    // the session data was not modified by merging other data files:
+    assertEquals(2, sessionData.entrySet().size());
+  }
+
+  @Test
+  public void testCustomRule() throws Exception {
+    DataCheck checker = new DataCheck(fileManager);
+    checker.addRule(new CheckRule("alwaysFails", OutputJsonKeys.MainTypes.sessions) {
+      @Override
+      public void check(CheckContext context, CheckResult result) {
+        result.failures.add(new CheckFailure("sessions", null, "custom"));
+      }
+    });
+    CheckResult result = checker.check(null, sessionData, manifest);
+    assertTrue(result.getFailuresByRule().containsKey("alwaysFails"));
+  }
+}
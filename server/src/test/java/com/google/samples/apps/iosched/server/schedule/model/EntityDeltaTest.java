@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+public class EntityDeltaTest {
+
+  private static JsonObject parse(String json) {
+    return new JsonParser().parse(json).getAsJsonObject();
+  }
+
+  @Test
+  public void testDelta() {
+    JsonObject oldData = parse("{\"sessions\": [{\"id\": \"s1\", \"title\": \"One\"},"
+        + " {\"id\": \"s2\", \"title\": \"Two\"}, {\"id\": \"s3\", \"title\": \"Three\"}],"
+        + " \"tags\": [{\"tag\": \"TOPIC_A\"}], \"rooms\": [{\"id\": \"r1\"}]}");
+    JsonObject newData = parse("{\"sessions\": [{\"id\": \"s1\", \"title\": \"One\"},"
+        + " {\"id\": \"s2\", \"title\": \"Two!\"}, {\"id\": \"s4\", \"title\": \"Four\"}],"
+        + " \"tags\": [{\"tag\": \"TOPIC_A\"}]}");
+
+    JsonObject newHashes = EntityDelta.computeHashes(newData);
+    JsonObject delta = EntityDelta.computeDelta(EntityDelta.computeHashes(oldData), newHashes,
+        newData);
+
+    assertEquals(parse("{\"sessions\": [{\"id\": \"s4\", \"title\": \"Four\"}]}"),
+        delta.get(EntityDelta.ADDED));
+    assertEquals(parse("{\"sessions\": [{\"id\": \"s2\", \"title\": \"Two!\"}]}"),
+        delta.get(EntityDelta.CHANGED));
+    assertEquals(parse("{\"sessions\": [\"s3\"], \"rooms\": [\"r1\"]}"),
+        delta.get(EntityDelta.REMOVED));
+    assertFalse(delta.getAsJsonObject(EntityDelta.CHANGED).has("tags"));
+  }
+
+  @Test
+  public void testUntrackableData() {
+    assertNull(EntityDelta.computeHashes(parse("{\"sessions\": [{\"id\": \"s1\"}, {\"id\": \"s1\"}]}")));
+    assertNull(EntityDelta.computeHashes(parse("{\"blocks\": [{\"title\": \"Lunch\"}]}")));
+  }
+}
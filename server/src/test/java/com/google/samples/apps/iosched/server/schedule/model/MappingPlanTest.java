@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.model;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.samples.apps.iosched.server.schedule.model.validator.Converters;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class MappingPlanTest {
+
+  private final MappingPlan plan = MappingPlan.builder()
+      .copy(InputJsonKeys.VendorAPISource.Topics.id, OutputJsonKeys.Sessions.id)
+      .copy(InputJsonKeys.VendorAPISource.Topics.title, OutputJsonKeys.Sessions.title,
+          Converters.TAG_NAME)
+      .copyIfNotEmpty(InputJsonKeys.VendorAPISource.Topics.documents,
+          InputJsonKeys.VendorAPISource.Topics.id, OutputJsonKeys.Sessions.photoUrl,
+          Converters.SESSION_PHOTO_URL)
+      .mapValue(InputJsonKeys.VendorAPISource.Topics.info,
+          InputJsonKeys.VendorAPISource.Topics.INFO_FEATURED_SESSION,
+          OutputJsonKeys.Sessions.isFeatured, Converters.BOOLEAN, "false")
+      .constant(new JsonPrimitive(2015), OutputJsonKeys.VideoLibrary.year)
+      .copy(InputJsonKeys.VendorAPISource.Categories.description, OutputJsonKeys.Tags._abstract)
+      .build();
+
+  private JsonObject apply(String origin) {
+    JsonObject dest = new JsonObject();
+    plan.apply(new JsonParser().parse(origin).getAsJsonObject(), dest);
+    return dest;
+  }
+
+  @Test
+  public void testOutputsInDeclaredOrder() {
+    assertEquals(Arrays.asList("id", "title", "photoUrl", "isFeatured", "year", "abstract"),
+        plan.getOutputs());
+    JsonObject dest = apply("{\"description\": \"d\", \"title\": \"a b\", \"id\": \"t1\","
+        + "\"documents\": [\"x\"], \"info\": [{\"name\": \"Featured Session\", \"value\": \"TRUE\"}]}");
+    assertEquals("{\"id\":\"t1\",\"title\":\"AB\","
+        + "\"photoUrl\":\"" + Converters.SESSION_PHOTO_URL.convert(new JsonPrimitive("t1")).getAsString()
+        + "\",\"isFeatured\":true,\"year\":2015,\"abstract\":\"d\"}", dest.toString());
+  }
+
+  @Test
+  public void testMissingValues() {
+    JsonObject dest = apply("{\"id\": \"t1\", \"documents\": []}");
+    assertEquals("{\"id\":\"t1\",\"isFeatured\":false,\"year\":2015}", dest.toString());
+  }
+}
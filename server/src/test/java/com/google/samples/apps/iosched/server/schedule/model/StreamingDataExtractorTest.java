@@ -0,0 +1,182 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.model;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import com.google.samples.apps.iosched.server.schedule.Config;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+/**
+ * Checks that streaming extraction produces exactly the same bytes as the tree-based one.
+ */
+public class StreamingDataExtractorTest {
+
+  private JsonObject vendorData;
+  private JsonDataSources extraSources;
+
+  @Before
+  public void setUp() {
+    JsonArray rooms = new JsonArray();
+    for (int i = 0; i < 3; i++) {
+      rooms.add(entity("room" + i, "name", "Room <" + i + ">"));
+    }
+
+    JsonArray categories = new JsonArray();
+    categories.add(entity("themeRoot", "name", "Themes"));
+    for (int i = 0; i < 4; i++) {
+      JsonObject category = entity("cat" + i, "name", "Category & " + i);
+      category.addProperty("parentid", "themeRoot");
+      categories.add(category);
+    }
+
+    JsonArray speakers = new JsonArray();
+    for (int i = 0; i < 6; i++) {
+      JsonObject speaker = entity("speaker" + i, "name", "Speaker " + i);
+      speaker.addProperty("bio", "Says \"hi\" <b>" + i + "</b>");
+      speakers.add(speaker);
+    }
+
+    JsonArray topics = new JsonArray();
+    for (int i = 0; i < 20; i++) {
+      JsonObject topic = entity("topic" + i, "title", "Topic = " + i);
+      topic.addProperty("description", "Description of topic " + i + " 'quoted'");
+      topic.addProperty("start", "2015-05-28T10:00:00Z");
+      topic.addProperty("finish", "2015-05-28T11:00:00Z");
+      JsonArray categoryIds = new JsonArray();
+      categoryIds.add(new JsonParser().parse("\"cat" + (i % 3) + "\""));
+      if (i % 5 == 0) {
+        categoryIds.add(new JsonParser().parse("\"" + Config.VIDEO_CATEGORY + "\""));
+      }
+      topic.add("categoryids", categoryIds);
+      JsonArray speakerIds = new JsonArray();
+      speakerIds.add(new JsonParser().parse("\"speaker" + (i % 4) + "\""));
+      topic.add("speakerids", speakerIds);
+      topics.add(topic);
+    }
+
+    vendorData = new JsonObject();
+    vendorData.add(InputJsonKeys.VendorAPISource.MainTypes.rooms.name(), rooms);
+    vendorData.add(InputJsonKeys.VendorAPISource.MainTypes.categories.name(), categories);
+    vendorData.add(InputJsonKeys.VendorAPISource.MainTypes.speakers.name(), speakers);
+    vendorData.add(InputJsonKeys.VendorAPISource.MainTypes.topics.name(), topics);
+
+    JsonArray mapping = new JsonArray();
+    JsonObject themes = new JsonObject();
+    themes.addProperty("category_id", "themeRoot");
+    themes.addProperty("tag_name", "THEME");
+    themes.addProperty("is_default", true);
+    mapping.add(themes);
+    extraSources = new JsonDataSources();
+    extraSources.addSource(new JsonDataSource(
+        InputJsonKeys.ExtraSource.MainTypes.tag_category_mapping, mapping));
+  }
+
+  private static JsonObject entity(String id, String property, String value) {
+    JsonObject obj = new JsonObject();
+    obj.addProperty("id", id);
+    obj.addProperty(property, value);
+    return obj;
+  }
+
+  private JsonEntityStreams createStreams(final String document) {
+    return new JsonEntityStreams() {
+      @Override
+      protected Reader openReader() {
+        return new StringReader(document);
+      }
+    };
+  }
+
+  private String extractWithTree() {
+    JsonDataSources sources = new JsonDataSources();
+    sources.putAll(extraSources);
+    for (InputJsonKeys.VendorAPISource.MainTypes type:
+        InputJsonKeys.VendorAPISource.MainTypes.values()) {
+      sources.addSource(new JsonDataSource(type, vendorData.getAsJsonArray(type.name())));
+    }
+    return new Gson().toJson(new DataExtractor(false).extractFromDataSources(sources));
+  }
+
+  private String extractWithStreams(String document) throws IOException {
+    StringWriter out = new StringWriter();
+    new DataExtractor(false).extractFromStreams(extraSources, createStreams(document),
+        new JsonWriter(out));
+    return out.toString();
+  }
+
+  @Test
+  public void testStreamingOutputIsIdentical() throws IOException {
+    String tree = extractWithTree();
+    String streamed = extractWithStreams(vendorData.toString());
+    assertEquals(tree, streamed);
+    JsonObject result = new JsonParser().parse(streamed).getAsJsonObject();
+    assertEquals(16, result.getAsJsonArray(OutputJsonKeys.MainTypes.sessions.name()).size());
+    assertEquals(4, result.getAsJsonArray(OutputJsonKeys.MainTypes.video_library.name()).size());
+    assertEquals(4, result.getAsJsonArray(OutputJsonKeys.MainTypes.speakers.name()).size());
+  }
+
+  @Test
+  public void testStreamingIgnoresEntityTypeOrder() throws IOException {
+    JsonObject reordered = new JsonObject();
+    reordered.add("unknown", new JsonParser().parse("{\"a\": [1, 2]}"));
+    for (String type: new String[] {"topics", "speakers", "categories", "rooms"}) {
+      reordered.add(type, vendorData.get(type));
+    }
+    assertEquals(extractWithTree(), extractWithStreams(reordered.toString()));
+  }
+
+  @Test(expected = IOException.class)
+  public void testStreamingFailsIfDocumentChanged() throws IOException {
+    final String document = vendorData.toString();
+    JsonEntityStreams changing = new JsonEntityStreams() {
+      private int openings = 0;
+
+      @Override
+      protected Reader openReader() {
+        openings++;
+        return new StringReader(document);
+      }
+
+      @Override
+      public void checkUnchanged() throws IOException {
+        throw new IOException("changed after " + openings + " openings");
+      }
+    };
+    new DataExtractor(false).extractFromStreams(extraSources, changing,
+        new JsonWriter(new StringWriter()));
+  }
+
+  @Test(expected = JsonParseException.class)
+  public void testStreamingRejectsDuplicateTopics() throws IOException {
+    JsonArray topics = vendorData.getAsJsonArray("topics");
+    topics.add(topics.get(1));
+    extractWithStreams(vendorData.toString());
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.model.validator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.gson.JsonPrimitive;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+public class IsoDateTimeTest {
+
+  @Test
+  public void testMatchesSimpleDateFormat() throws ParseException {
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    Random random = new Random(1);
+    for (int i = 0; i < 10000; i++) {
+      // seconds between 1900 and 2100:
+      long millis = (random.nextLong() % (200L * 365 * 24 * 3600) - 70L * 365 * 24 * 3600) * 1000;
+      String text = format.format(millis);
+      assertEquals(text, IsoDateTime.format(millis));
+      assertEquals(text, format.parse(text).getTime(), IsoDateTime.parse(text));
+    }
+  }
+
+  @Test
+  public void testParseVariants() throws ParseException {
+    long expected = IsoDateTime.parse("2015-05-28T16:00:00Z");
+    assertEquals(expected, IsoDateTime.parse("2015-05-28T16:00:00"));
+    assertEquals(expected + 120, IsoDateTime.parse("2015-05-28T16:00:00.12Z"));
+    assertEquals(expected, IsoDateTime.parse("[2015-05-28T16:00:00Z]", 1, 21));
+    assertEquals(IsoDateTime.toEpochMillis(2016, 3, 1),
+        IsoDateTime.parse("2016-02-29T00:00:00Z") + 24 * 60 * 60 * 1000L);
+    // zones are ignored, like SimpleDateFormat did:
+    assertEquals(expected, IsoDateTime.parse("2015-05-28T16:00:00+02:00"));
+    assertEquals(expected, IsoDateTime.parse("2015-05-28T16:00:00 PDT"));
+    // fields can have any width, and roll over when out of range:
+    assertEquals(expected, IsoDateTime.parse("2015-5-28T16:0:00"));
+    assertEquals(IsoDateTime.parse("2015-05-29T00:00:00Z"),
+        IsoDateTime.parse("2015-05-28T24:00:00Z"));
+    assertEquals(IsoDateTime.parse("2016-01-01T00:00:00Z"),
+        IsoDateTime.parse("2015-12-32T00:00:00Z"));
+    assertEquals(IsoDateTime.parse("2016-01-01T00:00:00Z"),
+        IsoDateTime.parse("2015-13-01T00:00:00Z"));
+  }
+
+  @Test
+  public void testParseErrors() {
+    String[] invalid = {"", "2015-05-28", "2015-05-28 16:00:00Z", "2015-05-28T16:00Z",
+        "x2015-05-28T16:00:00Z", "2015/05/28T16:00:00Z"};
+    for (String text: invalid) {
+      try {
+        IsoDateTime.parse(text);
+        fail("Expected a ParseException for " + text);
+      } catch (ParseException expected) {
+      }
+    }
+  }
+
+  @Test
+  public void testConverter() {
+    assertEquals("2015-05-28T16:00:00Z",
+        Converters.DATETIME.convert(new JsonPrimitive("2015-05-28T16:00:00")).getAsString());
+    // dates before 2000 are moved to June 25th, 2014:
+    assertEquals("2014-06-25T16:30:00Z",
+        Converters.DATETIME.convert(new JsonPrimitive("1900-01-01T16:30:00Z")).getAsString());
+  }
+
+  @Test
+  public void testConverterMatchesSimpleDateFormat() {
+    String[] inputs = {"2015-05-28T16:00:00Z", "2015-05-28T16:00:00", "2015-05-28T10:00:00+02:00",
+        "2015-05-28T10:00:00-0700", "2015-05-28T10:00:00 PDT", "2015-05-28T10:00:00.999Z",
+        "2015-5-28T9:00:00", "2015-05-28T24:00:00Z", "2015-05-28T23:59:60Z", "2015-02-29T10:00:00Z",
+        "2015-13-01T10:00:00Z", "2015-00-01T10:00:00Z", "2015-05-00T10:00:00Z",
+        "2015-05-28T 9:00:00Z", " 2015-05-28T09:00:00Z", "02015-005-028T009:000:000Z",
+        "1999-05-31T10:00:00Z", "1900-02-28T10:00:00Z", "15-05-28T10:00:00Z",
+        "2015-05-28T10:00:00Zgarbage"};
+    for (String input: inputs) {
+      JsonPrimitive value = new JsonPrimitive(input);
+      assertEquals(input, baselineConvert(value), Converters.DATETIME.convert(value).getAsString());
+    }
+  }
+
+  /**
+   * What DateTimeConverter did before it used IsoDateTime, in UTC like on App Engine.
+   */
+  @SuppressWarnings("deprecation")
+  private static String baselineConvert(JsonPrimitive value) {
+    TimeZone defaultZone = TimeZone.getDefault();
+    TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+    try {
+      SimpleDateFormat[] inputFormats = new SimpleDateFormat[] {
+          new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'"),
+          new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss"),
+      };
+      Date date = null;
+      for (int i = 0; i < inputFormats.length && date == null; i++) {
+        try {
+          date = inputFormats[i].parse(value.getAsString());
+        } catch (ParseException e) {
+        }
+      }
+      if (date.getYear() < 100) {
+        date.setYear(114);
+        date.setMonth(Calendar.JUNE);
+        date.setDate(25);
+      }
+      return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'").format(date);
+    } finally {
+      TimeZone.setDefault(defaultZone);
+    }
+  }
+}
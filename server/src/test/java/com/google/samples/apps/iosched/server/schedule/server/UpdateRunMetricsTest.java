@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.JsonObject;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class UpdateRunMetricsTest {
+
+  private UpdateRunMetrics metrics;
+
+  @Before
+  public void setUp() {
+    List<Map<String, Object>> runs = new ArrayList<Map<String, Object>>();
+    // most recent first, with extraction times of 20, 19, ..., 1 ms:
+    for (int i = 20; i >= 1; i--) {
+      Map<String, Object> run = new HashMap<String, Object>();
+      run.put("date", new Date(1432803600000L + i * 60000L));
+      run.put("ns_extractOurData", i * 1000000L);
+      run.put("bytes_write_sessions", 1000L);
+      run.put("count_entities_sessions", (long) i);
+      run.put("heapUsedBytes", 64L * 1024 * 1024);
+      run.put("summary", "sessions=" + i);
+      runs.add(run);
+    }
+    // an older, much slower run:
+    Map<String, Object> oldRun = new HashMap<String, Object>();
+    oldRun.put("ns_extractOurData", 500000000L);
+    runs.add(oldRun);
+    metrics = new UpdateRunMetrics(runs);
+  }
+
+  @Test
+  public void testPercentiles() {
+    UpdateRunMetrics.Metric extract = metrics.getMetrics().get("ns_extractOurData");
+    assertEquals(21, extract.getSamples());
+    assertEquals(20000000L, extract.getLast());
+    assertEquals(11000000L, extract.getPercentile(50));
+    assertEquals(20000000L, extract.getPercentile(95));
+    assertEquals(500000000L, extract.getPercentile(100));
+    assertEquals(20, metrics.getMetrics().get("bytes_write_sessions").getSamples());
+  }
+
+  @Test
+  public void testJson() {
+    JsonObject json = metrics.toJson();
+    assertEquals(21, json.get("runs").getAsInt());
+    assertEquals("2015-05-28T09:20:00Z", json.get("lastRun").getAsString());
+    JsonObject extract = json.getAsJsonObject("metrics").getAsJsonObject("ns_extractOurData");
+    assertEquals(11000000L, extract.get("p50").getAsLong());
+  }
+
+  @Test
+  public void testPrometheus() throws IOException {
+    StringWriter out = new StringWriter();
+    metrics.writePrometheus(out);
+    String text = out.toString();
+    assertTrue(text.contains("# TYPE iosched_updater_stage_seconds gauge\n"));
+    assertTrue(text.contains(
+        "iosched_updater_stage_seconds{stage=\"extractOurData\",stat=\"last\"} 0.02\n"));
+    assertTrue(text.contains("iosched_updater_bytes{name=\"write_sessions\",stat=\"p95\"} 1000\n"));
+    assertTrue(text.contains("iosched_updater_count{name=\"entities_sessions\",stat=\"p50\"} 10\n"));
+    assertTrue(text.contains("iosched_updater_heap_used_bytes{stat=\"last\"} 67108864\n"));
+    assertTrue(text.contains("iosched_updater_runs 21\n"));
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.server.cloudstorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appengine.tools.cloudstorage.GcsFileMetadata;
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.samples.apps.iosched.server.schedule.Config;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Uploads files to a {@link LocalFileGcsService}.
+ */
+public class CloudFileManagerTest {
+
+  private static final String BUCKET = "test-bucket";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private LocalFileGcsService gcsService;
+  private CloudFileManager fileManager;
+
+  @Before
+  public void setUp() {
+    gcsService = new LocalFileGcsService(folder.getRoot());
+    fileManager = new CloudFileManager(gcsService, BUCKET);
+  }
+
+  @Test
+  public void testImmutableGzipUpload() throws Exception {
+    JsonObject contents = new JsonParser().parse(
+        "{\"sessions\": [{\"id\": \"s1\", \"title\": \"Keynote\"}]}").getAsJsonObject();
+    SerializedJson data = SerializedJson.of(contents, true);
+
+    String filename = fileManager.createImmutable("session_data_v1.2.json", data);
+
+    assertEquals("session_data_v1.2." + data.getHashHex() + ".json", filename);
+    assertTrue(Config.SESSIONS_PATTERN.matcher(filename).matches());
+    GcsFileMetadata metadata = gcsService.getMetadata(new GcsFilename(BUCKET, filename));
+    assertEquals("gzip", metadata.getOptions().getContentEncoding());
+    assertEquals("public, max-age=" + Config.IMMUTABLE_FILES_MAX_AGE,
+        metadata.getOptions().getCacheControl());
+    assertEquals(data.getBytes().length, metadata.getLength());
+    assertEquals(contents, fileManager.readFileAsJsonObject(filename));
+
+    JsonObject changed = new JsonParser().parse(
+        "{\"sessions\": [{\"id\": \"s1\", \"title\": \"Keynote!\"}]}").getAsJsonObject();
+    assertNotEquals(filename,
+        fileManager.createImmutable("session_data_v1.2.json", SerializedJson.of(changed, true)));
+  }
+
+  @Test
+  public void testManifestIsShortCached() throws Exception {
+    JsonObject manifest = new JsonObject();
+    manifest.addProperty("format", Config.MANIFEST_FORMAT_VERSION);
+    fileManager.createOrUpdateProductionManifest(manifest);
+
+    GcsFileMetadata metadata = gcsService.getMetadata(
+        new GcsFilename(BUCKET, Config.MANIFEST_NAME));
+    assertEquals("public, max-age=0", metadata.getOptions().getCacheControl());
+    assertEquals(manifest, fileManager.readProductionManifest());
+  }
+
+  @Test
+  public void testReadThroughCache() throws Exception {
+    JsonFileCache cache = JsonFileCache.createPrivate();
+    fileManager.setCache(cache);
+    fileManager.createOrUpdate("map.json", new JsonParser().parse("{\"map\": [1]}"), false);
+
+    JsonObject first = fileManager.readFileAsJsonObject("map.json");
+    JsonObject second = fileManager.readFileAsJsonObject("map.json");
+    assertSame(first, second);
+    assertEquals(1, cache.getMisses());
+    assertEquals(1, cache.getHits());
+
+    fileManager.createOrUpdate("map.json", new JsonParser().parse("{\"map\": [2]}"), false);
+    JsonObject third = fileManager.readFileAsJsonObject("map.json");
+    assertEquals(new JsonParser().parse("{\"map\": [2]}"), third);
+    assertEquals(2, cache.getMisses());
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.server.cloudstorage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+
+public class SerializedJsonTest {
+
+  private static final JsonElement CONTENT = new JsonParser().parse(
+      "{\"sessions\": [{\"id\": \"s1\", \"title\": \"<Hello> & 'bye'\"}, {\"id\": \"s2\"}],"
+      + " \"rooms\": []}");
+
+  @Test
+  public void testHashIsMD5OfUncompressedJson() throws Exception {
+    byte[] json = new Gson().toJson(CONTENT).getBytes(Charset.forName("UTF-8"));
+    byte[] expected = MessageDigest.getInstance("MD5").digest(json);
+
+    SerializedJson plain = SerializedJson.of(CONTENT, false);
+    SerializedJson gzipped = SerializedJson.of(CONTENT, true);
+
+    assertArrayEquals(expected, plain.getHash());
+    assertArrayEquals(expected, gzipped.getHash());
+    assertArrayEquals(json, plain.getBytes());
+    assertEquals(json.length, plain.getUncompressedSize());
+    assertEquals(json.length, gzipped.getUncompressedSize());
+    assertTrue(gzipped.isGzipped());
+    assertEquals(CONTENT, gzipped.parse());
+  }
+}
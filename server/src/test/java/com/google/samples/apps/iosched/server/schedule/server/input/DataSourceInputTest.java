@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.server.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.samples.apps.iosched.server.schedule.input.fetcher.EntityFetcher;
+import com.google.samples.apps.iosched.server.schedule.model.InputJsonKeys.VendorAPISource;
+import com.google.samples.apps.iosched.server.schedule.model.JsonDataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class DataSourceInputTest {
+
+  private ExecutorService executor;
+  // Counted down when the fetch of topics starts, and when it is interrupted:
+  private CountDownLatch topicsStarted;
+  private CountDownLatch topicsCancelled;
+
+  /**
+   * Input whose topics never finish fetching, unless the fetch is interrupted.
+   */
+  private class SlowTopicsInput extends DataSourceInput<VendorAPISource.MainTypes> {
+    SlowTopicsInput() {
+      super(new EntityFetcher() {
+        @Override
+        public JsonElement fetch(Enum<?> entityType, Map<String, String> params) {
+          if (entityType == VendorAPISource.MainTypes.topics) {
+            topicsStarted.countDown();
+            try {
+              Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+              topicsCancelled.countDown();
+            }
+          }
+          return new JsonParser().parse("[]");
+        }
+      });
+    }
+
+    @Override
+    public Class<VendorAPISource.MainTypes> getType() {
+      return VendorAPISource.MainTypes.class;
+    }
+  }
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+    topicsStarted = new CountDownLatch(1);
+    topicsCancelled = new CountDownLatch(1);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testTimeoutCancelsSlowFetch() throws InterruptedException {
+    SlowTopicsInput input = new SlowTopicsInput();
+    try {
+      input.fetchAllDataSources(executor, 1000);
+      fail("Fetching topics should have timed out");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Timed out fetching topics"));
+    }
+    assertTrue(topicsCancelled.await(5, TimeUnit.SECONDS));
+    // The other types were fetched in time:
+    assertEquals(3, input.getFetchTimes().size());
+  }
+
+  @Test
+  public void testConsumerFailureCancelsPendingFetches() throws InterruptedException {
+    try {
+      new SlowTopicsInput().fetchAllDataSources(executor, TimeUnit.MINUTES.toMillis(1),
+          new DataSourceInput.SourceConsumer() {
+            @Override
+            public void accept(JsonDataSource source) throws IOException {
+              // A fetch cancelled before it starts is never run, make sure it is running:
+              try {
+                topicsStarted.await(5, TimeUnit.SECONDS);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              throw new IOException("Cannot write " + source.getSourceType());
+            }
+          });
+      fail("The consumer failure should have been thrown");
+    } catch (IOException e) {
+      assertEquals("Cannot write rooms", e.getMessage());
+    }
+    assertTrue(topicsCancelled.await(5, TimeUnit.SECONDS));
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.server.input;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import com.google.samples.apps.iosched.server.schedule.input.fetcher.EntityFetcher;
+import com.google.samples.apps.iosched.server.schedule.model.InputJsonKeys.VendorAPISource;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class RawDataWriterTest {
+
+  private static class FakeInput extends DataSourceInput<VendorAPISource.MainTypes> {
+    FakeInput() {
+      super(new EntityFetcher() {
+        @Override
+        public JsonElement fetch(Enum<?> entityType, Map<String, String> params) {
+          if (entityType == VendorAPISource.MainTypes.rooms) {
+            return new JsonParser().parse("[{\"id\": \"room1\", \"name\": \"<Room 1>\"}]");
+          }
+          if (entityType == VendorAPISource.MainTypes.topics) {
+            return new JsonParser().parse("[{\"id\": \"t1\"}, {\"id\": \"t2\"}]");
+          }
+          return new JsonParser().parse("[]");
+        }
+      });
+    }
+
+    @Override
+    public Class<VendorAPISource.MainTypes> getType() {
+      return VendorAPISource.MainTypes.class;
+    }
+  }
+
+  @Test
+  public void testWritesSourcesInTypeOrder() throws IOException {
+    StringWriter out = new StringWriter();
+    RawDataWriter writer = new RawDataWriter(new JsonWriter(out));
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      new FakeInput().fetchAllDataSources(executor, 10000, writer);
+    } finally {
+      executor.shutdownNow();
+    }
+    writer.finish();
+
+    StringBuilder expected = new StringBuilder("{");
+    for (VendorAPISource.MainTypes type: VendorAPISource.MainTypes.values()) {
+      if (expected.length() > 1) {
+        expected.append(',');
+      }
+      expected.append('"').append(type.name()).append("\":");
+      if (type == VendorAPISource.MainTypes.rooms) {
+        expected.append("[{\"id\":\"room1\",\"name\":\"\\u003cRoom 1\\u003e\"}]");
+      } else if (type == VendorAPISource.MainTypes.topics) {
+        expected.append("[{\"id\":\"t1\"},{\"id\":\"t2\"}]");
+      } else {
+        expected.append("[]");
+      }
+    }
+    expected.append('}');
+    assertEquals(expected.toString(), out.toString());
+    assertEquals(VendorAPISource.MainTypes.values().length,
+        writer.getSummary().split("\n").length);
+  }
+}